@@ -0,0 +1,344 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+import javax.swing.JOptionPane;
+import javax.swing.JTabbedPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.io.ChangeTracker;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.CharsetDetector;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.DocumentFingerprint;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.Compression;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileFormat;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileStamp;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.ParallelDecoder;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineIndexedDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.MappedContent;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.PieceTableDocument;
+
+/**
+ * Loads a file into an already created tab without blocking the Event
+ * Dispatch Thread. Smaller files are decoded on a background thread, or in
+ * parallel if they are big enough, and appended to the tab's document chunk
+ * by chunk. The largest files are mapped into memory and shown read-only once
+ * they are indexed. Compressed files are always decompressed as a stream.
+ * Charset of the file is detected from a sample of its first bytes before the
+ * file is read. Only a few decoded chunks wait for the Event Dispatch Thread
+ * at once, so reading never runs far ahead of the document and the text
+ * isn't held in memory twice. Tabs which store their documents in a piece
+ * table get one once the file is loaded. Progress is shown in the title of the tab and
+ * loading can be cancelled, in which case the tab is closed.
+ * @author Luka Kraljević
+ *
+ */
+public class DocumentLoader extends SwingWorker<Document, Void> {
+
+    /**
+     * Files of this size or larger are mapped into memory and shown read-only
+     * instead of being read into the editor as a whole.
+     */
+    public static final long MAPPED_OPEN_THRESHOLD = 32L * 1024 * 1024;
+
+    /**
+     * Files of this size or larger are decoded in parallel.
+     */
+    public static final long PARALLEL_DECODE_THRESHOLD = 4L * 1024 * 1024;
+
+    /**
+     * Number of characters decoded at once.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Number of decoded chunks which may wait to be appended.
+     */
+    private static final int PENDING_CHUNKS = 4;
+
+    /**
+     * Permits for decoded chunks, one is taken for each chunk handed over to
+     * the Event Dispatch Thread and given back once it is appended.
+     */
+    private final Semaphore pending = new Semaphore(PENDING_CHUNKS);
+
+    /**
+     * Editor which is being loaded.
+     */
+    private final JNotepadPP notepad;
+
+    /**
+     * Text area of the tab which is being filled.
+     */
+    private final JTextArea editor;
+
+    /**
+     * Path of the file.
+     */
+    private final Path path;
+
+    /**
+     * Size of the file in bytes.
+     */
+    private final long size;
+
+    /**
+     * Title of the tab without the progress.
+     */
+    private final String title;
+
+    /**
+     * Compression of the file.
+     */
+    private final Compression compression;
+
+    /**
+     * Stamp of the file taken before it was read.
+     */
+    private volatile FileStamp stamp;
+
+    /**
+     * Detected format of the file.
+     */
+    private volatile FileFormat format;
+
+    /**
+     * Creates the loader for given tab.
+     * @param notepad editor which shows the tab
+     * @param editor text area of the tab which will be filled
+     * @param path path of the file
+     * @throws IOException if size of the file can't be read
+     */
+    public DocumentLoader(JNotepadPP notepad, JTextArea editor, Path path) throws IOException {
+        this.notepad = notepad;
+        this.editor = editor;
+        this.path = path;
+        this.size = Files.size(path);
+        this.title = path.getFileName().toString();
+        this.compression = Compression.detect(path);
+
+        addPropertyChangeListener(e -> {
+            if ("progress".equals(e.getPropertyName()) && TabState.of(editor).isLoading()) {
+                showTitle(title + " (" + e.getNewValue() + "%)");
+            }
+        });
+    }
+
+    /**
+     * Starts loading. Editor is read-only and its caret stays in place until
+     * the loading is finished. Files which are read into memory get a
+     * compact document, which grows by chunks, so it is never copied while
+     * growing.
+     */
+    public void start() {
+        TabState.of(editor).setLoader(this);
+        if (compression != Compression.NONE || size < MAPPED_OPEN_THRESHOLD) {
+            editor.setDocument(notepad.createDocument());
+        }
+        editor.setEditable(false);
+        ((DefaultCaret) editor.getCaret()).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        showTitle(title + " (0%)");
+        execute();
+    }
+
+    @Override
+    protected Document doInBackground() throws Exception {
+        stamp = FileStamp.of(path);
+        format = CharsetDetector.detect(path, compression);
+        Charset charset = format.getCharset();
+        int bom = format.getBomLength();
+
+        if (compression == Compression.NONE && MappedContent.supports(charset)) {
+            if (size >= MAPPED_OPEN_THRESHOLD) {
+                MappedContent content = MappedContent.open(path, charset, bom, this::setProgress);
+                Document doc = new LineIndexedDocument(content, content);
+                doc.putProperty(Document.StreamDescriptionProperty, path.toAbsolutePath());
+                return doc;
+            }
+
+            if (size >= PARALLEL_DECODE_THRESHOLD) {
+                ParallelDecoder.decode(path, charset, bom,
+                        chars -> handOver(chars.array(), chars.arrayOffset() + chars.position(),
+                                chars.remaining()),
+                        done -> setProgress((int) (done * 100 / size)));
+                return null;
+            }
+        }
+
+        try (CountingInputStream in = new CountingInputStream(Files.newInputStream(path));
+                Reader reader = format.newReader(in)) {
+            boolean end = false;
+            while (!isCancelled() && !end) {
+                // every chunk gets its own buffer, it is appended from it later
+                char[] buffer = new char[CHUNK_SIZE];
+                int filled = 0;
+                while (filled < buffer.length) {
+                    int read = reader.read(buffer, filled, buffer.length - filled);
+                    if (read == -1) {
+                        end = true;
+                        break;
+                    }
+                    filled += read;
+                }
+                if (filled > 0) {
+                    handOver(buffer, 0, filled);
+                }
+                setProgress(size == 0 ? 100 : (int) Math.min(100, in.count * 100 / size));
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Hands decoded text over to the Event Dispatch Thread, waiting while
+     * {@link #PENDING_CHUNKS} chunks are already waiting to be appended.
+     * @param chars array with the text, which must not change afterwards
+     * @param offset index of the first character
+     * @param length number of characters
+     */
+    private void handOver(char[] chars, int offset, int length) {
+        pending.acquireUninterruptibly();
+        SwingUtilities.invokeLater(() -> append(chars, offset, length));
+    }
+
+    /**
+     * Appends decoded text to the end of the tab's document. Chunks are
+     * appended with {@link SwingUtilities#invokeLater}, so all of them are in
+     * the document before {@link #done()} is called. Fingerprint of the
+     * document is updated with every chunk, so it is ready when the file is
+     * loaded.
+     * @param chars array with the text
+     * @param offset index of the first character
+     * @param length number of characters
+     */
+    private void append(char[] chars, int offset, int length) {
+        try {
+            if (isCancelled()) {
+                return;
+            }
+            Document doc = editor.getDocument();
+            if (doc instanceof LineIndexedDocument) {
+                ((LineIndexedDocument) doc).insertChars(doc.getLength(), chars, offset, offset + length);
+            } else {
+                doc.insertString(doc.getLength(), new String(chars, offset, length), null);
+            }
+            DocumentFingerprint.of(doc).get();
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        } finally {
+            pending.release();
+        }
+    }
+
+    @Override
+    protected void done() {
+        TabState state = TabState.of(editor);
+        state.setLoader(null);
+
+        Document doc;
+        try {
+            doc = get();
+        } catch (CancellationException | InterruptedException ex) {
+            notepad.closeTab(editor);
+            return;
+        } catch (ExecutionException ex) {
+            notepad.closeTab(editor);
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Error while reading file " + path.toAbsolutePath(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        boolean mapped = doc instanceof LineIndexedDocument && ((LineIndexedDocument) doc).isReadOnly();
+        if (state.isPieceTable()) {
+            try {
+                doc = PieceTableDocument.copyOf(doc != null ? doc : editor.getDocument());
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+            }
+        }
+        if (doc != null) {
+            editor.setDocument(doc);
+        }
+        editor.setEditable(!(doc instanceof LineIndexedDocument) || !((LineIndexedDocument) doc).isReadOnly());
+        ((DefaultCaret) editor.getCaret()).setUpdatePolicy(DefaultCaret.UPDATE_WHEN_ON_EDT);
+        ChangeTracker.attach(editor.getDocument(), stamp);
+        state.setFormat(format);
+        state.setKnownLength(editor.getDocument().getLength());
+        // hashing a mapped file would read all of it, so its tab is changed by any edit
+        state.setSavedFingerprint(mapped
+                ? DocumentFingerprint.NONE : DocumentFingerprint.of(editor.getDocument()).get());
+        notepad.watch(editor, path).sync();
+        showTitle(title);
+    }
+
+    /**
+     * Sets the title of the loaded tab, if the tab is still opened.
+     * @param text new title
+     */
+    private void showTitle(String text) {
+        int index = notepad.indexOf(editor);
+        if (index == -1) {
+            return;
+        }
+        JTabbedPane tabs = notepad.getTabs();
+        tabs.setTitleAt(index, text);
+        if (tabs.getTabComponentAt(index) != null) {
+            tabs.getTabComponentAt(index).revalidate();
+        }
+    }
+
+    /**
+     * Stream which counts bytes read from the file.
+     * @author Luka Kraljević
+     *
+     */
+    private static class CountingInputStream extends FilterInputStream {
+
+        /**
+         * Number of bytes read so far.
+         */
+        private long count;
+
+        /**
+         * Wraps given stream.
+         * @param in stream to be counted
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                count += n;
+            }
+            return n;
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import java.awt.Point;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+
+import javax.swing.JOptionPane;
+import javax.swing.JTextArea;
+import javax.swing.JViewport;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Position;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.io.ChangeTracker;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.DocumentFingerprint;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.CharsetDetector;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.Compression;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileDiff;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileFormat;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileStamp;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.TextSnapshot;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.TextDiff;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.UndoHistory;
+
+/**
+ * Reloads a file which was changed by another program into its tab. A
+ * snapshot of the document is compared with the file by {@link FileDiff} on
+ * a background thread, which reads the file as a stream and keeps only the
+ * text of the changed ranges, and only those ranges are replaced in the
+ * document. Caret, selection and
+ * the first visible line stay where they were. Documents which are mapped
+ * from their file, or which were edited or whose file changed again while
+ * the file was being compared, are loaded again as a whole.
+ * @author Luka Kraljević
+ *
+ */
+public class DocumentReloader extends SwingWorker<List<TextDiff.Edit>, Void> {
+
+    /**
+     * Editor which shows the tab.
+     */
+    private final JNotepadPP notepad;
+
+    /**
+     * Text area of the reloaded tab.
+     */
+    private final JTextArea editor;
+
+    /**
+     * Path of the file.
+     */
+    private final Path path;
+
+    /**
+     * Reloaded document.
+     */
+    private final Document doc;
+
+    /**
+     * Snapshot of the document before the reload.
+     */
+    private TextSnapshot oldText;
+
+    /**
+     * Flag which indicates that the document was changed while the file was
+     * being compared with it.
+     */
+    private boolean edited;
+
+    /**
+     * Listener which notices changes of the document during the comparison.
+     */
+    private final DocumentListener listener = new DocumentListener() {
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            edited = true;
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            edited = true;
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    /**
+     * Stamp of the file taken before it was read.
+     */
+    private volatile FileStamp stamp;
+
+    /**
+     * Detected format of the file.
+     */
+    private volatile FileFormat format;
+
+    /**
+     * Creates the reloader for given tab.
+     * @param notepad editor which shows the tab
+     * @param editor text area of the reloaded tab
+     * @param path path of the file
+     */
+    public DocumentReloader(JNotepadPP notepad, JTextArea editor, Path path) {
+        this.notepad = notepad;
+        this.editor = editor;
+        this.path = path;
+        this.doc = editor.getDocument();
+    }
+
+    /**
+     * Starts reloading. Mapped documents are handed over to a
+     * {@link DocumentLoader} straight away.
+     */
+    public void start() {
+        Object source = doc.getProperty(Document.StreamDescriptionProperty);
+        if (path.toAbsolutePath().equals(source)) {
+            loadAgain();
+            return;
+        }
+
+        oldText = TextSnapshot.of(doc);
+        doc.addDocumentListener(listener);
+        editor.setEditable(false);
+        execute();
+    }
+
+    @Override
+    protected List<TextDiff.Edit> doInBackground() throws Exception {
+        stamp = FileStamp.of(path);
+        Compression compression = Compression.detect(path);
+        format = CharsetDetector.detect(path, compression);
+        return FileDiff.diff(oldText, path, format);
+    }
+
+    @Override
+    protected void done() {
+        doc.removeDocumentListener(listener);
+        editor.setEditable(true);
+        oldText = null;
+        if (notepad.indexOf(editor) == -1 || editor.getDocument() != doc) {
+            return;
+        }
+
+        List<TextDiff.Edit> edits;
+        try {
+            edits = get();
+        } catch (CancellationException | InterruptedException ex) {
+            return;
+        } catch (ExecutionException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Error while reading file " + path.toAbsolutePath(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        if (edited || edits == null) {
+            loadAgain();
+            return;
+        }
+
+        try {
+            apply(edits);
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            loadAgain();
+            return;
+        }
+
+        TabState state = TabState.of(editor);
+        ChangeTracker.attach(doc, stamp);
+        state.setFormat(format);
+        state.setKnownLength(doc.getLength());
+        notepad.markSaved(editor, DocumentFingerprint.of(doc).get());
+        notepad.watch(editor, path).sync();
+    }
+
+    /**
+     * Replaces changed ranges of the document, starting from the last one so
+     * offsets of the others stay valid. All of them are undone together. The
+     * first visible line is scrolled back to the top of the view afterwards.
+     * @param edits changed ranges in the order of their offsets
+     * @throws BadLocationException if the document doesn't match the
+     * compared text
+     */
+    private void apply(List<TextDiff.Edit> edits) throws BadLocationException {
+        JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, editor);
+        Position top = null;
+        int topShift = 0;
+        int x = 0;
+        if (viewport != null) {
+            Point view = viewport.getViewPosition();
+            int offset = editor.viewToModel2D(view);
+            Rectangle2D line = editor.modelToView2D(offset);
+            if (line != null) {
+                top = doc.createPosition(offset);
+                topShift = view.y - (int) line.getY();
+                x = view.x;
+            }
+        }
+
+        UndoHistory history = UndoHistory.of(editor);
+        if (history != null) {
+            history.begin();
+        }
+        try {
+            for (int i = edits.size() - 1; i >= 0; i--) {
+                TextDiff.Edit edit = edits.get(i);
+                if (doc instanceof AbstractDocument) {
+                    ((AbstractDocument) doc).replace(
+                            edit.getStart(), edit.getEnd() - edit.getStart(), edit.getText(), null);
+                } else {
+                    doc.remove(edit.getStart(), edit.getEnd() - edit.getStart());
+                    doc.insertString(edit.getStart(), edit.getText(), null);
+                }
+            }
+        } finally {
+            if (history != null) {
+                history.end();
+            }
+        }
+
+        if (top != null) {
+            Position first = top;
+            int shift = topShift;
+            int left = x;
+            SwingUtilities.invokeLater(() -> {
+                try {
+                    Rectangle2D line = editor.modelToView2D(first.getOffset());
+                    if (line != null) {
+                        int y = (int) line.getY() + shift;
+                        viewport.setViewPosition(new Point(left, Math.max(0, y)));
+                    }
+                } catch (BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+            });
+        }
+    }
+
+    /**
+     * Loads the whole file into the tab again.
+     */
+    private void loadAgain() {
+        try {
+            new DocumentLoader(notepad, editor, path).start();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Error while reading file " + path.toAbsolutePath(),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+}
@@ -0,0 +1,357 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Objects;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileFormat;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileWatchService;
+
+/**
+ * Follows a growing file, such as a log, in its tab. Only the end of the file
+ * is read when following starts. After that, every change reported by the
+ * {@link FileWatchService} reads just the bytes appended since the remembered
+ * position. Decoded text is collected and appended to the tab's document in
+ * one insert per batch. The view scrolls along if the caret is at the end of
+ * the document, and the oldest lines are removed once the document grows over
+ * the retained size. A truncated or replaced file is followed from its
+ * beginning again. The tab is read-only while it is followed.
+ * @author Luka Kraljević
+ *
+ */
+public class FileFollower {
+
+    /**
+     * Number of bytes read at once.
+     */
+    private static final int READ_SIZE = 1 << 20;
+
+    /**
+     * Editor which shows the tab.
+     */
+    private final JNotepadPP notepad;
+
+    /**
+     * Text area of the followed tab.
+     */
+    private final JTextArea editor;
+
+    /**
+     * Path of the followed file.
+     */
+    private final Path path;
+
+    /**
+     * Format of the followed file.
+     */
+    private final FileFormat format;
+
+    /**
+     * Maximum number of characters kept in the document.
+     */
+    private final int maxLength;
+
+    /**
+     * Decoder of the appended bytes, which keeps state of a character split
+     * between two reads.
+     */
+    private final CharsetDecoder decoder;
+
+    /**
+     * Bytes read from the file which are not decoded yet.
+     */
+    private final ByteBuffer bytes = ByteBuffer.allocate(READ_SIZE);
+
+    /**
+     * Decoded characters.
+     */
+    private final CharBuffer chars = CharBuffer.allocate(READ_SIZE);
+
+    /**
+     * Position in the file up to which it is read.
+     */
+    private long position;
+
+    /**
+     * Identity of the file which is read, used to recognize a replaced file.
+     */
+    private Object fileKey;
+
+    /**
+     * Flag which indicates that the text up to the first line break is
+     * dropped, because reading started in the middle of a line.
+     */
+    private boolean skipLine;
+
+    /**
+     * Flag which indicates that the file is read from its beginning, so a byte
+     * order mark may be decoded.
+     */
+    private boolean atStart;
+
+    /**
+     * Text decoded but not yet appended to the document.
+     */
+    private final StringBuilder pending = new StringBuilder();
+
+    /**
+     * Flag which indicates that appending of the pending text is scheduled.
+     */
+    private boolean scheduled;
+
+    /**
+     * Flag which indicates that the document must be cleared before the
+     * pending text is appended.
+     */
+    private boolean clear;
+
+    /**
+     * Watch of the file.
+     */
+    private FileWatchService.Watch watch;
+
+    /**
+     * Flag which indicates that following is stopped.
+     */
+    private volatile boolean stopped;
+
+    /**
+     * Creates the follower of given tab.
+     * @param notepad editor which shows the tab
+     * @param editor text area of the tab
+     * @param path path of the followed file
+     * @param format format of the file
+     * @param maxLength maximum number of characters kept in the document
+     */
+    public FileFollower(JNotepadPP notepad, JTextArea editor, Path path, FileFormat format, int maxLength) {
+        this.notepad = notepad;
+        this.editor = editor;
+        this.path = path;
+        this.format = format;
+        this.maxLength = maxLength;
+        this.decoder = format.getCharset().newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Starts following. The document of the tab is replaced by the last
+     * retained part of the file, starting with a whole line.
+     * @throws IOException if the file can't be watched
+     */
+    public void start() throws IOException {
+        Charset charset = format.getCharset();
+        int unit = "\n".getBytes(charset).length;
+        int bom = format.getBomLength();
+        long size = Files.size(path);
+
+        position = Math.max(bom, size - (long) maxLength * unit);
+        position -= (position - bom) % unit;
+        skipLine = position > bom;
+        fileKey = fileKey();
+
+        notepad.unwatch(editor);
+        editor.setDocument(notepad.createDocument());
+        editor.setEditable(false);
+        TabState.of(editor).setFollower(this);
+
+        watch = notepad.getWatchService().watch(path, this::read);
+        watch.fire();
+    }
+
+    /**
+     * Stops following. Text which is already in the document stays there.
+     */
+    public void stop() {
+        stopped = true;
+        if (watch != null) {
+            watch.cancel();
+        }
+        TabState.of(editor).setFollower(null);
+        editor.setEditable(true);
+    }
+
+    /**
+     * Returns identity of the file on the followed path.
+     * @return key of the file, or null if the file system doesn't have it
+     * @throws IOException if attributes of the file can't be read
+     */
+    private Object fileKey() throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    /**
+     * Reads bytes appended to the file since the last read. Called on the
+     * thread of the watch service, one call at a time.
+     */
+    private void read() {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Object key = fileKey();
+            if (size < position || !Objects.equals(key, fileKey)) {
+                restart(key);
+            }
+
+            while (!stopped && position < size) {
+                int read = channel.read(bytes, position);
+                if (read <= 0) {
+                    break;
+                }
+                position += read;
+                bytes.flip();
+                CoderResult result;
+                do {
+                    result = decoder.decode(bytes, chars, false);
+                    chars.flip();
+                    deliver(chars);
+                    chars.clear();
+                } while (result.isOverflow());
+                bytes.compact();
+            }
+        } catch (NoSuchFileException ex) {
+            // file is being rotated, it is read once it's created again
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Starts reading the file from its beginning, because it was truncated
+     * or replaced by another file.
+     * @param key identity of the new file
+     */
+    private void restart(Object key) {
+        fileKey = key;
+        position = 0;
+        skipLine = false;
+        atStart = true;
+        decoder.reset();
+        bytes.clear();
+        synchronized (pending) {
+            pending.setLength(0);
+            clear = true;
+        }
+    }
+
+    /**
+     * Adds decoded characters to the pending text and schedules appending it
+     * to the document. Pending text is trimmed the same way as the document,
+     * so it stays bounded even if the Event Dispatch Thread falls behind.
+     * @param text decoded characters
+     */
+    private void deliver(CharBuffer text) {
+        if (atStart && text.hasRemaining()) {
+            if (text.get(text.position()) == '\uFEFF') {
+                text.get();
+            }
+            atStart = false;
+        }
+        if (skipLine) {
+            while (text.hasRemaining()) {
+                if (text.get() == '\n') {
+                    skipLine = false;
+                    break;
+                }
+            }
+        }
+        if (!text.hasRemaining()) {
+            return;
+        }
+
+        synchronized (pending) {
+            pending.append(text);
+            if (pending.length() > maxLength) {
+                int cut = pending.indexOf("\n", pending.length() - maxLength) + 1;
+                pending.delete(0, cut > 0 ? cut : pending.length() - maxLength);
+                clear = true;
+            }
+            if (!scheduled) {
+                scheduled = true;
+                SwingUtilities.invokeLater(this::flush);
+            }
+        }
+    }
+
+    /**
+     * Appends the pending text to the document with a single insert and
+     * removes the oldest lines if the document grew too long. If the caret
+     * was at the end of the document, it is moved to the new end so the
+     * view follows the file.
+     */
+    private void flush() {
+        String text;
+        boolean clearFirst;
+        synchronized (pending) {
+            text = pending.toString();
+            pending.setLength(0);
+            clearFirst = clear;
+            clear = false;
+            scheduled = false;
+        }
+        if (stopped) {
+            return;
+        }
+
+        Document doc = editor.getDocument();
+        boolean atEnd = editor.getCaretPosition() == doc.getLength();
+        try {
+            if (clearFirst) {
+                doc.remove(0, doc.getLength());
+            }
+            doc.insertString(doc.getLength(), text, null);
+            trim(doc);
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+
+        if (atEnd) {
+            editor.setCaretPosition(doc.getLength());
+        }
+    }
+
+    /**
+     * Removes whole lines from the beginning of the document if it is longer
+     * than allowed. A tenth of the allowed length is freed at once, so the
+     * document isn't shifted after every batch.
+     * @param doc followed document
+     * @throws BadLocationException never
+     */
+    private void trim(Document doc) throws BadLocationException {
+        int length = doc.getLength();
+        if (length <= maxLength) {
+            return;
+        }
+
+        int cut = length - (maxLength - maxLength / 10);
+        Element root = doc.getDefaultRootElement();
+        Element line = root.getElement(root.getElementIndex(cut));
+        if (line.getStartOffset() < cut) {
+            cut = Math.min(line.getEndOffset(), length);
+        }
+        doc.remove(0, cut);
+    }
+
+    /**
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+}
@@ -16,6 +16,7 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 
@@ -26,6 +27,8 @@ import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JCheckBoxMenuItem;
+import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenu;
@@ -33,13 +36,13 @@ import javax.swing.JMenuBar;
 import javax.swing.JMenuItem;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
-import javax.swing.JScrollPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
 import javax.swing.JToolBar;
 import javax.swing.KeyStroke;
 import javax.swing.SwingConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.WindowConstants;
 import javax.swing.event.CaretEvent;
 import javax.swing.event.CaretListener;
@@ -48,10 +51,21 @@ import javax.swing.event.ChangeListener;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
 
+import hr.fer.zemris.java.hw11.jnotepadpp.io.DocumentFingerprint;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.EditJournal;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileMonitor;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileWatchService;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.HistoryStore;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.SaveService;
 import hr.fer.zemris.java.hw11.jnotepadpp.local.FormLocalizationProvider;
 import hr.fer.zemris.java.hw11.jnotepadpp.local.LJLabel;
 import hr.fer.zemris.java.hw11.jnotepadpp.local.LocalizableAction;
 import hr.fer.zemris.java.hw11.jnotepadpp.local.LocalizationProvider;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.CompactContent;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.EditorTextAreaUI;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineIndexedDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.PieceTableDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.UndoHistory;
 
 /**
  * Implementation of high-level text editor similar to Notepad++ on Windows or
@@ -70,6 +84,17 @@ public class JNotepadPP extends JFrame {
      */
     private static final long serialVersionUID = 1L;
 
+    /**
+     * Number of milliseconds, about one frame, for which changes of the
+     * status bar are collected before it is updated.
+     */
+    private static final int STATUS_DELAY = 16;
+
+    /**
+     * Number of materialized tabs above which long unused tabs are released.
+     */
+    private static final int MATERIALIZED_TABS = 32;
+
     /**
      * Tabs where user can switch text areas in different documents.
      */
@@ -107,11 +132,6 @@ public class JNotepadPP extends JFrame {
      */
     private final ImageIcon greenFloppy;
 
-    /**
-     * List of currently active and prepared editors.
-     */
-    private List<JTextArea> editors;
-
     /**
      * Localizable label for rendering message "length" in different languages.
      */
@@ -137,6 +157,42 @@ public class JNotepadPP extends JFrame {
      */
     private JLabel sel = new JLabel("Sel: ");
 
+    /**
+     * Label for memory taken by the undo history of the current tab.
+     */
+    private JLabel undoVal = new JLabel("Undo: 0 KB");
+
+    /**
+     * Label for heap taken by the current tab and by all of the tabs.
+     */
+    private JLabel memVal = new JLabel("Mem: 0 KB");
+
+    /**
+     * Timer which updates the status bar once per frame after it was marked
+     * as outdated.
+     */
+    private Timer statusTimer = new Timer(STATUS_DELAY, e -> updateStatus());
+
+    /**
+     * Length shown in the status bar, or -1 if nothing is shown.
+     */
+    private int shownLength = -1;
+
+    /**
+     * Line shown in the status bar, or -1 if nothing is shown.
+     */
+    private int shownLine = -1;
+
+    /**
+     * Column shown in the status bar, or -1 if nothing is shown.
+     */
+    private int shownColumn = -1;
+
+    /**
+     * Selection length shown in the status bar, or -1 if nothing is shown.
+     */
+    private int shownSelection = -1;
+
     /**
      * String which stores current language.
      */
@@ -152,6 +208,59 @@ public class JNotepadPP extends JFrame {
      */
     private JNotepadPPActions actions;
 
+    /**
+     * Service which writes documents to disk in the background.
+     */
+    private SaveService saveService = new SaveService(
+            Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+    /**
+     * Service which reports changes of files shown in the tabs.
+     */
+    private FileWatchService watchService = new FileWatchService();
+
+    /**
+     * Local history of saved files.
+     */
+    private HistoryStore history = new HistoryStore(HistoryStore.defaultRoot());
+
+    /**
+     * Journal of unsaved edits, or null if it couldn't be created.
+     */
+    private EditJournal journal;
+
+    /**
+     * Number of megabytes of a followed file kept in its tab.
+     */
+    private int followLimit = 16;
+
+    /**
+     * Flag which indicates that text of new documents is kept outside of the
+     * heap.
+     */
+    private boolean offHeapStorage;
+
+    /**
+     * Flag which indicates that text areas wrap lines at their width.
+     */
+    private boolean lineWrap;
+
+    /**
+     * Number of megabytes of undo history kept for each tab.
+     */
+    private int undoLimit = 64;
+
+    /**
+     * Number of megabytes of heap which all tabs may take before the least
+     * recently selected ones are hibernated.
+     */
+    private int memoryLimit = (int) Math.max(64, Runtime.getRuntime().maxMemory() / 4 >> 20);
+
+    /**
+     * Manager which keeps the tabs under the memory limit.
+     */
+    private MemoryManager memoryManager;
+
     /**
      * Constructs the frame and all neccessary info to start the editor.
      */
@@ -160,8 +269,14 @@ public class JNotepadPP extends JFrame {
         setSize(600, 600);
         redFloppy = loadImage("icons/floppy_disk_red.png");
         greenFloppy = loadImage("icons/floppy_disk_green.png");
-        editors = new ArrayList<>();
         actions = new JNotepadPPActions(this);
+        saveService.setHistory(history);
+        memoryManager = new MemoryManager(this, (long) memoryLimit << 20);
+        try {
+            journal = new EditJournal(EditJournal.defaultRoot());
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
 
         addWindowListener(new WindowAdapter() {
 
@@ -180,6 +295,8 @@ public class JNotepadPP extends JFrame {
         });
 
         initGUI();
+        recoverTabs();
+        memoryManager.start();
         setLocationRelativeTo(null);
     }
     
@@ -188,6 +305,7 @@ public class JNotepadPP extends JFrame {
      */
     private void initGUI() {
         setTitle("JNotepad++");
+        statusTimer.setRepeats(false);
         tabs = new JTabbedPane();
         tabs.addChangeListener(new ChangeListener() {
 
@@ -210,7 +328,21 @@ public class JNotepadPP extends JFrame {
                 }
 
                 JNotepadPP.this.setTitle(title);
-                currEditor = editors.get(index);
+                if (getEditorAt(index) == null) {
+                    materialize(index);
+                }
+                currEditor = getEditorAt(index);
+                memoryManager.selected(currEditor);
+                releaseUnusedTabs();
+                if (followAction != null) {
+                    followAction.putValue(Action.SELECTED_KEY,
+                            TabState.of(currEditor).isFollowing());
+                    pieceTableAction.putValue(Action.SELECTED_KEY,
+                            currEditor.getDocument() instanceof PieceTableDocument);
+                }
+                updateUndoStatus();
+                updateMemoryStatus();
+                statusChanged();
             }
         });
 
@@ -224,6 +356,10 @@ public class JNotepadPP extends JFrame {
         start.add(len);
         start.add(Box.createRigidArea(new Dimension(5,0)));
         start.add(lenVal);
+        start.add(Box.createRigidArea(new Dimension(10,0)));
+        start.add(undoVal);
+        start.add(Box.createRigidArea(new Dimension(10,0)));
+        start.add(memVal);
         start.setBorder(BorderFactory.createLineBorder(Color.gray, 1));
         bottom.add(start);
         
@@ -241,6 +377,10 @@ public class JNotepadPP extends JFrame {
         time.setBorder(BorderFactory.createLineBorder(Color.gray, 1));
         bottom.add(time);
 
+        getRootPane().getInputMap(JComponent.WHEN_IN_FOCUSED_WINDOW)
+                .put(KeyStroke.getKeyStroke("ESCAPE"), "cancelLoading");
+        getRootPane().getActionMap().put("cancelLoading", cancelLoading);
+
         tabContent.add(tabs, BorderLayout.CENTER);
         tabContent.add(bottom, BorderLayout.PAGE_END);
         getContentPane().setLayout(new BorderLayout());
@@ -258,45 +398,37 @@ public class JNotepadPP extends JFrame {
      * @return true if the app is ready to close, false otherwise
      */
     boolean checkReadyToClose() {
-        boolean saveConfirmed = false;
-        int msg = -2;
-
+        boolean modified = false;
         for (int i = 0; i < tabs.getTabCount(); i++) {
-            if (tabs.getIconAt(i).equals(redFloppy)) {
-                if (!saveConfirmed) {
-                    msg = JOptionPane.showConfirmDialog(JNotepadPP.this,
-                            "Do you want to save all changed documents?", "Closing program",
-                            JOptionPane.YES_NO_CANCEL_OPTION);
-                    saveConfirmed = true;
-                }
-
-                if (msg == JOptionPane.CANCEL_OPTION) {
-                    return false;
-                } else if (msg == JOptionPane.YES_OPTION) {
-                    TabComponent comp=(TabComponent) tabs.getTabComponentAt(i);
-                    String lab=comp.getLabel();
-                    if (lab.equals(flp.getString("new"))) {
-                        openedFilePath = null;
-                    } else {
-                        openedFilePath = Paths.get(tabs.getToolTipTextAt(i));
-                    }
-                    currEditor = editors.get(i);
+            if (isModified(i)) {
+                modified = true;
+                break;
+            }
+        }
 
-                    boolean result = false;
-                    if (openedFilePath == null) {
-                        actions.saveAs();
-                    }
+        if (modified) {
+            int msg = JOptionPane.showConfirmDialog(JNotepadPP.this,
+                    "Do you want to save all changed documents?", "Closing program",
+                    JOptionPane.YES_NO_CANCEL_OPTION);
 
-                    if (result) {
-                        actions.saveDoc();
-                    }
+            if (msg == JOptionPane.YES_OPTION) {
+                if (!actions.saveAll()) {
+                    return false;
                 }
-                break;
+            } else if (msg != JOptionPane.NO_OPTION) {
+                return false;
             }
         }
 
+        if (!actions.awaitSaves()) {
+            return false;
+        }
+        history.close(10000);
+        memoryManager.stop();
+        if (journal != null) {
+            journal.close();
+        }
         return true;
-
     }
 
     /**
@@ -443,7 +575,7 @@ public class JNotepadPP extends JFrame {
             public void actionPerformed(ActionEvent e) {
                 int index = tabs.indexOfTabComponent(comp);
                 int ans = -2;
-                if (tabs.getIconAt(index).equals(redFloppy)) {
+                if (isModified(index)) {
                     ans = JOptionPane.showConfirmDialog(
                             tabs.getComponentAt(index), 
                             "Do you want save all changes?",
@@ -452,114 +584,373 @@ public class JNotepadPP extends JFrame {
                 }
 
                 if (ans == JOptionPane.YES_OPTION) {
-                    boolean result = actions.saveAs();
-                    if (!result) {
+                    if (!actions.saveTab(index)) {
                         return;
                     }
-
-                    if (openedFilePath != null) {
-                        actions.saveDoc();
-                    }
                 } else if (ans == JOptionPane.CANCEL_OPTION) {
                     return;
                 }
 
-                tabs.remove(index);
-                editors.remove(index);
+                JTextArea editor = getEditorAt(index);
+                if (editor == null) {
+                    tabs.remove(index);
+                } else if (!TabState.of(editor).cancelLoading()) {
+                    closeTab(editor);
+                }
             }
         };
     }
 
     /**
-     * Creates blank document or opens existing document in this editor.
+     * Returns index of the tab which shows given text area.
      * 
-     * @param tabName
-     *            if new document is being created, then tabName must be "new"
-     *            (regardless of editor's language), otherwise it will be name
-     *            of file
-     * @param fullPath
-     *            if new document is being created, then fullPath must be null,
-     *            otherwise, it will be full path to opening file
+     * @param editor
+     *            text area of the tab
+     * @return index of the tab or -1 if the tab is closed
      */
-    protected void createBlankOpen(String tabName, Path fullPath) {
-        JTextArea editor = new JTextArea();
-        Document doc = editor.getDocument();
+    int indexOf(JTextArea editor) {
+        TabContent content = TabContent.of(editor);
+        return content == null ? -1 : tabs.indexOfComponent(content);
+    }
 
-        editor.addCaretListener(new CaretListener() {
+    /**
+     * Returns text area shown in the tab with given index.
+     * 
+     * @param index
+     *            index of the tab
+     * @return text area of the tab, or null if the tab isn't materialized
+     */
+    JTextArea getEditorAt(int index) {
+        return ((TabContent) tabs.getComponentAt(index)).getEditor();
+    }
 
-            /**
-             * Old length of the file.
-             */
-            int oldLength;
+    /**
+     * Checks if the document in the tab with given index has unsaved changes.
+     * 
+     * @param index
+     *            index of the tab
+     * @return true if the document has unsaved changes
+     */
+    boolean isModified(int index) {
+        TabComponent component = getTabComponent(index);
+        return component != null && component.isModified();
+    }
 
-            /**
-             * Detects whether the old length has been initialized.
-             */
-            boolean updated = false;
+    /**
+     * Returns component shown in the title of the tab with given index.
+     * 
+     * @param index
+     *            index of the tab
+     * @return title component of the tab
+     */
+    private TabComponent getTabComponent(int index) {
+        return (TabComponent) tabs.getTabComponentAt(index);
+    }
 
-            @Override
-            public void caretUpdate(CaretEvent e) {
-                int index = tabs.getSelectedIndex();
-                int docLen = doc.getLength();
+    /**
+     * Shows given path as the title and tooltip of the tab which shows given
+     * text area.
+     * 
+     * @param editor
+     *            text area of the tab
+     * @param path
+     *            path of the file the document is saved to
+     */
+    void setTabPath(JTextArea editor, Path path) {
+        int index = indexOf(editor);
+        if (index == -1) {
+            return;
+        }
+        tabs.setTitleAt(index, path.getFileName().toString());
+        tabs.setToolTipTextAt(index, path.toAbsolutePath().toString());
+        getTabComponent(index).titleChanged();
+        if (editor == currEditor) {
+            openedFilePath = path;
+        }
+    }
 
-                if (!updated) {
-                    oldLength = docLen;
-                    updated = true;
-                }
+    /**
+     * Remembers that the file of the tab which shows given text area holds
+     * the text with given fingerprint, and marks the tab as saved unless its
+     * document was changed after it was handed over for saving.
+     * 
+     * @param editor
+     *            text area of the tab
+     * @param fingerprint
+     *            fingerprint of the text written to the file, or
+     *            {@link DocumentFingerprint#NONE} if it isn't known
+     */
+    void markSaved(JTextArea editor, long fingerprint) {
+        int index = indexOf(editor);
+        if (index == -1) {
+            return;
+        }
+        TabState state = TabState.of(editor);
+        state.setSavedFingerprint(fingerprint);
+        state.setKnownLength(editor.getDocument().getLength());
+        if (fingerprint == DocumentFingerprint.NONE) {
+            showModified(index, false);
+        } else {
+            updateModified(editor);
+        }
+    }
 
-                if (docLen != oldLength) {
-                    tabs.setIconAt(index, redFloppy);
-                    boolean createNew=false;
-                    if (tabs.getTitleAt(index).equals("new")) {
-                        createNew=true;
-                    }
-                    
-                    TabComponent comp = new TabComponent(
-                            JNotepadPP.this, tabs, redFloppy, createNew);
-                    tabs.setTabComponentAt(index, comp);
+    /**
+     * Marks the tab which shows given text area as changed or saved, by
+     * comparing fingerprint of its text with the fingerprint of its file.
+     * Tabs whose file fingerprint isn't known are changed once the length of
+     * their document changes.
+     * 
+     * @param editor
+     *            text area of the tab
+     */
+    void updateModified(JTextArea editor) {
+        int index = indexOf(editor);
+        if (index == -1) {
+            return;
+        }
+        TabState state = TabState.of(editor);
+        Document doc = editor.getDocument();
+        boolean modified;
+        if (state.isHibernated()) {
+            modified = state.getHibernated().getFingerprint() != state.getSavedFingerprint();
+        } else if (state.getSavedFingerprint() != DocumentFingerprint.NONE) {
+            modified = DocumentFingerprint.of(doc).get() != state.getSavedFingerprint();
+        } else {
+            modified = isModified(index) || doc.getLength() != state.getKnownLength();
+        }
+        if (modified != isModified(index)) {
+            showModified(index, modified);
+        }
+    }
 
-                }
+    /**
+     * Shows the tab with given index as changed or saved. The journal of a
+     * saved tab is deleted.
+     * 
+     * @param index
+     *            index of the tab
+     * @param modified
+     *            true if the tab has unsaved changes
+     */
+    private void showModified(int index, boolean modified) {
+        getTabComponent(index).setModified(modified);
+        TabJournal tabJournal = TabState.of(getEditorAt(index)).getJournal();
+        if (!modified && tabJournal != null) {
+            tabJournal.discard();
+        }
+    }
 
-                oldLength = docLen;
+    /**
+     * Opens tabs with the unsaved work of runs which didn't exit normally,
+     * rebuilt from their journals. Recovered tabs are marked as changed and
+     * journaled again before the old journals are deleted.
+     */
+    private void recoverTabs() {
+        if (journal == null) {
+            return;
+        }
+        List<EditJournal.Recovered> recovered;
+        try {
+            recovered = journal.recover();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+        for (EditJournal.Recovered tab : recovered) {
+            Document doc = createDocument();
+            try {
+                tab.restore(doc);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+                continue;
+            }
+            Path path = tab.getPath() == null ? null : Paths.get(tab.getPath());
+            createBlankOpen(path == null ? "new" : path.getFileName().toString(), path);
+            JTextArea editor = currEditor;
+            editor.setDocument(doc);
+            // moving the caret shows the length and marks the tab as changed
+            editor.setCaretPosition(doc.getLength());
+            editor.setCaretPosition(0);
+            TabState.of(editor).getJournal().checkpoint();
+        }
+        journal.finishRecovery();
+    }
 
-                if (Math.abs(e.getDot() - e.getMark()) == 0) {
-                    toUpper.setEnabled(false);
-                    toLower.setEnabled(false);
-                    invert.setEnabled(false);
-                } else {
-                    toUpper.setEnabled(true);
-                    toLower.setEnabled(true);
-                    invert.setEnabled(true);
-                }
+    /**
+     * Returns monitor of external changes of the file shown in given tab,
+     * starting it first if the tab's file isn't monitored yet. A monitor of
+     * the tab's previous file is stopped.
+     * 
+     * @param editor
+     *            text area of the tab
+     * @param path
+     *            path of the tab's file
+     * @return monitor of the file
+     */
+    FileMonitor watch(JTextArea editor, Path path) {
+        TabState state = TabState.of(editor);
+        FileMonitor monitor = state.getMonitor();
+        if (monitor != null && monitor.getPath().equals(path.toAbsolutePath().normalize())) {
+            return monitor;
+        }
+        unwatch(editor);
 
-                lenVal.setText(Integer.toString(docLen));
+        monitor = new FileMonitor(watchService, path,
+                () -> SwingUtilities.invokeLater(() -> actions.reloadChanged(editor)));
+        try {
+            monitor.start();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+        state.setMonitor(monitor);
+        return monitor;
+    }
 
-                try {
-                    int currLine = editor.getLineOfOffset(e.getDot());
-                    int lineStart = editor.getLineStartOffset(currLine);
-                    ln.setText("Ln: " + currLine);
-                    col.setText("Col: " + (e.getDot() - lineStart));
-                    sel.setText("Sel: " + Math.abs(e.getDot() - e.getMark()));
-                } catch (BadLocationException e1) {
-                    e1.printStackTrace();
-                }
+    /**
+     * Stops monitoring external changes of the file shown in given tab.
+     * 
+     * @param editor
+     *            text area of the tab
+     */
+    void unwatch(JTextArea editor) {
+        TabState state = TabState.of(editor);
+        if (state.getMonitor() != null) {
+            state.getMonitor().stop();
+            state.setMonitor(null);
+        }
+    }
+
+    /**
+     * Closes the tab which shows given text area, without asking anything.
+     * 
+     * @param editor
+     *            text area of the tab
+     */
+    void closeTab(JTextArea editor) {
+        int index = indexOf(editor);
+        if (index == -1) {
+            return;
+        }
+        disposeEditor(editor);
+        tabs.remove(index);
+    }
+
+    /**
+     * Stops everything which works for the text area of a tab which is
+     * closed or released.
+     * 
+     * @param editor
+     *            text area of the tab
+     */
+    private void disposeEditor(JTextArea editor) {
+        TabState state = TabState.of(editor);
+        if (state.getFollower() != null) {
+            state.getFollower().stop();
+        }
+        if (state.getJournal() != null) {
+            state.getJournal().discard();
+        }
+        unwatch(editor);
+        memoryManager.closed(editor);
+    }
+
+    /**
+     * Adds a tab for given file without reading the file. The tab gets its
+     * title component right away, but its text area only once it is selected.
+     * 
+     * @param fullPath
+     *            path of the file
+     * @return index of the new tab
+     */
+    int openLazily(Path fullPath) {
+        tabs.addTab(fullPath.getFileName().toString(), null, new TabContent(),
+                fullPath.toString());
+        int index = tabs.getTabCount() - 1;
+        tabs.setTabComponentAt(index, new TabComponent(this, tabs));
+        return index;
+    }
+
+    /**
+     * Creates text area of the tab with given index, which was opened
+     * lazily, and starts reading its file.
+     * 
+     * @param index
+     *            index of the tab
+     */
+    private void materialize(int index) {
+        JTextArea editor = createEditor();
+        ((TabContent) tabs.getComponentAt(index)).setEditor(editor);
+        Path path = Paths.get(tabs.getToolTipTextAt(index));
+        try {
+            new DocumentLoader(this, editor, path).start();
+        } catch (IOException ex) {
+            SwingUtilities.invokeLater(() -> {
+                closeTab(editor);
+                JOptionPane.showMessageDialog(
+                        this,
+                        "Error while reading file " + path.toAbsolutePath(),
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+            });
+        }
+    }
 
+    /**
+     * Releases text areas of the least recently selected tabs while more
+     * than {@link #MATERIALIZED_TABS} tabs are materialized. Only tabs
+     * without unsaved changes which show a file are released, and they read
+     * the file again when they are selected. Their title components stay.
+     */
+    private void releaseUnusedTabs() {
+        List<JTextArea> materialized = new ArrayList<>();
+        for (int i = 0, n = tabs.getTabCount(); i < n; i++) {
+            JTextArea editor = getEditorAt(i);
+            if (editor != null && editor != currEditor) {
+                materialized.add(editor);
             }
-        });
+        }
+        int excess = materialized.size() + 1 - MATERIALIZED_TABS;
+        if (excess <= 0) {
+            return;
+        }
 
-        editors.add(editor);
-        JPanel panel = new JPanel(new BorderLayout());
-        panel.add(new JScrollPane(editor));
-        
-        boolean createNew = false;
-        if (tabName.equals("new")) {
-            createNew = true;
+        materialized.sort(Comparator.comparingLong(e -> TabState.of(e).getLastSelected()));
+        for (JTextArea editor : materialized) {
+            if (excess == 0) {
+                return;
+            }
+            int index = indexOf(editor);
+            TabState state = TabState.of(editor);
+            if (tabs.getToolTipTextAt(index) == null || isModified(index)
+                    || state.isLoading() || state.isFollowing()) {
+                continue;
+            }
+            disposeEditor(editor);
+            ((TabContent) tabs.getComponentAt(index)).setEditor(null);
+            excess--;
         }
+    }
+
+    /**
+     * Creates blank document or opens existing document in this editor.
+     * 
+     * @param tabName
+     *            if new document is being created, then tabName must be "new"
+     *            (regardless of editor's language), otherwise it will be name
+     *            of file
+     * @param fullPath
+     *            if new document is being created, then fullPath must be null,
+     *            otherwise, it will be full path to opening file
+     */
+    protected void createBlankOpen(String tabName, Path fullPath) {
+        JTextArea editor = createEditor();
+        TabContent content = new TabContent();
+        content.setEditor(editor);
         
-        TabComponent tabPane = new TabComponent(this, tabs, 
-                                            greenFloppy, createNew);
+        TabComponent tabPane = new TabComponent(this, tabs);
         
-        tabs.addTab(tabName, panel);
+        tabs.addTab(tabName, content);
         int index=tabs.getTabCount() - 1;
         if (fullPath != null) {
             tabs.setToolTipTextAt(index, fullPath.toString());
@@ -568,12 +959,51 @@ public class JNotepadPP extends JFrame {
             openedFilePath = null;
         }
         
-        tabs.setIconAt(index, greenFloppy);
         tabs.setTabComponentAt(index, tabPane);
         tabs.setSelectedIndex(index);
         currEditor = editor;
     }
 
+    /**
+     * Creates text area of a tab with an empty document.
+     * 
+     * @return text area of the tab
+     */
+    private JTextArea createEditor() {
+        JTextArea editor = new JTextArea(createDocument());
+        editor.setUI(new EditorTextAreaUI());
+        editor.setLineWrap(lineWrap);
+        UndoHistory.install(editor, (long) undoLimit << 20).addChangeListener(e -> {
+            if (editor == currEditor) {
+                updateUndoStatus();
+            }
+        });
+
+        TabState state = TabState.of(editor);
+        state.setSavedFingerprint(DocumentFingerprint.of(editor.getDocument()).get());
+        if (journal != null) {
+            state.setJournal(new TabJournal(this, editor, journal.open()));
+        }
+        editor.addCaretListener(new CaretListener() {
+
+            @Override
+            public void caretUpdate(CaretEvent e) {
+                if (state.isHibernated()) {
+                    return;
+                }
+                if (!state.isLoading() && !state.isFollowing()) {
+                    updateModified(editor);
+                }
+
+                state.setKnownLength(editor.getDocument().getLength());
+                if (editor == currEditor) {
+                    statusChanged();
+                }
+            }
+        });
+        return editor;
+    }
+
     /**
      * Action for switching entire GUI to English language.
      */
@@ -625,6 +1055,24 @@ public class JNotepadPP extends JFrame {
         }
     };
 
+    /**
+     * Action for cancelling loading of the document in the current tab.
+     */
+    private Action cancelLoading = new AbstractAction() {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            if (currEditor != null) {
+                TabState.of(currEditor).cancelLoading();
+            }
+        }
+    };
+
     /**
      * Creates all supported actions in this editor.
      */
@@ -633,6 +1081,8 @@ public class JNotepadPP extends JFrame {
         openDocumentAction = actions.getOpenDocumentAction();
         saveDocumentAction = actions.getSaveDocumentAction();
         saveAsDocumentAction = actions.getSaveAsDocumentAction();
+        saveAllAction = actions.getSaveAllAction();
+        localHistoryAction = actions.getLocalHistoryAction();
         copyTextAction = actions.getCopyTextAction();
         pasteTextAction = actions.getPasteTextAction();
         cutTextAction = actions.getCutTextAction();
@@ -643,7 +1093,17 @@ public class JNotepadPP extends JFrame {
         ascending = actions.getAscending();
         descending = actions.getDescending();
         unique = actions.getUnique();
+        convertEncoding = actions.getConvertEncoding();
+        followAction = actions.getFollowAction();
+        pieceTableAction = actions.getPieceTableAction();
+        offHeapAction = actions.getOffHeapAction();
+        lineWrapAction = actions.getLineWrapAction();
+        goToLineAction = actions.getGoToLineAction();
         exitAction = actions.getExitAction();
+        undoAction = actions.getUndoAction();
+        redoAction = actions.getRedoAction();
+        undoLimitAction = actions.getUndoLimitAction();
+        memoryLimitAction = actions.getMemoryLimitAction();
 
         createBlankAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control N"));
         createBlankAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_N);
@@ -657,6 +1117,11 @@ public class JNotepadPP extends JFrame {
         saveAsDocumentAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control A"));
         saveAsDocumentAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_A);
 
+        saveAllAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control shift S"));
+        saveAllAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_L);
+
+        localHistoryAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_H);
+
         cutTextAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control X"));
         cutTextAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_X);
 
@@ -669,8 +1134,18 @@ public class JNotepadPP extends JFrame {
         statistics.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control T"));
         statistics.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_T);
 
-        exitAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control Z"));
-        exitAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_Z);
+        goToLineAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control G"));
+        goToLineAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_G);
+
+        exitAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control Q"));
+        exitAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_Q);
+
+        undoAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control Z"));
+        undoAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_U);
+
+        redoAction.putValue(Action.ACCELERATOR_KEY, KeyStroke.getKeyStroke("control Y"));
+        redoAction.putValue(Action.MNEMONIC_KEY, KeyEvent.VK_R);
+        updateUndoStatus();
 
         en.putValue(Action.NAME, "en");
         hr.putValue(Action.NAME, "hr");
@@ -699,6 +1174,16 @@ public class JNotepadPP extends JFrame {
      */
     private Action saveAsDocumentAction;
 
+    /**
+     * Saves all changed documents in parallel.
+     */
+    private Action saveAllAction;
+
+    /**
+     * Action for opening a saved version of the current document.
+     */
+    private Action localHistoryAction;
+
     /**
      * Copies selected part of text.
      */
@@ -755,11 +1240,61 @@ public class JNotepadPP extends JFrame {
      */
     private Action unique;
 
+    /**
+     * Action for converting files on disk into another charset.
+     */
+    private Action convertEncoding;
+
+    /**
+     * Action for following the growing file of the current tab.
+     */
+    private Action followAction;
+
+    /**
+     * Action for switching storage of the current tab's document.
+     */
+    private Action pieceTableAction;
+
+    /**
+     * Action for keeping text of new documents outside of the heap.
+     */
+    private Action offHeapAction;
+
+    /**
+     * Action for wrapping lines of all tabs.
+     */
+    private Action lineWrapAction;
+
+    /**
+     * Action for moving the caret to a line.
+     */
+    private Action goToLineAction;
+
     /**
      * Action for exiting the application.
      */
     private Action exitAction;
 
+    /**
+     * Action for undoing the last change of the current tab.
+     */
+    private Action undoAction;
+
+    /**
+     * Action for redoing the last undone change of the current tab.
+     */
+    private Action redoAction;
+
+    /**
+     * Action for setting how much memory undo history may take.
+     */
+    private Action undoLimitAction;
+
+    /**
+     * Action which sets the memory limit of all tabs.
+     */
+    private Action memoryLimitAction;
+
     /**
      * Menu item for action toUpperCase.
      */
@@ -793,13 +1328,22 @@ public class JNotepadPP extends JFrame {
         fileMenu.add(new JMenuItem(openDocumentAction));
         fileMenu.add(new JMenuItem(saveDocumentAction));
         fileMenu.add(new JMenuItem(saveAsDocumentAction));
+        fileMenu.add(new JMenuItem(saveAllAction));
+        fileMenu.add(new JMenuItem(localHistoryAction));
         fileMenu.addSeparator();
         fileMenu.add(new JMenuItem(exitAction));
 
         JMenu editMenu = new JMenu(new LocalizableAction("Edit", null, flp));
+        editMenu.add(new JMenuItem(undoAction));
+        editMenu.add(new JMenuItem(redoAction));
+        editMenu.add(new JMenuItem(undoLimitAction));
+        editMenu.add(new JMenuItem(memoryLimitAction));
+        editMenu.addSeparator();
         editMenu.add(new JMenuItem(copyTextAction));
         editMenu.add(new JMenuItem(pasteTextAction));
         editMenu.add(new JMenuItem(cutTextAction));
+        editMenu.addSeparator();
+        editMenu.add(new JMenuItem(goToLineAction));
         menuBar.add(editMenu);
 
         JMenu infoMenu = new JMenu(new LocalizableAction("Info", null, flp));
@@ -831,6 +1375,12 @@ public class JNotepadPP extends JFrame {
         toolsMenu.add(sort);
 
         toolsMenu.add(new JMenuItem(unique));
+        toolsMenu.addSeparator();
+        toolsMenu.add(new JMenuItem(convertEncoding));
+        toolsMenu.add(new JCheckBoxMenuItem(followAction));
+        toolsMenu.add(new JCheckBoxMenuItem(pieceTableAction));
+        toolsMenu.add(new JCheckBoxMenuItem(offHeapAction));
+        toolsMenu.add(new JCheckBoxMenuItem(lineWrapAction));
         menuBar.add(toolsMenu);
 
         this.setJMenuBar(menuBar);
@@ -908,6 +1458,224 @@ public class JNotepadPP extends JFrame {
         return greenFloppy;
     }
 
+    /**
+     * @return the saveService
+     */
+    public SaveService getSaveService() {
+        return saveService;
+    }
+
+    /**
+     * @return the history
+     */
+    public HistoryStore getHistory() {
+        return history;
+    }
+
+    /**
+     * @return the watchService
+     */
+    public FileWatchService getWatchService() {
+        return watchService;
+    }
+
+    /**
+     * @return the followLimit
+     */
+    public int getFollowLimit() {
+        return followLimit;
+    }
+
+    /**
+     * @param followLimit
+     *            the followLimit to set
+     */
+    public void setFollowLimit(int followLimit) {
+        this.followLimit = followLimit;
+    }
+
+    /**
+     * @return the offHeapStorage
+     */
+    public boolean isOffHeapStorage() {
+        return offHeapStorage;
+    }
+
+    /**
+     * @param offHeapStorage
+     *            the offHeapStorage to set
+     */
+    public void setOffHeapStorage(boolean offHeapStorage) {
+        this.offHeapStorage = offHeapStorage;
+    }
+
+    /**
+     * @return the lineWrap
+     */
+    public boolean isLineWrap() {
+        return lineWrap;
+    }
+
+    /**
+     * Sets whether text areas wrap lines, and applies it to the opened
+     * tabs.
+     * @param lineWrap
+     *            the lineWrap to set
+     */
+    public void setLineWrap(boolean lineWrap) {
+        this.lineWrap = lineWrap;
+        for (int i = 0, n = tabs.getTabCount(); i < n; i++) {
+            JTextArea editor = getEditorAt(i);
+            if (editor != null) {
+                editor.setLineWrap(lineWrap);
+            }
+        }
+    }
+
+    /**
+     * @return the undoLimit
+     */
+    public int getUndoLimit() {
+        return undoLimit;
+    }
+
+    /**
+     * Sets number of megabytes of undo history kept for each tab, and
+     * applies it to the opened tabs.
+     * @param undoLimit
+     *            the undoLimit to set
+     */
+    public void setUndoLimit(int undoLimit) {
+        this.undoLimit = undoLimit;
+        for (int i = 0, n = tabs.getTabCount(); i < n; i++) {
+            JTextArea editor = getEditorAt(i);
+            if (editor != null) {
+                UndoHistory.of(editor).setBudget((long) undoLimit << 20);
+            }
+        }
+    }
+
+    /**
+     * @return the memoryLimit
+     */
+    public int getMemoryLimit() {
+        return memoryLimit;
+    }
+
+    /**
+     * Sets number of megabytes of heap which all tabs may take, hibernating
+     * tabs if they take more.
+     * @param memoryLimit
+     *            the memoryLimit to set
+     */
+    public void setMemoryLimit(int memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        memoryManager.setBudget((long) memoryLimit << 20);
+        updateMemoryStatus();
+    }
+
+    /**
+     * @return manager which keeps the tabs under the memory limit
+     */
+    MemoryManager getMemoryManager() {
+        return memoryManager;
+    }
+
+    /**
+     * Shows heap taken by the current tab and by all of the tabs.
+     */
+    void updateMemoryStatus() {
+        if (currEditor == null) {
+            return;
+        }
+        memVal.setText("Mem: " + (memoryManager.heapSize(currEditor) + 1023) / 1024
+                + " KB of " + ((memoryManager.totalHeapSize() + (1 << 20) - 1) >> 20) + " MB");
+    }
+
+    /**
+     * Marks the status bar as outdated. It is updated at most once per frame,
+     * however often the caret moves.
+     */
+    private void statusChanged() {
+        if (!statusTimer.isRunning()) {
+            statusTimer.start();
+        }
+    }
+
+    /**
+     * Shows length of the current document and position of the caret in the
+     * status bar, and enables case actions if there is a selection. Only the
+     * values which changed since the last update are shown again, so nothing
+     * is laid out while they stay the same.
+     */
+    private void updateStatus() {
+        if (currEditor == null || toUpper == null) {
+            return;
+        }
+        int length = currEditor.getDocument().getLength();
+        int dot = currEditor.getCaret().getDot();
+        int selection = Math.abs(dot - currEditor.getCaret().getMark());
+        int line;
+        int column;
+        try {
+            line = currEditor.getLineOfOffset(dot);
+            column = dot - currEditor.getLineStartOffset(line);
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+            return;
+        }
+
+        if (length != shownLength) {
+            lenVal.setText(Integer.toString(length));
+            shownLength = length;
+        }
+        if (line != shownLine) {
+            ln.setText("Ln: " + line);
+            shownLine = line;
+        }
+        if (column != shownColumn) {
+            col.setText("Col: " + column);
+            shownColumn = column;
+        }
+        if (selection != shownSelection) {
+            sel.setText("Sel: " + selection);
+            if ((selection == 0) != (shownSelection <= 0)) {
+                toUpper.setEnabled(selection != 0);
+                toLower.setEnabled(selection != 0);
+                invert.setEnabled(selection != 0);
+            }
+            shownSelection = selection;
+        }
+    }
+
+    /**
+     * Shows memory taken by the undo history of the current tab and enables
+     * undo and redo actions if the history has what to undo or redo.
+     */
+    private void updateUndoStatus() {
+        if (currEditor == null) {
+            return;
+        }
+        UndoHistory history = UndoHistory.of(currEditor);
+        undoVal.setText("Undo: " + (history.getSize() + 1023) / 1024 + " KB");
+        if (undoAction != null) {
+            undoAction.setEnabled(history.canUndo());
+            redoAction.setEnabled(history.canRedo());
+        }
+    }
+
+    /**
+     * Creates empty document for a tab. Its text is stored compactly, one byte
+     * per character where possible, on the heap or outside of it as set by
+     * {@link #setOffHeapStorage(boolean)}. Its lines are kept in an index of
+     * line starts instead of an element per line.
+     * @return new document
+     */
+    public Document createDocument() {
+        CompactContent content = new CompactContent(offHeapStorage);
+        return new LineIndexedDocument(content, content);
+    }
+
     /**
      * @return the currLang
      */
@@ -1,27 +1,47 @@
 package hr.fer.zemris.java.hw11.jnotepadpp;
 
+import java.awt.Rectangle;
 import java.awt.event.ActionEvent;
+import java.awt.geom.Rectangle2D;
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.text.Collator;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.Action;
 import javax.swing.JFileChooser;
 import javax.swing.JOptionPane;
 import javax.swing.JTabbedPane;
 import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.SwingWorker;
 import javax.swing.text.BadLocationException;
 import javax.swing.text.Document;
+import javax.swing.text.Segment;
 
+import hr.fer.zemris.java.hw11.jnotepadpp.io.ChangeTracker;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.Compression;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.DocumentFingerprint;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.EncodingConverter;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileMonitor;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.HistoryStore;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.TextSnapshot;
 import hr.fer.zemris.java.hw11.jnotepadpp.local.LocalizableAction;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.EditTransaction;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineIndexedDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.PieceTableDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.UndoHistory;
 
 /**
  * Storage of all supported action of JNotepadPP editor.
@@ -30,6 +50,13 @@ import hr.fer.zemris.java.hw11.jnotepadpp.local.LocalizableAction;
  */
 public class JNotepadPPActions {
     
+    /**
+     * Names of charsets offered when converting files.
+     */
+    private static final String[] CHARSETS = {
+            "UTF-8", "UTF-16LE", "UTF-16BE", "windows-1250", "windows-1252", "ISO-8859-2"
+    };
+    
     /**
      * Given insance of JNotepadPP editor.
      */
@@ -80,41 +107,151 @@ public class JNotepadPPActions {
     /**
      * Performs phisically saving data to the disk by writing them to
      * given path.
+     * @return future which completes when the document is written
      */
-    protected void saveDoc() {
-        byte[] data = notepad.getCurrEditor().getText()
-                .getBytes(StandardCharsets.UTF_8);
-        try {
-            Files.write(notepad.getOpenedFilePath(),  data);
-        } catch(IOException ex) {
-            JOptionPane.showMessageDialog(
-                 notepad,
-                 "Error while saving file " + notepad.getOpenedFilePath(),
-                 "Error",
-                 JOptionPane.ERROR_MESSAGE
-             );
-            return;
+    protected CompletableFuture<Void> saveDoc() {
+        return save(notepad.getCurrEditor(), notepad.getOpenedFilePath());
+    }
+    
+    /**
+     * Saves the document of the tab with given index, asking for the file
+     * name first if the document was never saved before.
+     * @param index index of the tab
+     * @return false if the user didn't choose where to save the document,
+     * otherwise true
+     */
+    protected boolean saveTab(int index) {
+        JTabbedPane tabs=notepad.getTabs();
+        JTextArea editor=notepad.getEditorAt(index);
+        String toolTip=tabs.getToolTipTextAt(index);
+        
+        Path path;
+        if (toolTip == null) {
+            tabs.setSelectedIndex(index);
+            if (!saveAs()) {
+                return false;
+            }
+            path=notepad.getOpenedFilePath();
+        } else {
+            path=Paths.get(toolTip);
         }
         
+        save(editor, path);
+        return true;
+    }
+    
+    /**
+     * Saves all changed documents. Documents which were never saved are
+     * named first, after that all of them are written in parallel.
+     * @return false if the user didn't choose where to save one of the
+     * documents, otherwise true
+     */
+    protected boolean saveAll() {
         JTabbedPane tabs=notepad.getTabs();
-        int index=tabs.getSelectedIndex();
-        tabs.setTitleAt(index, notepad.getOpenedFilePath()
-                                      .getFileName()
-                                      .toString());
-        TabComponent tabCont=new TabComponent(
-                notepad, 
-                tabs, 
-                notepad.getGreenFloppy(), 
-                false
-        );
+        for (int i = 0; i < tabs.getTabCount(); i++) {
+            if (notepad.isModified(i) && !saveTab(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Waits until all requested saves are written, showing their progress.
+     * @return true if all of the documents were written
+     */
+    protected boolean awaitSaves() {
+        Map<Path, CompletableFuture<Void>> pending=notepad.getSaveService().getPending();
+        if (pending.isEmpty()) {
+            return true;
+        }
+        return new SaveProgressDialog(notepad, pending).await();
+    }
+    
+    /**
+     * Takes snapshot of the document in given text area and hands it over to
+     * the save service, so the document is written without blocking the
+     * editor. Only the part of a large file which was changed since it was
+     * last written is rewritten, unless the document is still reading the
+     * file from its mapping. Nothing is written if the document has the same
+     * fingerprint as the text last read from or written to the same file.
+     * The tab is moved to the path and marked as saved once the snapshot is
+     * written, unless the document was changed in the meantime. A file
+     * changed by another program is overwritten only if the user confirms it,
+     * and the tab keeps its file if the user doesn't.
+     * @param editor text area whose document is saved
+     * @param path file the document is saved to
+     * @return future which completes when the document is written
+     */
+    private CompletableFuture<Void> save(JTextArea editor, Path path) {
+        TabState state = TabState.of(editor);
+        if (state.isLoading() || state.isFollowing()
+                || !notepad.getMemoryManager().rehydrate(editor)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        Document doc = editor.getDocument();
+        int length = doc.getLength();
+        String previous = notepad.getTabs().getToolTipTextAt(notepad.indexOf(editor));
+        boolean samePath = previous != null
+                && Paths.get(previous).toAbsolutePath().equals(path.toAbsolutePath());
         
-        String toolTip=notepad.getOpenedFilePath()
-                              .toAbsolutePath()
-                              .toString();
+        boolean readOnly = doc instanceof LineIndexedDocument
+                && ((LineIndexedDocument) doc).isReadOnly();
+        boolean mappedTarget = path.toAbsolutePath().equals(
+                doc.getProperty(Document.StreamDescriptionProperty));
+        if (mappedTarget && readOnly) {
+            notepad.markSaved(editor, DocumentFingerprint.NONE);
+            return CompletableFuture.completedFuture(null);
+        }
+        
+        long fingerprint = readOnly ? DocumentFingerprint.NONE : DocumentFingerprint.of(doc).get();
+        // the tab keeps its file and monitor until the user confirms the save
+        FileMonitor monitor = samePath ? notepad.watch(editor, path) : null;
+        boolean changed = monitor != null && monitor.isChanged();
+        if (samePath && fingerprint != DocumentFingerprint.NONE
+                && fingerprint == state.getSavedFingerprint()
+                && !changed && Files.exists(path)) {
+            notepad.markSaved(editor, fingerprint);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (changed) {
+            int answer = JOptionPane.showConfirmDialog(
+                    notepad,
+                    "File " + path + " was changed by another program. Overwrite it?",
+                    "File changed",
+                    JOptionPane.YES_NO_OPTION,
+                    JOptionPane.WARNING_MESSAGE);
+            if (answer != JOptionPane.YES_OPTION) {
+                return CompletableFuture.completedFuture(null);
+            }
+        }
+        if (monitor == null) {
+            monitor = notepad.watch(editor, path);
+        }
         
-        tabs.setToolTipTextAt(index, toolTip);
-        tabs.setIconAt(index, notepad.getGreenFloppy());
-        tabs.setTabComponentAt(index, tabCont);
+        ChangeTracker.Delta delta = mappedTarget ? null : ChangeTracker.of(doc).begin(length);
+        monitor.beginSave();
+        CompletableFuture<Void> future = notepad.getSaveService().save(
+                TextSnapshot.of(doc), path, state.getFormat(), delta);
+        FileMonitor saving = monitor;
+        future.whenComplete((v, ex) -> saving.endSave());
+        future.whenComplete((v, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                ex.printStackTrace();
+                if (!samePath && previous != null) {
+                    notepad.watch(editor, Paths.get(previous));
+                }
+                JOptionPane.showMessageDialog(
+                        notepad,
+                        "Error while saving file " + path,
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+            notepad.setTabPath(editor, path);
+            notepad.markSaved(editor, fingerprint);
+        }));
+        return future;
     }
     
     /**
@@ -152,36 +289,31 @@ public class JNotepadPPActions {
             public void actionPerformed(ActionEvent e) {
                 JFileChooser fc = new JFileChooser();
                 fc.setDialogTitle("Open file");
+                fc.setMultiSelectionEnabled(true);
                 if (fc.showOpenDialog(notepad)!=JFileChooser.APPROVE_OPTION) {
                     return;
                 }
                 
-                File fileName=fc.getSelectedFile();
-                Path filePath = fileName.toPath();
-                if (!Files.isReadable(filePath)) {
-                    JOptionPane.showMessageDialog(notepad, 
-                            "File " + fileName.getAbsolutePath() + 
-                            " does not exist!", "Error", JOptionPane.ERROR_MESSAGE);
-                    return;
+                for (File fileName : fc.getSelectedFiles()) {
+                    if (!Files.isReadable(fileName.toPath())) {
+                        JOptionPane.showMessageDialog(notepad, 
+                                "File " + fileName.getAbsolutePath() + 
+                                " does not exist!", "Error", JOptionPane.ERROR_MESSAGE);
+                        return;
+                    }
                 }
                 
-                byte[] bytes;
-                try {
-                    bytes=Files.readAllBytes(filePath);
-                } catch(Exception ex) {
-                    JOptionPane.showMessageDialog(
-                            notepad,
-                            "Error while reading file " + fileName.getAbsolutePath(),
-                            "Error",
-                            JOptionPane.ERROR_MESSAGE);
-                    return;
+                // tabs read their files only once they are selected
+                int first = -1;
+                for (File fileName : fc.getSelectedFiles()) {
+                    int index = notepad.openLazily(fileName.toPath().toAbsolutePath());
+                    if (first == -1) {
+                        first = index;
+                    }
+                }
+                if (first != -1) {
+                    notepad.getTabs().setSelectedIndex(first);
                 }
-                
-                String text=new String(bytes, StandardCharsets.UTF_8);
-                notepad.createBlankOpen(filePath.getFileName().toString(), 
-                                        filePath.toAbsolutePath());
-                notepad.getCurrEditor().setText(text);
-                notepad.setOpenedFilePath(filePath);
             }
         };
     }
@@ -235,19 +367,137 @@ public class JNotepadPPActions {
                 boolean result = saveAs();
                 if (result) {
                     saveDoc();
-                } else {
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns save all action which saves all changed documents.
+     * @return the saveAllAction
+     */
+    public Action getSaveAllAction() {
+        return new LocalizableAction("SaveAll", "saveAllDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                saveAll();
+            }
+        };
+    }
+
+    /**
+     * Returns local history action which lists saved versions of the current
+     * document's file and restores the chosen one into a new tab. The
+     * version is read into a new document on a background thread, and the
+     * document is shown once it is complete.
+     * @return the localHistoryAction
+     */
+    public Action getLocalHistoryAction() {
+        return new LocalizableAction("localHistory", "localHistoryDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                Path path = notepad.getOpenedFilePath();
+                if (path == null) {
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "Document was never saved.",
+                            "Warning",
+                            JOptionPane.WARNING_MESSAGE);
                     return;
                 }
                 
-                JTabbedPane tabs=notepad.getTabs();
-                int index=tabs.getSelectedIndex();
-                tabs.setIconAt(index, notepad.getGreenFloppy());
-                tabs.setTabComponentAt(index, new TabComponent(
-                                notepad, tabs, notepad.getGreenFloppy(), false));
+                HistoryStore history = notepad.getHistory();
+                List<HistoryStore.Version> versions;
+                try {
+                    versions = history.getVersions(path);
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "Error while reading history of file " + path.toAbsolutePath(),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                if (versions.isEmpty()) {
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "No saved versions of file " + path.toAbsolutePath() + ".",
+                            "Warning",
+                            JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                
+                Object answer = JOptionPane.showInputDialog(
+                        notepad,
+                        "Version of " + path.getFileName() + " to open:",
+                        "Local history",
+                        JOptionPane.QUESTION_MESSAGE,
+                        null,
+                        versions.toArray(),
+                        versions.get(0));
+                if (answer == null) {
+                    return;
+                }
+                restore(history, (HistoryStore.Version) answer);
             }
         };
     }
-
+    
+    /**
+     * Opens given version from the local history in a new tab.
+     * @param history local history
+     * @param version restored version
+     */
+    private void restore(HistoryStore history, HistoryStore.Version version) {
+        notepad.createBlankOpen("new", null);
+        JTextArea editor = notepad.getCurrEditor();
+        editor.setEditable(false);
+        new SwingWorker<Document, Void>() {
+            
+            @Override
+            protected Document doInBackground() throws Exception {
+                Document doc = notepad.createDocument();
+                history.restore(version, doc);
+                return doc;
+            }
+            
+            @Override
+            protected void done() {
+                editor.setEditable(true);
+                Document doc;
+                try {
+                    doc = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    notepad.closeTab(editor);
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "Error while restoring version of file " + version.getFile(),
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                editor.setDocument(doc);
+                // moving the caret shows the length and marks the tab as changed
+                editor.setCaretPosition(doc.getLength());
+                editor.setCaretPosition(0);
+            }
+        }.execute();
+    }
+    
     /**
      * Returns cut text action described in JNotepadPP documentation.
      * @return the cutTextAction
@@ -275,7 +525,9 @@ public class JNotepadPPActions {
                 
                 try {
                     notepad.setBuffer(doc.getText(offset, len));
-                    doc.remove(offset, len);
+                    EditTransaction transaction = new EditTransaction(currEditor);
+                    transaction.replace(offset, len, "");
+                    transaction.commit();
                 } catch (BadLocationException ex) {
                     ex.printStackTrace();
                 }
@@ -333,11 +585,15 @@ public class JNotepadPPActions {
             @Override
             public void actionPerformed(ActionEvent e) {
                 JTextArea currEditor=notepad.getCurrEditor();
-                Document doc=currEditor.getDocument();
                 int offset = currEditor.getCaret().getDot();
+                if (notepad.getBuffer() == null) {
+                    return;
+                }
                 
                 try {
-                    doc.insertString(offset, notepad.getBuffer(), null);
+                    EditTransaction transaction = new EditTransaction(currEditor);
+                    transaction.replace(offset, 0, notepad.getBuffer());
+                    transaction.commit();
                 } catch (BadLocationException e1) {
                     e1.printStackTrace();
                 }
@@ -345,6 +601,137 @@ public class JNotepadPPActions {
         };
     }
 
+    /**
+     * Returns undo action which undoes the last entry of the current tab's
+     * history.
+     * @return the undoAction
+     */
+    public Action getUndoAction() {
+        return new LocalizableAction("undo", "undoDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JTextArea currEditor=notepad.getCurrEditor();
+                if (currEditor==null || !currEditor.isEditable()) {
+                    return;
+                }
+                UndoHistory.of(currEditor).undo();
+            }
+        };
+    }
+
+    /**
+     * Returns redo action which redoes the last undone entry of the current
+     * tab's history.
+     * @return the redoAction
+     */
+    public Action getRedoAction() {
+        return new LocalizableAction("redo", "redoDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JTextArea currEditor=notepad.getCurrEditor();
+                if (currEditor==null || !currEditor.isEditable()) {
+                    return;
+                }
+                UndoHistory.of(currEditor).redo();
+            }
+        };
+    }
+
+    /**
+     * Returns undo limit action which asks how many megabytes the undo
+     * history of each tab may take.
+     * @return the undoLimitAction
+     */
+    public Action getUndoLimitAction() {
+        return new LocalizableAction("undoLimit", "undoLimitDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String answer = JOptionPane.showInputDialog(
+                        notepad,
+                        "Megabytes of undo history kept for each tab:",
+                        notepad.getUndoLimit());
+                if (answer == null) {
+                    return;
+                }
+                int limit;
+                try {
+                    limit = Integer.parseInt(answer.trim());
+                } catch (NumberFormatException ex) {
+                    limit = -1;
+                }
+                if (limit < 0 || limit > 4096) {
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "Size must be a number between 0 and 4096.",
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                notepad.setUndoLimit(limit);
+            }
+        };
+    }
+
+    /**
+     * Returns memory limit action which asks for the number of megabytes of
+     * heap all tabs may take before the least recently selected ones are
+     * hibernated.
+     * @return the memoryLimitAction
+     */
+    public Action getMemoryLimitAction() {
+        return new LocalizableAction("memoryLimit", "memoryLimitDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                String answer = JOptionPane.showInputDialog(
+                        notepad,
+                        "Megabytes of memory all tabs may take:",
+                        notepad.getMemoryLimit());
+                if (answer == null) {
+                    return;
+                }
+                int limit;
+                try {
+                    limit = Integer.parseInt(answer.trim());
+                } catch (NumberFormatException ex) {
+                    limit = -1;
+                }
+                if (limit < 16 || limit > 1 << 20) {
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "Size must be a number between 16 and " + (1 << 20) + ".",
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                notepad.setMemoryLimit(limit);
+            }
+        };
+    }
+
     /**
      * Returns statistics action described in JNotepadPP documentation.
      * @return the statistics
@@ -364,33 +751,66 @@ public class JNotepadPPActions {
                     return;
                 }
                 
-                Document doc=currEditor.getDocument();
-                
-                int chars=doc.getLength();
-                int nonBlank=chars;
-                int lines=1;
-                
-                char[] text=null;
+                count(currEditor);
+            }
+        };
+    }
+    
+    /**
+     * Counts characters, non-blank characters and lines of given tab's
+     * document on a background thread, reading a snapshot of the document so
+     * it can be edited meanwhile. If the document changes before counting is
+     * finished, the result is discarded and counting starts again.
+     * @param editor text area of the tab
+     */
+    private void count(JTextArea editor) {
+        TextSnapshot snapshot = TextSnapshot.of(editor.getDocument());
+        new SwingWorker<int[], Void>() {
+
+            @Override
+            protected int[] doInBackground() throws Exception {
+                int chars = snapshot.length();
+                int nonBlank = chars;
+                int lines = 1;
+                Segment segment = new Segment();
+                segment.setPartialReturn(true);
+                int pos = 0;
+                while (pos < chars && snapshot.isCurrent()) {
+                    snapshot.getText(pos, chars - pos, segment);
+                    for (int i = 0; i < segment.count; i++) {
+                        char c = segment.array[segment.offset + i];
+                        if (Character.isWhitespace(c)) {
+                            nonBlank--;
+                        }
+                        if (c == '\n') {
+                            lines++;
+                        }
+                    }
+                    pos += segment.count;
+                }
+                return new int[] { chars, nonBlank, lines };
+            }
+
+            @Override
+            protected void done() {
+                int[] result;
                 try {
-                    text = doc.getText(0, chars).toCharArray();
-                } catch (BadLocationException e1) {
-                    e1.printStackTrace();
+                    result = get();
+                } catch (InterruptedException | ExecutionException ex) {
+                    ex.printStackTrace();
+                    return;
                 }
-                for (int i=0; i < chars; i++) {
-                    if (Character.isWhitespace(text[i])) {
-                        nonBlank--;
-                    }
-                    if (text[i]=='\n') {
-                        lines++;
+                if (!snapshot.isCurrent()) {
+                    if (notepad.indexOf(editor) != -1 && editor.getDocument() == snapshot.getDocument()) {
+                        count(editor);
                     }
+                    return;
                 }
-                
                 JOptionPane.showMessageDialog(notepad, 
                         String.format("Your document has %d characters, %d non-blank characters"
-                        + " and %d lines.", chars,nonBlank,lines));
-                
+                        + " and %d lines.", result[0], result[1], result[2]));
             }
-        };
+        }.execute();
     }
 
     /**
@@ -423,8 +843,9 @@ public class JNotepadPPActions {
                 
                 try {
                     String text= doc.getText(offset, len);
-                    doc.remove(offset, len);
-                    doc.insertString(offset, text.toUpperCase(), null);
+                    EditTransaction transaction = new EditTransaction(currEditor);
+                    transaction.replace(offset, len, text.toUpperCase());
+                    transaction.commit();
                 } catch (BadLocationException ex) {
                     ex.printStackTrace();
                 }
@@ -463,8 +884,9 @@ public class JNotepadPPActions {
                 
                 try {
                     String text= doc.getText(offset, len);
-                    doc.remove(offset, len);
-                    doc.insertString(offset, text.toLowerCase(), null);
+                    EditTransaction transaction = new EditTransaction(currEditor);
+                    transaction.replace(offset, len, text.toLowerCase());
+                    transaction.commit();
                 } catch (BadLocationException ex) {
                     ex.printStackTrace();
                 }
@@ -504,9 +926,9 @@ public class JNotepadPPActions {
                 
                 try {
                     String text= doc.getText(offset, len);
-                    text=changeCase(text);
-                    doc.remove(offset, len);
-                    doc.insertString(offset, text, null);
+                    EditTransaction transaction = new EditTransaction(currEditor);
+                    transaction.replace(offset, len, changeCase(text));
+                    transaction.commit();
                 } catch(BadLocationException ex) {
                     ex.printStackTrace();
                 }
@@ -530,7 +952,8 @@ public class JNotepadPPActions {
     
     /**
      * Sorts lines by ascending or descending order, depending on
-     * given parameter.
+     * given parameter. Sorted lines replace the old ones in a single
+     * {@link EditTransaction}.
      * @param asc if true, sorting will be performed by ascending order,
      * otherwise descending
      * @return state of sorting performance, if anything went wrong, false
@@ -557,6 +980,9 @@ public class JNotepadPPActions {
         List<String> lines=new ArrayList<>();
         int firstLine=currEditor.getLineOfOffset(offset);
         int lastLine=currEditor.getLineOfOffset(offset+len);
+        int rangeStart=currEditor.getLineStartOffset(firstLine);
+        int rangeEnd=currEditor.getLineEndOffset(lastLine);
+        boolean lastBreak=true;
         
         for (int i=firstLine; i <= lastLine; i++) {
             int lineStart=currEditor.getLineStartOffset(i);
@@ -565,6 +991,7 @@ public class JNotepadPPActions {
             String elem=doc.getText(lineStart, lineEnd-lineStart);
             if (i == lastLine && !elem.contains("\n")) {
                 elem+="\n";
+                lastBreak=false;
             }
             lines.add(elem);
         }
@@ -582,13 +1009,18 @@ public class JNotepadPPActions {
                 (s1,s2) -> factor*collator.compare(s1, s2));
         
         
-        for (int i=firstLine; i <= lastLine; i++) {
-            int lineStart=currEditor.getLineStartOffset(i);
-            int lineEnd=currEditor.getLineEndOffset(i);
-            doc.remove(lineStart, lineEnd-lineStart);
-            doc.insertString(lineStart, lines.get(i-firstLine), null);
+        StringBuilder sorted=new StringBuilder(rangeEnd-rangeStart+1);
+        for (String line : lines) {
+            sorted.append(line);
+        }
+        if (!lastBreak) {
+            sorted.setLength(sorted.length()-1);
         }
         
+        EditTransaction transaction = new EditTransaction(currEditor);
+        transaction.replace(rangeStart, rangeEnd-rangeStart, sorted.toString());
+        transaction.commit();
+        
         return true;
         
     }
@@ -701,14 +1133,16 @@ public class JNotepadPPActions {
                         }
                     }
                     
-                    doc.remove(currEditor.getLineStartOffset(firstLine), 
-                                currEditor.getLineEndOffset(lastLine)-
-                                currEditor.getLineStartOffset(firstLine));
-                    
-                    for (int i=firstLine; i < firstLine + lines.size(); i++) {
-                        int lineStart=currEditor.getLineStartOffset(i);
-                        doc.insertString(lineStart, lines.get(i-firstLine), null);
+                    StringBuilder unique=new StringBuilder();
+                    for (String line : lines) {
+                        unique.append(line);
                     }
+                    int rangeStart=currEditor.getLineStartOffset(firstLine);
+                    EditTransaction transaction = new EditTransaction(currEditor);
+                    transaction.replace(rangeStart, 
+                            currEditor.getLineEndOffset(lastLine)-rangeStart,
+                            unique.toString());
+                    transaction.commit();
                     
                 } catch (BadLocationException e1) {
                     e1.printStackTrace();
@@ -718,6 +1152,396 @@ public class JNotepadPPActions {
         };
     }
 
+    /**
+     * Returns convert encoding action which converts chosen files into
+     * chosen charset on a background thread.
+     * @return the convertEncoding
+     */
+    public Action getConvertEncoding() {
+        return new LocalizableAction("convert", "convertDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JFileChooser fc = new JFileChooser();
+                fc.setDialogTitle("Convert encoding");
+                fc.setMultiSelectionEnabled(true);
+                if (fc.showOpenDialog(notepad) != JFileChooser.APPROVE_OPTION) {
+                    return;
+                }
+                File[] files = fc.getSelectedFiles();
+                
+                Object choice = JOptionPane.showInputDialog(
+                        notepad,
+                        "Convert " + files.length + " files to:",
+                        "Convert encoding",
+                        JOptionPane.QUESTION_MESSAGE,
+                        null,
+                        CHARSETS,
+                        CHARSETS[0]);
+                if (choice == null) {
+                    return;
+                }
+                Charset charset = Charset.forName((String) choice);
+                
+                new SwingWorker<List<String>, Void>() {
+
+                    @Override
+                    protected List<String> doInBackground() {
+                        EncodingConverter converter = new EncodingConverter();
+                        List<String> failed = new ArrayList<>();
+                        for (File file : files) {
+                            try {
+                                converter.convert(file.toPath(), charset);
+                            } catch (IOException ex) {
+                                ex.printStackTrace();
+                                failed.add(file.getAbsolutePath());
+                            }
+                        }
+                        return failed;
+                    }
+
+                    @Override
+                    protected void done() {
+                        List<String> failed;
+                        try {
+                            failed = get();
+                        } catch (InterruptedException | ExecutionException ex) {
+                            ex.printStackTrace();
+                            return;
+                        }
+                        
+                        if (failed.isEmpty()) {
+                            JOptionPane.showMessageDialog(notepad, 
+                                    "Converted " + files.length + " files to " + charset.name() + ".");
+                        } else {
+                            JOptionPane.showMessageDialog(
+                                    notepad,
+                                    "Error while converting files " + String.join(", ", failed),
+                                    "Error",
+                                    JOptionPane.ERROR_MESSAGE);
+                        }
+                    }
+                }.execute();
+            }
+        };
+    }
+
+    /**
+     * Returns follow action which toggles following of the current tab's
+     * file. While the file is followed, only the bytes appended to it are
+     * read. When following is stopped, the whole file is loaded again.
+     * @return the followAction
+     */
+    public Action getFollowAction() {
+        return new LocalizableAction("follow", "followDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JTextArea editor = notepad.getCurrEditor();
+                TabState state = TabState.of(editor);
+                if (state.isFollowing()) {
+                    Path path = state.getFollower().getPath();
+                    state.getFollower().stop();
+                    reload(editor, path);
+                } else {
+                    follow(editor);
+                }
+                putValue(SELECTED_KEY, state.isFollowing());
+            }
+        };
+    }
+    
+    /**
+     * Starts following the file of given tab, after asking how much of it
+     * should be kept in the tab.
+     * @param editor text area of the tab
+     */
+    private void follow(JTextArea editor) {
+        TabState state = TabState.of(editor);
+        Path path = notepad.getOpenedFilePath();
+        String problem = null;
+        if (path == null) {
+            problem = "Only documents saved to disk can be followed.";
+        } else if (state.isLoading()) {
+            problem = "Document is still being loaded.";
+        } else if (notepad.isModified(notepad.indexOf(editor))) {
+            problem = "Save the document before following its file.";
+        } else if (state.getFormat().getCompression() != Compression.NONE) {
+            problem = "Compressed files can't be followed.";
+        }
+        if (problem != null) {
+            JOptionPane.showMessageDialog(notepad, problem, "Warning", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        
+        String answer = JOptionPane.showInputDialog(
+                notepad,
+                "Megabytes of the file kept in the tab:",
+                notepad.getFollowLimit());
+        if (answer == null) {
+            return;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(answer.trim());
+        } catch (NumberFormatException ex) {
+            limit = 0;
+        }
+        if (limit <= 0 || limit > 1024) {
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Size must be a number between 1 and 1024.",
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        notepad.setFollowLimit(limit);
+        
+        FileFollower follower = new FileFollower(
+                notepad, editor, path, state.getFormat(), limit << 20);
+        try {
+            follower.start();
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            follower.stop();
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Error while following file " + path,
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            reload(editor, path);
+        }
+    }
+    
+    /**
+     * Offers to reload the file of given tab, which was changed by another
+     * program. Only the changed parts of the document are replaced.
+     * @param editor text area of the tab
+     */
+    protected void reloadChanged(JTextArea editor) {
+        int index = notepad.indexOf(editor);
+        TabState state = TabState.of(editor);
+        FileMonitor monitor = state.getMonitor();
+        if (index == -1 || monitor == null || state.isLoading() || state.isFollowing()) {
+            return;
+        }
+        
+        Path path = monitor.getPath();
+        String question = notepad.isModified(index)
+                ? "File " + path + " was changed by another program. Reload it and lose your changes?"
+                : "File " + path + " was changed by another program. Reload it?";
+        int answer = JOptionPane.showConfirmDialog(
+                notepad,
+                question,
+                "File changed",
+                JOptionPane.YES_NO_OPTION);
+        if (answer == JOptionPane.YES_OPTION && state.getMonitor() == monitor
+                && notepad.getMemoryManager().rehydrate(editor)) {
+            new DocumentReloader(notepad, editor, path).start();
+        }
+    }
+    
+    /**
+     * Loads the file of given tab into it again.
+     * @param editor text area of the tab
+     * @param path path of the file
+     */
+    private void reload(JTextArea editor, Path path) {
+        try {
+            new DocumentLoader(notepad, editor, path).start();
+        } catch (IOException ex) {
+            notepad.closeTab(editor);
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Error while reading file " + path,
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Returns piece table action which switches storage of the current tab's
+     * document between compact storage and a piece table. Documents mapped from
+     * large files become editable in a piece table.
+     * @return the pieceTableAction
+     */
+    public Action getPieceTableAction() {
+        return new LocalizableAction("pieceTable", "pieceTableDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JTextArea editor = notepad.getCurrEditor();
+                TabState state = TabState.of(editor);
+                Document doc = editor.getDocument();
+                String problem = null;
+                if (state.isLoading() || state.isFollowing()) {
+                    problem = "Storage can't be changed while the file is being read.";
+                } else if (doc instanceof PieceTableDocument && ((PieceTableDocument) doc).isMapped()) {
+                    problem = "Documents mapped from large files are always stored in a piece table.";
+                }
+                if (problem != null) {
+                    putValue(SELECTED_KEY, doc instanceof PieceTableDocument);
+                    JOptionPane.showMessageDialog(notepad, problem, "Warning", JOptionPane.WARNING_MESSAGE);
+                    return;
+                }
+                
+                try {
+                    Document replacement;
+                    if (doc instanceof PieceTableDocument) {
+                        replacement = notepad.createDocument();
+                        replacement.insertString(0, doc.getText(0, doc.getLength()), null);
+                    } else {
+                        replacement = PieceTableDocument.copyOf(doc);
+                    }
+                    replaceDocument(editor, replacement);
+                } catch (BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+                state.setPieceTable(editor.getDocument() instanceof PieceTableDocument);
+                putValue(SELECTED_KEY, state.isPieceTable());
+            }
+        };
+    }
+    
+    /**
+     * Replaces document of given text area with another one which has the
+     * same text, keeping the caret, selection and tracked changes.
+     * @param editor text area of the tab
+     * @param replacement new document
+     */
+    private void replaceDocument(JTextArea editor, Document replacement) {
+        Document doc = editor.getDocument();
+        int dot = editor.getCaret().getDot();
+        int mark = editor.getCaret().getMark();
+        ChangeTracker.transfer(doc, replacement);
+        editor.setDocument(replacement);
+        editor.setEditable(true);
+        editor.getCaret().setDot(mark);
+        editor.getCaret().moveDot(dot);
+    }
+    
+    /**
+     * Returns go to line action which moves the caret to the beginning of a
+     * line and scrolls it into the middle of the view. Lines are numbered as
+     * in the status bar.
+     * @return the goToLineAction
+     */
+    public Action getGoToLineAction() {
+        return new LocalizableAction("goToLine", "goToLineDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                JTextArea editor = notepad.getCurrEditor();
+                if (editor == null) {
+                    return;
+                }
+                int lines = editor.getLineCount();
+                String answer = JOptionPane.showInputDialog(
+                        notepad,
+                        "Line (0 - " + (lines - 1) + "):",
+                        editor.getDocument().getDefaultRootElement()
+                                .getElementIndex(editor.getCaretPosition()));
+                if (answer == null) {
+                    return;
+                }
+                int line;
+                try {
+                    line = Integer.parseInt(answer.trim());
+                } catch (NumberFormatException ex) {
+                    line = -1;
+                }
+                if (line < 0 || line >= lines) {
+                    JOptionPane.showMessageDialog(
+                            notepad,
+                            "Line must be a number between 0 and " + (lines - 1) + ".",
+                            "Error",
+                            JOptionPane.ERROR_MESSAGE);
+                    return;
+                }
+                
+                try {
+                    int start = editor.getLineStartOffset(line);
+                    editor.setCaretPosition(start);
+                    Rectangle2D bounds = editor.modelToView2D(start);
+                    Rectangle visible = editor.getVisibleRect();
+                    if (bounds != null) {
+                        Rectangle target = bounds.getBounds();
+                        target.x = visible.x;
+                        target.y -= (visible.height - target.height) / 2;
+                        target.height = visible.height;
+                        target.width = visible.width;
+                        editor.scrollRectToVisible(target);
+                    }
+                } catch (BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+                editor.requestFocusInWindow();
+            }
+        };
+    }
+    
+    /**
+     * Returns off-heap action which sets whether text of documents created
+     * from now on is kept outside of the heap.
+     * @return the offHeapAction
+     */
+    public Action getOffHeapAction() {
+        return new LocalizableAction("offHeap", "offHeapDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                notepad.setOffHeapStorage(!notepad.isOffHeapStorage());
+                putValue(SELECTED_KEY, notepad.isOffHeapStorage());
+            }
+        };
+    }
+    
+    /**
+     * Returns line wrap action which sets whether text areas of all tabs
+     * wrap lines at their width.
+     * @return the lineWrapAction
+     */
+    public Action getLineWrapAction() {
+        return new LocalizableAction("lineWrap", "lineWrapDesc", notepad.getFlp()) {
+            
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            public void actionPerformed(ActionEvent e) {
+                notepad.setLineWrap(!notepad.isLineWrap());
+                putValue(SELECTED_KEY, notepad.isLineWrap());
+            }
+        };
+    }
+    
     /**
      * Returns exit action described in JNotepadPP documentation.
      * @return the exitAction
@@ -0,0 +1,420 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.swing.JOptionPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.io.ChangeTracker;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.CompressedText;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.DocumentFingerprint;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.TextSnapshot;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineIndexedDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.PieceTableDocument;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.UndoHistory;
+
+/**
+ * Keeps heap taken by the tabs under a budget. Every tab is charged for its
+ * document and its undo history. While the tabs take more than the budget,
+ * documents of the tabs which weren't selected for the longest time are
+ * compressed on a background thread and replaced by empty documents, which
+ * is called hibernating. If that isn't enough, compressed texts are spilled
+ * to temporary files, again the least recently selected ones first. A
+ * hibernated tab gets its text back when it is selected or saved.
+ * <p>
+ * Tabs which are being loaded or followed, and documents mapped from files,
+ * and tabs whose file fingerprint isn't known are never hibernated. The undo
+ * history of a hibernated tab is lost. All methods must be called on the
+ * Event Dispatch Thread.
+ * @author Luka Kraljević
+ *
+ */
+class MemoryManager {
+
+    /**
+     * Documents smaller than this number of bytes are never hibernated.
+     */
+    private static final long MIN_SIZE = 256 * 1024;
+
+    /**
+     * Number of milliseconds between two checks of the budget.
+     */
+    private static final int CHECK_DELAY = 5000;
+
+    /**
+     * Editor whose tabs are managed.
+     */
+    private final JNotepadPP notepad;
+
+    /**
+     * Thread which compresses and spills the texts.
+     */
+    private final ExecutorService executor;
+
+    /**
+     * Timer which checks the budget periodically.
+     */
+    private final Timer timer;
+
+    /**
+     * Tabs whose documents are being compressed.
+     */
+    private final Set<JTextArea> pending = new HashSet<>();
+
+    /**
+     * Maximum number of heap bytes taken by the tabs.
+     */
+    private long budget;
+
+    /**
+     * Number of tab selections so far.
+     */
+    private long selections;
+
+    /**
+     * Creates manager of given editor's tabs.
+     * @param notepad editor whose tabs are managed
+     * @param budget maximum number of heap bytes taken by the tabs
+     */
+    MemoryManager(JNotepadPP notepad, long budget) {
+        this.notepad = notepad;
+        this.budget = budget;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "memory");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        timer = new Timer(CHECK_DELAY, e -> {
+            enforce();
+            notepad.updateMemoryStatus();
+        });
+    }
+
+    /**
+     * Starts checking the budget periodically.
+     */
+    void start() {
+        timer.start();
+    }
+
+    /**
+     * Stops checking the budget and the background thread.
+     */
+    void stop() {
+        timer.stop();
+        executor.shutdownNow();
+    }
+
+    /**
+     * @return maximum number of heap bytes taken by the tabs
+     */
+    long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets maximum number of heap bytes taken by the tabs, hibernating tabs
+     * if they take more.
+     * @param budget the budget to set
+     */
+    void setBudget(long budget) {
+        this.budget = budget;
+        enforce();
+    }
+
+    /**
+     * Estimates number of heap bytes taken by the tab which shows given text
+     * area.
+     * @param editor text area of the tab
+     * @return estimated size in bytes
+     */
+    long heapSize(JTextArea editor) {
+        Hibernated hibernated = TabState.of(editor).getHibernated();
+        if (hibernated != null) {
+            return hibernated.text.getHeapSize();
+        }
+        UndoHistory history = UndoHistory.of(editor);
+        return documentSize(editor.getDocument()) + (history == null ? 0 : history.getSize());
+    }
+
+    /**
+     * Estimates number of heap bytes taken by all of the materialized tabs.
+     * @return estimated size in bytes
+     */
+    long totalHeapSize() {
+        long total = 0;
+        for (int i = 0, n = notepad.getTabs().getTabCount(); i < n; i++) {
+            JTextArea editor = notepad.getEditorAt(i);
+            if (editor != null) {
+                total += heapSize(editor);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Remembers that given tab was selected, giving its text back if it is
+     * hibernated.
+     * @param editor text area of the selected tab
+     */
+    void selected(JTextArea editor) {
+        TabState.of(editor).setLastSelected(++selections);
+        rehydrate(editor);
+        enforce();
+    }
+
+    /**
+     * Gives back the text of given tab if it is hibernated. The text is
+     * restored with the caret and selection it had.
+     * @param editor text area of the tab
+     * @return false if the text couldn't be restored
+     */
+    boolean rehydrate(JTextArea editor) {
+        TabState state = TabState.of(editor);
+        Hibernated hibernated = state.getHibernated();
+        if (hibernated == null) {
+            return true;
+        }
+
+        Document doc = notepad.createDocument();
+        try {
+            hibernated.text.restore(doc);
+            if (state.isPieceTable()) {
+                doc = PieceTableDocument.copyOf(doc);
+            }
+        } catch (IOException | BadLocationException ex) {
+            ex.printStackTrace();
+            JOptionPane.showMessageDialog(
+                    notepad,
+                    "Error while restoring text of tab " + notepad.getTabs().getTitleAt(
+                            notepad.indexOf(editor)),
+                    "Error",
+                    JOptionPane.ERROR_MESSAGE);
+            return false;
+        }
+
+        ChangeTracker.transfer(editor.getDocument(), doc);
+        editor.setDocument(doc);
+        state.setHibernated(null);
+        hibernated.text.dispose();
+        int length = doc.getLength();
+        editor.getCaret().setDot(Math.min(hibernated.mark, length));
+        editor.getCaret().moveDot(Math.min(hibernated.dot, length));
+        return true;
+    }
+
+    /**
+     * Forgets the text of given tab, which was closed.
+     * @param editor text area of the closed tab
+     */
+    void closed(JTextArea editor) {
+        TabState state = TabState.of(editor);
+        if (state.getHibernated() != null) {
+            state.getHibernated().text.dispose();
+            state.setHibernated(null);
+        }
+        pending.remove(editor);
+    }
+
+    /**
+     * Hibernates the least recently selected tabs while the tabs take more
+     * than the budget, and spills compressed texts if hibernating all of the
+     * tabs isn't enough. Nothing is done while earlier hibernations are still
+     * running.
+     */
+    void enforce() {
+        if (!pending.isEmpty()) {
+            return;
+        }
+        long total = totalHeapSize();
+        if (total <= budget) {
+            return;
+        }
+
+        List<JTextArea> tabs = new ArrayList<>();
+        for (int i = 0, n = notepad.getTabs().getTabCount(); i < n; i++) {
+            JTextArea editor = notepad.getEditorAt(i);
+            if (editor != null && editor != notepad.getCurrEditor()) {
+                tabs.add(editor);
+            }
+        }
+        tabs.sort(Comparator.comparingLong(e -> TabState.of(e).getLastSelected()));
+
+        for (JTextArea editor : tabs) {
+            if (total <= budget) {
+                return;
+            }
+            if (canHibernate(editor)) {
+                total -= heapSize(editor);
+                hibernate(editor);
+            }
+        }
+        for (JTextArea editor : tabs) {
+            if (total <= budget) {
+                return;
+            }
+            Hibernated hibernated = TabState.of(editor).getHibernated();
+            if (hibernated != null && !hibernated.text.isSpilled()) {
+                total -= hibernated.text.getHeapSize();
+                spill(hibernated.text);
+            }
+        }
+    }
+
+    /**
+     * Checks if the document of given tab may be hibernated.
+     * @param editor text area of the tab
+     * @return true if the tab may be hibernated
+     */
+    private boolean canHibernate(JTextArea editor) {
+        TabState state = TabState.of(editor);
+        Document doc = editor.getDocument();
+        if (state.isHibernated() || state.isLoading() || state.isFollowing()
+                || state.getSavedFingerprint() == DocumentFingerprint.NONE
+                || !(doc instanceof LineIndexedDocument)
+                || ((LineIndexedDocument) doc).isReadOnly()) {
+            return false;
+        }
+        if (doc instanceof PieceTableDocument && ((PieceTableDocument) doc).isMapped()) {
+            return false;
+        }
+        return documentSize(doc) >= MIN_SIZE;
+    }
+
+    /**
+     * Compresses the document of given tab on the background thread and
+     * replaces it with an empty document once it is compressed. The
+     * compressed text is thrown away if the tab was changed, closed or
+     * selected in the meantime.
+     * @param editor text area of the tab
+     */
+    private void hibernate(JTextArea editor) {
+        Document doc = editor.getDocument();
+        TextSnapshot snapshot = TextSnapshot.of(doc);
+        pending.add(editor);
+        try {
+            executor.execute(() -> {
+                CompressedText text;
+                try {
+                    text = CompressedText.compress(snapshot);
+                } catch (BadLocationException | RuntimeException ex) {
+                    ex.printStackTrace();
+                    SwingUtilities.invokeLater(() -> pending.remove(editor));
+                    return;
+                }
+                SwingUtilities.invokeLater(() -> {
+                    boolean current = pending.remove(editor) && snapshot.isCurrent()
+                            && editor.getDocument() == doc
+                            && editor != notepad.getCurrEditor()
+                            && canHibernate(editor);
+                    if (!current) {
+                        text.dispose();
+                        return;
+                    }
+                    TabState state = TabState.of(editor);
+                    state.setHibernated(new Hibernated(text, DocumentFingerprint.of(doc).get(),
+                            editor.getCaret().getDot(), editor.getCaret().getMark()));
+                    Document placeholder = notepad.createDocument();
+                    ChangeTracker.transfer(doc, placeholder);
+                    editor.setDocument(placeholder);
+                    notepad.updateMemoryStatus();
+                });
+            });
+        } catch (RejectedExecutionException ex) {
+            pending.remove(editor);
+        }
+    }
+
+    /**
+     * Spills given compressed text on the background thread.
+     * @param text compressed text
+     */
+    private void spill(CompressedText text) {
+        try {
+            executor.execute(() -> {
+                try {
+                    text.spill();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // the editor is closing
+        }
+    }
+
+    /**
+     * Estimates number of heap bytes taken by given document.
+     * @param doc document
+     * @return estimated size in bytes
+     */
+    private static long documentSize(Document doc) {
+        if (doc instanceof LineIndexedDocument) {
+            return ((LineIndexedDocument) doc).getHeapSize();
+        }
+        return 2L * doc.getLength();
+    }
+
+    /**
+     * Compressed text of a hibernated tab, with its fingerprint and the caret
+     * it had.
+     * @author Luka Kraljević
+     *
+     */
+    static final class Hibernated {
+
+        /**
+         * Compressed text of the tab.
+         */
+        final CompressedText text;
+
+        /**
+         * Fingerprint of the text.
+         */
+        final long fingerprint;
+
+        /**
+         * Position of the caret.
+         */
+        final int dot;
+
+        /**
+         * Other end of the selection.
+         */
+        final int mark;
+
+        /**
+         * Creates the hibernated text.
+         * @param text compressed text of the tab
+         * @param fingerprint fingerprint of the text
+         * @param dot position of the caret
+         * @param mark other end of the selection
+         */
+        Hibernated(CompressedText text, long fingerprint, int dot, int mark) {
+            this.text = text;
+            this.fingerprint = fingerprint;
+            this.dot = dot;
+            this.mark = mark;
+        }
+
+        /**
+         * @return fingerprint of the text
+         */
+        long getFingerprint() {
+            return fingerprint;
+        }
+    }
+}
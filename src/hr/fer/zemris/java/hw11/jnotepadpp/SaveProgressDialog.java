@@ -0,0 +1,115 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import java.awt.BorderLayout;
+import java.awt.GridLayout;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
+
+/**
+ * Modal dialog which shows progress of saves that are still being written,
+ * one row per file. It closes by itself when all files are written and stays
+ * opened if any of them failed, so the user can see which one.
+ * @author Luka Kraljević
+ *
+ */
+public class SaveProgressDialog extends JDialog {
+
+    /**
+     * Default serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Number of saves which are not finished yet.
+     */
+    private int remaining;
+
+    /**
+     * Flag which indicates that at least one save failed.
+     */
+    private boolean failed;
+
+    /**
+     * Button for closing the dialog after a failure.
+     */
+    private JButton close = new JButton("Close");
+
+    /**
+     * Creates the dialog for given saves.
+     * @param owner frame of the editor
+     * @param saves unfinished saves, keyed by the file they write
+     */
+    public SaveProgressDialog(JFrame owner, Map<Path, CompletableFuture<Void>> saves) {
+        super(owner, "Saving documents", true);
+        setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+
+        JPanel rows = new JPanel(new GridLayout(0, 2, 10, 5));
+        rows.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        remaining = saves.size();
+
+        for (Map.Entry<Path, CompletableFuture<Void>> e : saves.entrySet()) {
+            JLabel status = new JLabel("Saving...");
+            rows.add(new JLabel(e.getKey().getFileName().toString()));
+            rows.add(status);
+
+            e.getValue().whenComplete((v, ex) -> SwingUtilities.invokeLater(() -> {
+                if (ex == null) {
+                    status.setText("Saved");
+                } else {
+                    Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                    status.setText("Failed: " + cause.getMessage());
+                    failed = true;
+                }
+                finished();
+            }));
+        }
+
+        close.setEnabled(false);
+        close.addActionListener(e -> dispose());
+        JPanel buttons = new JPanel();
+        buttons.add(close);
+
+        getContentPane().setLayout(new BorderLayout());
+        getContentPane().add(rows, BorderLayout.CENTER);
+        getContentPane().add(buttons, BorderLayout.PAGE_END);
+        pack();
+        setLocationRelativeTo(owner);
+    }
+
+    /**
+     * Shows the dialog and waits until all saves are finished.
+     * @return true if all files were written
+     */
+    public boolean await() {
+        if (remaining > 0) {
+            setVisible(true);
+        }
+        return !failed;
+    }
+
+    /**
+     * Called when one of the saves finishes.
+     */
+    private void finished() {
+        remaining--;
+        if (remaining > 0) {
+            return;
+        }
+        if (failed) {
+            setTitle("Some documents were not saved");
+            close.setEnabled(true);
+        } else {
+            dispose();
+        }
+    }
+}
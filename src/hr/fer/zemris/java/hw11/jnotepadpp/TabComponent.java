@@ -8,6 +8,8 @@ import java.awt.Graphics2D;
 import java.awt.Image;
 import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.util.HashMap;
+import java.util.Map;
 
 import javax.swing.BorderFactory;
 import javax.swing.ImageIcon;
@@ -17,11 +19,14 @@ import javax.swing.JPanel;
 import javax.swing.JTabbedPane;
 import javax.swing.plaf.basic.BasicButtonUI;
 
-import hr.fer.zemris.java.hw11.jnotepadpp.local.LJLabel;
+import hr.fer.zemris.java.hw11.jnotepadpp.local.ILocalizationListener;
 
 /**
  * Component which is located in the title part of every tab and shows
- * tab's title, icon and closing button.
+ * tab's title, icon and closing button. Every tab keeps one component for
+ * its whole life: the title is read from the tab whenever it is painted, and
+ * marking the tab as changed or saved only swaps the icon. Scaled icons are
+ * shared by all tabs.
  * @author Luka Kraljević
  *
  */
@@ -32,46 +37,70 @@ public class TabComponent extends JPanel {
      */
     private static final long serialVersionUID = 1L;
     
+    /**
+     * Width and height of the icon.
+     */
+    private static final int ICON_SIZE = 14;
+    
+    /**
+     * Scaled icons, keyed by their original icons.
+     */
+    private static final Map<ImageIcon, ImageIcon> SCALED = new HashMap<>();
+    
+    /**
+     * Instance of main editor.
+     */
+    private JNotepadPP notepad;
+    
     /**
      * Label for displaying file names or signification for unsaved document.
      */
     private JLabel label;
     
     /**
-     * Instantiates this tab component.
+     * Label which shows the icon.
+     */
+    private JLabel iconLabel;
+    
+    /**
+     * Flag which indicates that the tab has unsaved changes.
+     */
+    private boolean modified;
+    
+    /**
+     * Listener which shows the title again when the language changes.
+     */
+    private ILocalizationListener localizationListener = this::titleChanged;
+    
+    /**
+     * Instantiates this tab component for a saved tab. Tabs titled "new"
+     * show the localized name of a new document.
      * @param notepad JNotepadPP instance, instance of main editor
      * @param tabs apstraction of all tabs in the editor
-     * @param icon icon ehich will be set to this component
-     * @param createNew indicates if new blank document will be created
      */
-    public TabComponent(JNotepadPP notepad, JTabbedPane tabs, ImageIcon icon, boolean createNew) {
-        
+    public TabComponent(JNotepadPP notepad, JTabbedPane tabs) {
+        this.notepad = notepad;
         setOpaque(false);
         
-        if (createNew) {
-            label = new LJLabel("new", notepad.getFlp());
-        } else {
-            label = new JLabel() {
-                /**
-                 * Default serial version.
-                 */
-                private static final long serialVersionUID = 1L;
-                
-                @Override
-                public String getText() {
-                    int i = tabs.indexOfTabComponent(TabComponent.this);
-                    if (i != -1) {
-                        return tabs.getTitleAt(i);
-                    }
+        label = new JLabel() {
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            public String getText() {
+                int i = tabs.indexOfTabComponent(TabComponent.this);
+                if (i == -1) {
                     return null;
                 }
-            };
-            
-        } 
+                String title = tabs.getTitleAt(i);
+                return title.equals("new") ? notepad.getFlp().getString("new") : title;
+            }
+        };
         
-        JLabel iconL=new JLabel(new ImageIcon(
-                getScaledImage(icon.getImage(), 14, 14)));
-        add(iconL);
+        iconLabel = new JLabel(scaled(notepad.getGreenFloppy()));
+        add(iconLabel);
         add(label);
         JButton button = new TabButton();
         button.addActionListener(notepad.getCloseListener(this));
@@ -87,6 +116,55 @@ public class TabComponent extends JPanel {
         return label.getText();
     }
     
+    /**
+     * @return true if the tab has unsaved changes
+     */
+    public boolean isModified() {
+        return modified;
+    }
+    
+    /**
+     * Shows the tab as changed or saved.
+     * @param modified true if the tab has unsaved changes
+     */
+    public void setModified(boolean modified) {
+        if (this.modified == modified) {
+            return;
+        }
+        this.modified = modified;
+        iconLabel.setIcon(scaled(modified ? notepad.getRedFloppy() : notepad.getGreenFloppy()));
+    }
+    
+    /**
+     * Lays out and paints the title again after it was changed.
+     */
+    public void titleChanged() {
+        revalidate();
+        repaint();
+    }
+    
+    @Override
+    public void addNotify() {
+        super.addNotify();
+        notepad.getFlp().addLocalizationListener(localizationListener);
+    }
+    
+    @Override
+    public void removeNotify() {
+        notepad.getFlp().removeLocalizationListener(localizationListener);
+        super.removeNotify();
+    }
+    
+    /**
+     * Returns given icon scaled to the size of tab icons, scaling it only the
+     * first time it is asked for.
+     * @param icon original icon
+     * @return scaled icon
+     */
+    private static ImageIcon scaled(ImageIcon icon) {
+        return SCALED.computeIfAbsent(icon, i -> new ImageIcon(
+                getScaledImage(i.getImage(), ICON_SIZE, ICON_SIZE)));
+    }
     
     /**
      * Changes the size of given image to given parameters.
@@ -95,7 +173,7 @@ public class TabComponent extends JPanel {
      * @param h new height of image
      * @return scaled image to given parameters
      */
-    private Image getScaledImage(Image srcImg, int w, int h){
+    private static Image getScaledImage(Image srcImg, int w, int h){
         BufferedImage resizedImg = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
         Graphics2D g2 = resizedImg.createGraphics();
 
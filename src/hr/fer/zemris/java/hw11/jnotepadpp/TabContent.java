@@ -0,0 +1,77 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import java.awt.BorderLayout;
+
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineNumberGutter;
+
+/**
+ * Component shown in the body of a tab. Until the tab is selected for the
+ * first time it is empty and the tab is described only by its title and
+ * tooltip, which hold the name and the path of its file. The text area, with
+ * its scroll pane and line numbers, is created when the tab is selected, and
+ * it can be dropped again to release a tab which wasn't used for a long
+ * time. The tab of a text area is found through this component, so tabs are
+ * looked up by identity instead of by index.
+ * @author Luka Kraljević
+ *
+ */
+class TabContent extends JPanel {
+
+    /**
+     * Default serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Text area of the tab, or null while the tab isn't materialized.
+     */
+    private JTextArea editor;
+
+    /**
+     * Creates content of a tab which isn't materialized yet.
+     */
+    TabContent() {
+        super(new BorderLayout());
+    }
+
+    /**
+     * Returns content of the tab which shows given text area.
+     * @param editor text area of the tab
+     * @return content of the tab, or null if the text area isn't shown in a
+     * tab
+     */
+    static TabContent of(JTextArea editor) {
+        return (TabContent) editor.getClientProperty(TabContent.class);
+    }
+
+    /**
+     * @return text area of the tab, or null if the tab isn't materialized
+     */
+    JTextArea getEditor() {
+        return editor;
+    }
+
+    /**
+     * Shows given text area in the tab, replacing the current one.
+     * @param editor text area of the tab, or null to release the tab
+     */
+    void setEditor(JTextArea editor) {
+        if (this.editor != null) {
+            this.editor.putClientProperty(TabContent.class, null);
+        }
+        removeAll();
+        this.editor = editor;
+        if (editor != null) {
+            editor.putClientProperty(TabContent.class, this);
+            JScrollPane scroll = new JScrollPane(editor);
+            scroll.setRowHeaderView(new LineNumberGutter(editor));
+            add(scroll);
+        }
+        revalidate();
+        repaint();
+    }
+}
@@ -0,0 +1,162 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import javax.swing.JTextArea;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.io.EditJournal;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.TextSnapshot;
+
+/**
+ * Records edits of one tab into its {@link EditJournal}. The journal holds
+ * only unsaved work: it starts with a checkpoint at the first edit after the
+ * tab was opened or saved, and it is deleted when the tab is saved or
+ * closed. Changes made while the tab isn't editable, as when a file is
+ * loaded, followed or reloaded, come from the file itself, so they delete the
+ * journal as well. A new checkpoint is taken once the recorded edits are
+ * larger than the text, so a replay never takes much longer than reading the
+ * text.
+ * @author Luka Kraljević
+ *
+ */
+class TabJournal implements DocumentListener {
+
+    /**
+     * Number of bytes of recorded edits which is always allowed before a new
+     * checkpoint is taken.
+     */
+    private static final long CHECKPOINT_BYTES = 4L * 1024 * 1024;
+
+    /**
+     * Editor which shows the tab.
+     */
+    private final JNotepadPP notepad;
+
+    /**
+     * Text area of the tab.
+     */
+    private final JTextArea editor;
+
+    /**
+     * Journal of the tab.
+     */
+    private final EditJournal.Log log;
+
+    /**
+     * Document whose edits are recorded.
+     */
+    private Document doc;
+
+    /**
+     * Flag which indicates that the journal has a checkpoint.
+     */
+    private boolean checkpointed;
+
+    /**
+     * Estimated number of bytes of edits recorded since the checkpoint.
+     */
+    private long recorded;
+
+    /**
+     * Starts recording edits of given tab.
+     * @param notepad editor which shows the tab
+     * @param editor text area of the tab
+     * @param log journal of the tab
+     */
+    TabJournal(JNotepadPP notepad, JTextArea editor, EditJournal.Log log) {
+        this.notepad = notepad;
+        this.editor = editor;
+        this.log = log;
+        this.doc = editor.getDocument();
+        doc.addDocumentListener(this);
+        editor.addPropertyChangeListener("document", e -> {
+            doc.removeDocumentListener(this);
+            doc = editor.getDocument();
+            doc.addDocumentListener(this);
+            if (checkpointed && !TabState.of(editor).isHibernated()) {
+                checkpoint();
+            }
+        });
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        if (!journaled()) {
+            return;
+        }
+        try {
+            String text = doc.getText(e.getOffset(), e.getLength());
+            log.inserted(e.getOffset(), text);
+            recorded += 16 + 3L * text.length();
+        } catch (BadLocationException ex) {
+            ex.printStackTrace();
+        }
+        checkpointIfLong();
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        if (!journaled()) {
+            return;
+        }
+        log.removed(e.getOffset(), e.getLength());
+        recorded += 16;
+        checkpointIfLong();
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Writes the whole text of the tab as a new checkpoint, as for a tab
+     * which was recovered and isn't saved yet.
+     */
+    void checkpoint() {
+        int index = notepad.indexOf(editor);
+        String path = index == -1 ? null : notepad.getTabs().getToolTipTextAt(index);
+        log.checkpoint(TextSnapshot.of(doc), path);
+        checkpointed = true;
+        recorded = 0;
+    }
+
+    /**
+     * Deletes the journal because the tab is saved or closed.
+     */
+    void discard() {
+        if (checkpointed) {
+            log.discard();
+            checkpointed = false;
+        }
+    }
+
+    /**
+     * Decides whether the last edit is recorded. The first recorded edit
+     * takes a checkpoint instead, which already contains the edit.
+     * @return true if the edit still has to be recorded
+     */
+    private boolean journaled() {
+        TabState state = TabState.of(editor);
+        if (!editor.isEditable() || state.isLoading() || state.isFollowing()) {
+            discard();
+            return false;
+        }
+        if (!checkpointed) {
+            checkpoint();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Takes a new checkpoint if the edits recorded since the last one are
+     * larger than the text.
+     */
+    private void checkpointIfLong() {
+        if (recorded > Math.max(CHECKPOINT_BYTES, 2L * doc.getLength())) {
+            checkpoint();
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package hr.fer.zemris.java.hw11.jnotepadpp;
+
+import javax.swing.JTextArea;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.io.DocumentFingerprint;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileFormat;
+import hr.fer.zemris.java.hw11.jnotepadpp.io.FileMonitor;
+
+/**
+ * State of one tab which is not kept by tab's Swing components. It is stored
+ * as a client property of tab's text area, so it survives replacing the
+ * document shown in the text area.
+ * @author Luka Kraljević
+ *
+ */
+public class TabState {
+
+    /**
+     * Loader which is currently filling the tab or null if the tab is loaded.
+     */
+    private DocumentLoader loader;
+
+    /**
+     * Length of the document seen the last time caret or loader reported it.
+     */
+    private int knownLength;
+
+    /**
+     * Format of the file the document is read from and saved to.
+     */
+    private FileFormat format = FileFormat.DEFAULT;
+
+    /**
+     * Follower which appends to the tab what is appended to its file, or null
+     * if the file is not followed.
+     */
+    private FileFollower follower;
+
+    /**
+     * Monitor which notices external changes of the tab's file, or null if
+     * the file isn't monitored.
+     */
+    private FileMonitor monitor;
+
+    /**
+     * Flag which indicates that the tab's document is stored in a piece
+     * table instead of compact storage.
+     */
+    private boolean pieceTable;
+
+    /**
+     * Recorder of the tab's unsaved edits, or null if edits aren't recorded.
+     */
+    private TabJournal journal;
+
+    /**
+     * Fingerprint of the text last read from or written to the tab's file,
+     * or {@link DocumentFingerprint#NONE} if it isn't known.
+     */
+    private long savedFingerprint = DocumentFingerprint.NONE;
+
+    /**
+     * Compressed text of the tab while its document is hibernated, otherwise
+     * null.
+     */
+    private MemoryManager.Hibernated hibernated;
+
+    /**
+     * Number of the last selection of the tab, larger for tabs selected
+     * later.
+     */
+    private long lastSelected;
+
+    /**
+     * Returns state of the tab which shows given text area, creating it if it
+     * doesn't exist yet.
+     * @param editor text area of the tab
+     * @return state of the tab
+     */
+    public static TabState of(JTextArea editor) {
+        TabState state = (TabState) editor.getClientProperty(TabState.class);
+        if (state == null) {
+            state = new TabState();
+            editor.putClientProperty(TabState.class, state);
+        }
+        return state;
+    }
+
+    /**
+     * Checks if the document of the tab is still being loaded.
+     * @return true if the tab is being loaded
+     */
+    public boolean isLoading() {
+        return loader != null;
+    }
+
+    /**
+     * Cancels loading of the tab, if it is being loaded.
+     * @return true if loading was cancelled
+     */
+    public boolean cancelLoading() {
+        return loader != null && loader.cancel(true);
+    }
+
+    /**
+     * @param loader
+     *            the loader to set, or null when loading is finished
+     */
+    public void setLoader(DocumentLoader loader) {
+        this.loader = loader;
+    }
+
+    /**
+     * Checks if the tab follows its growing file.
+     * @return true if the tab is followed
+     */
+    public boolean isFollowing() {
+        return follower != null;
+    }
+
+    /**
+     * @return the follower, or null if the file is not followed
+     */
+    public FileFollower getFollower() {
+        return follower;
+    }
+
+    /**
+     * @param follower
+     *            the follower to set, or null when following is stopped
+     */
+    public void setFollower(FileFollower follower) {
+        this.follower = follower;
+    }
+
+    /**
+     * @return the monitor, or null if the file isn't monitored
+     */
+    public FileMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @param monitor
+     *            the monitor to set
+     */
+    public void setMonitor(FileMonitor monitor) {
+        this.monitor = monitor;
+    }
+
+    /**
+     * @return true if the document is stored in a piece table
+     */
+    public boolean isPieceTable() {
+        return pieceTable;
+    }
+
+    /**
+     * @param pieceTable
+     *            true if the document should be stored in a piece table
+     */
+    public void setPieceTable(boolean pieceTable) {
+        this.pieceTable = pieceTable;
+    }
+
+    /**
+     * @return the journal, or null if edits of the tab aren't recorded
+     */
+    public TabJournal getJournal() {
+        return journal;
+    }
+
+    /**
+     * @param journal the journal to set
+     */
+    public void setJournal(TabJournal journal) {
+        this.journal = journal;
+    }
+
+    /**
+     * @return the savedFingerprint
+     */
+    public long getSavedFingerprint() {
+        return savedFingerprint;
+    }
+
+    /**
+     * @param savedFingerprint the savedFingerprint to set
+     */
+    public void setSavedFingerprint(long savedFingerprint) {
+        this.savedFingerprint = savedFingerprint;
+    }
+
+    /**
+     * @return true if the tab's document is hibernated
+     */
+    public boolean isHibernated() {
+        return hibernated != null;
+    }
+
+    /**
+     * @return the hibernated text, or null if the tab isn't hibernated
+     */
+    public MemoryManager.Hibernated getHibernated() {
+        return hibernated;
+    }
+
+    /**
+     * @param hibernated the hibernated text to set
+     */
+    public void setHibernated(MemoryManager.Hibernated hibernated) {
+        this.hibernated = hibernated;
+    }
+
+    /**
+     * @return the lastSelected
+     */
+    public long getLastSelected() {
+        return lastSelected;
+    }
+
+    /**
+     * @param lastSelected the lastSelected to set
+     */
+    public void setLastSelected(long lastSelected) {
+        this.lastSelected = lastSelected;
+    }
+
+    /**
+     * @return the knownLength
+     */
+    public int getKnownLength() {
+        return knownLength;
+    }
+
+    /**
+     * @param knownLength
+     *            the knownLength to set
+     */
+    public void setKnownLength(int knownLength) {
+        this.knownLength = knownLength;
+    }
+
+    /**
+     * @return the format
+     */
+    public FileFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @param format
+     *            the format to set
+     */
+    public void setFormat(FileFormat format) {
+        this.format = format;
+    }
+
+}
@@ -0,0 +1,290 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+/**
+ * Remembers which part of a document was changed since the document was last
+ * known to be equal to its file. Changes are described only by the length of
+ * the unchanged prefix and the unchanged suffix, which is enough to write
+ * just the part of the file between them.
+ * <p>
+ * Every save begins a {@link Delta}. Changes made after the delta began are
+ * tracked separately, so when its snapshot is written they become the
+ * changes since the last save.
+ * @author Luka Kraljević
+ *
+ */
+public class ChangeTracker implements DocumentListener {
+
+    /**
+     * Changes since the file was last known to be equal to the document.
+     */
+    private Region base;
+
+    /**
+     * Changes since each of the unfinished deltas began, oldest first.
+     */
+    private final List<Region> epochs = new ArrayList<>();
+
+    /**
+     * Stamp of the file the document is equal to, or null if unknown.
+     */
+    private FileStamp stamp;
+
+    /**
+     * Creates the tracker.
+     * @param stamp stamp of the file which is equal to the document, or null
+     * if there is no such file
+     */
+    private ChangeTracker(FileStamp stamp) {
+        this.stamp = stamp;
+        this.base = stamp == null ? new Region(0, 0) : new Region();
+    }
+
+    /**
+     * Returns tracker of given document, creating one which treats the whole
+     * document as changed if the document isn't tracked yet.
+     * @param doc tracked document
+     * @return tracker of the document
+     */
+    public static ChangeTracker of(Document doc) {
+        Object tracker = doc.getProperty(ChangeTracker.class);
+        if (tracker instanceof ChangeTracker) {
+            return (ChangeTracker) tracker;
+        }
+        return attach(doc, null);
+    }
+
+    /**
+     * Starts tracking given document, which is equal to the file with given
+     * stamp.
+     * @param doc tracked document
+     * @param stamp stamp of the file which is equal to the document, or null
+     * if there is no such file
+     * @return tracker of the document
+     */
+    public static ChangeTracker attach(Document doc, FileStamp stamp) {
+        Object old = doc.getProperty(ChangeTracker.class);
+        if (old instanceof ChangeTracker) {
+            doc.removeDocumentListener((ChangeTracker) old);
+        }
+        ChangeTracker tracker = new ChangeTracker(stamp);
+        doc.addDocumentListener(tracker);
+        doc.putProperty(ChangeTracker.class, tracker);
+        return tracker;
+    }
+
+    /**
+     * Moves tracking from given document to another one with the same text,
+     * which replaces it.
+     * @param from tracked document
+     * @param to document which replaces it
+     */
+    public static void transfer(Document from, Document to) {
+        ChangeTracker tracker = of(from);
+        from.removeDocumentListener(tracker);
+        from.putProperty(ChangeTracker.class, null);
+        to.addDocumentListener(tracker);
+        to.putProperty(ChangeTracker.class, tracker);
+    }
+
+    /**
+     * Begins delta for the snapshot of the document which is being taken.
+     * Must be called on the Event Dispatch Thread, together with taking the
+     * snapshot.
+     * @param length length of the snapshot
+     * @return delta of the snapshot
+     */
+    public synchronized Delta begin(int length) {
+        Region epoch = new Region();
+        epochs.add(epoch);
+        return new Delta(epoch, length);
+    }
+
+    @Override
+    public synchronized void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        int tail = e.getDocument().getLength() - offset - e.getLength();
+        changed(offset, tail);
+    }
+
+    @Override
+    public synchronized void removeUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        changed(offset, e.getDocument().getLength() - offset);
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attributes are not saved
+    }
+
+    /**
+     * Records a change in all regions.
+     * @param offset offset where the change starts
+     * @param tail number of unchanged characters after the change
+     */
+    private void changed(int offset, int tail) {
+        base.changed(offset, tail);
+        for (Region epoch : epochs) {
+            epoch.changed(offset, tail);
+        }
+    }
+
+    /**
+     * Changes of the document between two points in time.
+     * @author Luka Kraljević
+     *
+     */
+    private static class Region {
+
+        /**
+         * Length of the unchanged prefix.
+         */
+        int start;
+
+        /**
+         * Length of the unchanged suffix.
+         */
+        int suffix;
+
+        /**
+         * Creates region without changes.
+         */
+        Region() {
+            this(Integer.MAX_VALUE, Integer.MAX_VALUE);
+        }
+
+        /**
+         * Creates region with given unchanged prefix and suffix.
+         * @param start length of the unchanged prefix
+         * @param suffix length of the unchanged suffix
+         */
+        Region(int start, int suffix) {
+            this.start = start;
+            this.suffix = suffix;
+        }
+
+        /**
+         * Records a change.
+         * @param offset offset where the change starts
+         * @param tail number of unchanged characters after the change
+         */
+        void changed(int offset, int tail) {
+            start = Math.min(start, offset);
+            suffix = Math.min(suffix, tail);
+        }
+    }
+
+    /**
+     * Changes which have to be written to bring the file up to date with one
+     * snapshot of the document. The changes are resolved only when the
+     * snapshot is being written, because an older snapshot of the same file
+     * may be written in the meantime.
+     * @author Luka Kraljević
+     *
+     */
+    public class Delta {
+
+        /**
+         * Changes made after this delta began.
+         */
+        private final Region epoch;
+
+        /**
+         * Length of the snapshot.
+         */
+        private final int length;
+
+        /**
+         * Resolved length of the unchanged prefix.
+         */
+        private int start;
+
+        /**
+         * Resolved length of the unchanged suffix.
+         */
+        private int suffix;
+
+        /**
+         * Resolved stamp of the file the changes apply to.
+         */
+        private FileStamp stamp;
+
+        /**
+         * Creates the delta.
+         * @param epoch changes made after this delta began
+         * @param length length of the snapshot
+         */
+        private Delta(Region epoch, int length) {
+            this.epoch = epoch;
+            this.length = length;
+        }
+
+        /**
+         * Resolves changes between the file and the snapshot. Changes made
+         * after the snapshot was taken are included too, which only makes
+         * the changed part larger.
+         */
+        void resolve() {
+            synchronized (ChangeTracker.this) {
+                start = Math.min(base.start, length);
+                suffix = Math.min(base.suffix, length - start);
+                stamp = ChangeTracker.this.stamp;
+            }
+        }
+
+        /**
+         * Called when the snapshot is written to the file.
+         * @param written stamp of the written file, or null if unknown
+         */
+        void written(FileStamp written) {
+            synchronized (ChangeTracker.this) {
+                int index = epochs.indexOf(epoch);
+                if (index == -1) {
+                    return;
+                }
+                base = epoch;
+                epochs.subList(0, index + 1).clear();
+                ChangeTracker.this.stamp = written;
+            }
+        }
+
+        /**
+         * Called when writing of the snapshot fails. The file may be only
+         * partially written, so it is not trusted anymore.
+         */
+        void failed() {
+            synchronized (ChangeTracker.this) {
+                epochs.remove(epoch);
+                ChangeTracker.this.stamp = null;
+            }
+        }
+
+        /**
+         * @return the resolved length of the unchanged prefix
+         */
+        int getStart() {
+            return start;
+        }
+
+        /**
+         * @return the resolved length of the unchanged suffix
+         */
+        int getSuffix() {
+            return suffix;
+        }
+
+        /**
+         * @return the resolved stamp of the file
+         */
+        FileStamp getStamp() {
+            return stamp;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Guesses charset of a file from a sample of its first bytes. Byte order
+ * marks are recognized first. Without them, the sample is checked for valid
+ * UTF-8 and for the zero bytes of UTF-16. Everything else is taken as one of
+ * the single-byte charsets used by Croatian and German users, chosen by the
+ * letters its high bytes decode into.
+ * @author Luka Kraljević
+ *
+ */
+public class CharsetDetector {
+
+    /**
+     * Maximum number of bytes of the sample.
+     */
+    private static final int SAMPLE_SIZE = 4 << 20;
+
+    /**
+     * Letters which are common in texts of our users. A single-byte charset
+     * gets a point for every high byte it decodes into one of them.
+     */
+    private static final String COMMON_LETTERS =
+            "čćđšžČĆĐŠŽäöüßÄÖÜáàâçéèêëíîïñóôúùûÁÀÂÇÉÈÊÍÓÔÚ";
+
+    /**
+     * Single-byte charsets which are considered, in order of preference when
+     * they get the same score.
+     */
+    private static final Charset[] SINGLE_BYTE = {
+            Charset.forName("windows-1250"),
+            Charset.forName("windows-1252"),
+            Charset.forName("ISO-8859-2")
+    };
+
+    /**
+     * Utility class, no instances.
+     */
+    private CharsetDetector() {
+    }
+
+    /**
+     * Detects format of the file on given path.
+     * @param path path of the file
+     * @param compression compression of the file
+     * @return format of the file
+     * @throws IOException if the file can't be read
+     */
+    public static FileFormat detect(Path path, Compression compression) throws IOException {
+        byte[] sample = new byte[SAMPLE_SIZE];
+        int length = 0;
+        try (InputStream in = compression.decompress(Files.newInputStream(path))) {
+            int read;
+            while (length < sample.length
+                    && (read = in.read(sample, length, sample.length - length)) != -1) {
+                length += read;
+            }
+        }
+        return detect(sample, length, length < sample.length, compression);
+    }
+
+    /**
+     * Detects format of a file from given sample.
+     * @param sample bytes from the beginning of the file
+     * @param length number of bytes in the sample
+     * @param whole true if the sample contains the whole file
+     * @param compression compression of the file
+     * @return format of the file
+     */
+    static FileFormat detect(byte[] sample, int length, boolean whole, Compression compression) {
+        Charset bom = fromBom(sample, length);
+        if (bom != null) {
+            return new FileFormat(bom, compression, true);
+        }
+
+        if (isUtf8(sample, length, whole)) {
+            return new FileFormat(StandardCharsets.UTF_8, compression, false);
+        }
+
+        Charset utf16 = fromZeros(sample, length);
+        if (utf16 != null) {
+            return new FileFormat(utf16, compression, false);
+        }
+
+        Charset best = SINGLE_BYTE[0];
+        int bestScore = Integer.MIN_VALUE;
+        for (Charset charset : SINGLE_BYTE) {
+            int score = score(sample, length, charset);
+            if (score > bestScore) {
+                best = charset;
+                bestScore = score;
+            }
+        }
+        return new FileFormat(best, compression, false);
+    }
+
+    /**
+     * Recognizes charset from the byte order mark.
+     * @param sample bytes from the beginning of the file
+     * @param length number of bytes in the sample
+     * @return charset of the byte order mark or null if there is no mark
+     */
+    private static Charset fromBom(byte[] sample, int length) {
+        if (startsWith(sample, length, 0xEF, 0xBB, 0xBF)) {
+            return StandardCharsets.UTF_8;
+        }
+        if (startsWith(sample, length, 0x00, 0x00, 0xFE, 0xFF)) {
+            return Charset.forName("UTF-32BE");
+        }
+        if (startsWith(sample, length, 0xFF, 0xFE, 0x00, 0x00)) {
+            return Charset.forName("UTF-32LE");
+        }
+        if (startsWith(sample, length, 0xFE, 0xFF)) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (startsWith(sample, length, 0xFF, 0xFE)) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    /**
+     * Checks if the sample starts with given bytes.
+     * @param sample bytes from the beginning of the file
+     * @param length number of bytes in the sample
+     * @param prefix expected bytes
+     * @return true if the sample starts with the expected bytes
+     */
+    private static boolean startsWith(byte[] sample, int length, int... prefix) {
+        if (length < prefix.length) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if ((sample[i] & 0xFF) != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks if the sample is valid UTF-8. A sequence cut off by the end of
+     * the sample is accepted if the sample is not the whole file.
+     * @param sample bytes from the beginning of the file
+     * @param length number of bytes in the sample
+     * @param whole true if the sample contains the whole file
+     * @return true if the sample is valid UTF-8
+     */
+    private static boolean isUtf8(byte[] sample, int length, boolean whole) {
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        ByteBuffer in = ByteBuffer.wrap(sample, 0, length);
+        CharBuffer out = CharBuffer.allocate(1 << 16);
+        while (true) {
+            out.clear();
+            if (decoder.decode(in, out, whole).isError()) {
+                return false;
+            }
+            if (!in.hasRemaining()) {
+                return true;
+            }
+            if (out.position() == 0) {
+                return !whole && in.remaining() < 4;
+            }
+        }
+    }
+
+    /**
+     * Recognizes UTF-16 without byte order mark by zero bytes, which are
+     * frequent in either even or odd positions of texts in Latin scripts.
+     * @param sample bytes from the beginning of the file
+     * @param length number of bytes in the sample
+     * @return recognized charset or null
+     */
+    private static Charset fromZeros(byte[] sample, int length) {
+        int even = 0;
+        int odd = 0;
+        for (int i = 0; i + 1 < length; i += 2) {
+            if (sample[i] == 0) {
+                even++;
+            }
+            if (sample[i + 1] == 0) {
+                odd++;
+            }
+        }
+        int pairs = length / 2;
+        if (pairs == 0) {
+            return null;
+        }
+        if (even * 10 > pairs * 3 && odd * 20 < pairs) {
+            return StandardCharsets.UTF_16BE;
+        }
+        if (odd * 10 > pairs * 3 && even * 20 < pairs) {
+            return StandardCharsets.UTF_16LE;
+        }
+        return null;
+    }
+
+    /**
+     * Scores given single-byte charset on the sample. High bytes which decode
+     * into common letters add a point, while control characters and bytes
+     * the charset doesn't define are heavily penalized.
+     * @param sample bytes from the beginning of the file
+     * @param length number of bytes in the sample
+     * @param charset scored charset
+     * @return score of the charset
+     */
+    private static int score(byte[] sample, int length, Charset charset) {
+        int[] points = new int[128];
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPORT)
+                .onUnmappableCharacter(CodingErrorAction.REPORT);
+        for (int b = 0; b < 128; b++) {
+            char c;
+            try {
+                c = decoder.decode(ByteBuffer.wrap(new byte[] { (byte) (b + 128) })).get();
+            } catch (CharacterCodingException ex) {
+                points[b] = -5;
+                continue;
+            }
+            if (Character.isISOControl(c)) {
+                points[b] = -5;
+            } else if (COMMON_LETTERS.indexOf(c) != -1) {
+                points[b] = 1;
+            }
+        }
+
+        int score = 0;
+        for (int i = 0; i < length; i++) {
+            if (sample[i] < 0) {
+                score += points[sample[i] + 128];
+            }
+        }
+        return score;
+    }
+}
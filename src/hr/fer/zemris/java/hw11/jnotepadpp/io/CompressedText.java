@@ -0,0 +1,181 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Text of a document compressed with {@link Deflater}, kept on the heap or
+ * spilled to a temporary file. Every character is stored as two bytes before
+ * it is compressed, so any text, including unpaired surrogates, is restored
+ * exactly. Methods may be called from any thread.
+ * @author Luka Kraljević
+ *
+ */
+public class CompressedText {
+
+    /**
+     * Number of characters compressed or restored at once.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Number of characters of the text.
+     */
+    private final int length;
+
+    /**
+     * Compressed text while it is on the heap, otherwise null.
+     */
+    private byte[] data;
+
+    /**
+     * File with the compressed text once it is spilled, otherwise null.
+     */
+    private Path file;
+
+    /**
+     * Creates the text from its compressed form.
+     * @param length number of characters of the text
+     * @param data compressed text
+     */
+    private CompressedText(int length, byte[] data) {
+        this.length = length;
+        this.data = data;
+    }
+
+    /**
+     * Compresses given text.
+     * @param text text to be compressed, it must not change
+     * @return compressed text
+     * @throws BadLocationException if the text can't be read
+     */
+    public static CompressedText compress(TextSource text) throws BadLocationException {
+        int length = text.length();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(64, length / 4));
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        byte[] buffer = new byte[2 * CHUNK_SIZE];
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(bytes, deflater, buffer.length)) {
+            int pos = 0;
+            while (pos < length) {
+                text.getText(pos, Math.min(CHUNK_SIZE, length - pos), segment);
+                char[] array = segment.array;
+                int n = 0;
+                for (int i = segment.offset, last = i + segment.count; i < last; i++) {
+                    buffer[n++] = (byte) (array[i] >>> 8);
+                    buffer[n++] = (byte) array[i];
+                }
+                out.write(buffer, 0, n);
+                pos += segment.count;
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        } finally {
+            deflater.end();
+        }
+        return new CompressedText(length, bytes.toByteArray());
+    }
+
+    /**
+     * @return number of characters of the text
+     */
+    public int length() {
+        return length;
+    }
+
+    /**
+     * @return number of heap bytes taken by the compressed text, 0 once it
+     * is spilled
+     */
+    public synchronized long getHeapSize() {
+        return data == null ? 0 : data.length;
+    }
+
+    /**
+     * @return true if the compressed text is in a temporary file
+     */
+    public synchronized boolean isSpilled() {
+        return file != null;
+    }
+
+    /**
+     * Moves the compressed text from the heap to a temporary file, which is
+     * deleted once the text is disposed or the program exits.
+     * @throws IOException if the file can't be written
+     */
+    public synchronized void spill() throws IOException {
+        if (data == null) {
+            return;
+        }
+        Path temp = Files.createTempFile("jnotepadpp-", ".tab");
+        temp.toFile().deleteOnExit();
+        try {
+            Files.write(temp, data);
+        } catch (IOException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+        file = temp;
+        data = null;
+    }
+
+    /**
+     * Appends the text to the end of given document.
+     * @param doc document which receives the text
+     * @throws IOException if the spilled text can't be read
+     * @throws BadLocationException if the document can't be changed
+     */
+    public synchronized void restore(Document doc) throws IOException, BadLocationException {
+        InputStream source = data != null
+                ? new ByteArrayInputStream(data)
+                : Files.newInputStream(file);
+        try (InputStream in = new InflaterInputStream(source)) {
+            byte[] buffer = new byte[2 * CHUNK_SIZE];
+            char[] chars = new char[CHUNK_SIZE];
+            int filled = 0;
+            int read;
+            while ((read = in.read(buffer, filled, buffer.length - filled)) != -1) {
+                filled += read;
+                int n = filled / 2;
+                for (int i = 0; i < n; i++) {
+                    chars[i] = (char) ((buffer[2 * i] & 0xff) << 8 | buffer[2 * i + 1] & 0xff);
+                }
+                if (n > 0) {
+                    doc.insertString(doc.getLength(), new String(chars, 0, n), null);
+                }
+                if ((filled & 1) != 0) {
+                    buffer[0] = buffer[filled - 1];
+                }
+                filled &= 1;
+            }
+        }
+    }
+
+    /**
+     * Forgets the text, deleting its temporary file.
+     */
+    public synchronized void dispose() {
+        data = null;
+        if (file != null) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            file = null;
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.DataFormatException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of a file, recognized by the magic bytes at its beginning.
+ * Compressed files are read and written as streams with buffers of fixed
+ * size, so they are never decompressed into a temporary copy.
+ * @author Luka Kraljević
+ *
+ */
+public enum Compression {
+
+    /**
+     * File is not compressed.
+     */
+    NONE,
+
+    /**
+     * File is compressed with gzip.
+     */
+    GZIP,
+
+    /**
+     * File is a zlib stream of deflated data.
+     */
+    DEFLATE;
+
+    /**
+     * Size of the buffers used while compressing and decompressing.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of bytes from the beginning of the file used for recognition.
+     */
+    private static final int SAMPLE_SIZE = 1 << 12;
+
+    /**
+     * Recognizes compression of the file on given path. Zlib header is only
+     * two bytes long and some plain texts start with a valid one, so the
+     * beginning of the file must also inflate without errors.
+     * @param path path of the file
+     * @return compression of the file
+     * @throws IOException if the file can't be read
+     */
+    public static Compression detect(Path path) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (sample.hasRemaining() && channel.read(sample) != -1) {
+                // read until the sample is full or the file ends
+            }
+        }
+        if (sample.position() < 3) {
+            return NONE;
+        }
+
+        int first = sample.get(0) & 0xFF;
+        int second = sample.get(1) & 0xFF;
+        if (first == 0x1F && second == 0x8B && sample.get(2) == 8) {
+            return GZIP;
+        }
+        if ((first & 0x0F) == 8 && (first >> 4) <= 7 && (second & 0x20) == 0
+                && (first << 8 | second) % 31 == 0 && inflates(sample)) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+
+    /**
+     * Checks if given bytes are the beginning of a valid zlib stream.
+     * @param sample bytes from the beginning of the file, filled up to its
+     * position
+     * @return true if the bytes inflate without errors
+     */
+    private static boolean inflates(ByteBuffer sample) {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(sample.array(), 0, sample.position());
+            byte[] out = new byte[SAMPLE_SIZE];
+            while (!inflater.finished() && !inflater.needsInput()) {
+                if (inflater.inflate(out) == 0) {
+                    return !inflater.needsDictionary();
+                }
+            }
+            return true;
+        } catch (DataFormatException ex) {
+            return false;
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Wraps given stream so it decompresses the data read from it.
+     * @param in stream of compressed data
+     * @return stream of decompressed data
+     * @throws IOException if the header of the data is not valid
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+        case GZIP:
+            return new GZIPInputStream(in, BUFFER_SIZE);
+        case DEFLATE:
+            return new InflaterInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+        default:
+            return in;
+        }
+    }
+
+    /**
+     * Wraps given stream so it compresses the data written into it. Closing
+     * the returned stream finishes the compressed data and closes given
+     * stream.
+     * @param out stream which receives compressed data
+     * @return stream which accepts data to be compressed
+     * @throws IOException if the header can't be written
+     */
+    public OutputStream compress(OutputStream out) throws IOException {
+        switch (this) {
+        case GZIP:
+            return new GZIPOutputStream(out, BUFFER_SIZE);
+        case DEFLATE:
+            return new DeflaterOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        default:
+            return out;
+        }
+    }
+}
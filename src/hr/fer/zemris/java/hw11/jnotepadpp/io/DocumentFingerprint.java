@@ -0,0 +1,319 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Fingerprint of a document's text, kept up to date while the document is
+ * edited. The text is a polynomial hash modulo the prime 2<sup>61</sup> - 1
+ * with a base chosen randomly for each run, so two texts get the same
+ * fingerprint only by a negligible chance. The hash of joined texts can be
+ * computed from the hashes of the parts, so the document is split into
+ * blocks whose hashes are remembered. An edit only marks the blocks it
+ * touches, and {@link #get()} rehashes just those blocks before joining the
+ * hashes of all blocks. The fingerprint doesn't depend on where the blocks
+ * are split, so the same text always has the same fingerprint.
+ * @author Luka Kraljević
+ *
+ */
+public class DocumentFingerprint implements DocumentListener {
+
+    /**
+     * Value which is never a fingerprint, used where the fingerprint is
+     * unknown.
+     */
+    public static final long NONE = -1;
+
+    /**
+     * Modulus of the hash.
+     */
+    private static final long MOD = (1L << 61) - 1;
+
+    /**
+     * Base of the hash.
+     */
+    private static final long BASE = 256 + ThreadLocalRandom.current().nextLong(MOD - 512);
+
+    /**
+     * Blocks shorter than this are joined with the following block when
+     * they are rehashed.
+     */
+    private static final int MIN_BLOCK = 4 * 1024;
+
+    /**
+     * Maximum number of characters of a block.
+     */
+    private static final int MAX_BLOCK = 16 * 1024;
+
+    /**
+     * Document whose fingerprint is kept.
+     */
+    private final Document doc;
+
+    /**
+     * Number of characters of each block.
+     */
+    private int[] lengths = new int[16];
+
+    /**
+     * Hash of each block.
+     */
+    private long[] hashes = new long[16];
+
+    /**
+     * Base raised to the length of each block.
+     */
+    private long[] shifts = new long[16];
+
+    /**
+     * Flags of the blocks which have to be rehashed.
+     */
+    private boolean[] dirty = new boolean[16];
+
+    /**
+     * Number of blocks.
+     */
+    private int count;
+
+    /**
+     * Flag which indicates that some block has to be rehashed.
+     */
+    private boolean changed;
+
+    /**
+     * Fingerprint computed by the last {@link #get()}.
+     */
+    private long value;
+
+    /**
+     * Creates the fingerprint of given document.
+     * @param doc document whose fingerprint is kept
+     */
+    private DocumentFingerprint(Document doc) {
+        this.doc = doc;
+        if (doc.getLength() > 0) {
+            lengths[0] = doc.getLength();
+            dirty[0] = true;
+            count = 1;
+            changed = true;
+        }
+    }
+
+    /**
+     * Returns fingerprint of given document, creating one if the document
+     * doesn't have it yet. Creating it is cheap, the text is hashed by the
+     * first {@link #get()}.
+     * @param doc document
+     * @return fingerprint of the document
+     */
+    public static DocumentFingerprint of(Document doc) {
+        DocumentFingerprint fingerprint =
+                (DocumentFingerprint) doc.getProperty(DocumentFingerprint.class);
+        if (fingerprint == null) {
+            fingerprint = new DocumentFingerprint(doc);
+            doc.putProperty(DocumentFingerprint.class, fingerprint);
+            doc.addDocumentListener(fingerprint);
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Returns fingerprint of the current text. Must be called while the
+     * document doesn't change, as on the Event Dispatch Thread.
+     * @return fingerprint of the text
+     */
+    public long get() {
+        if (!changed) {
+            return value;
+        }
+
+        int[] newLengths = new int[Math.max(16, count + 16)];
+        long[] newHashes = new long[newLengths.length];
+        long[] newShifts = new long[newLengths.length];
+        int newCount = 0;
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int start = 0;
+        for (int i = 0; i < count; i++) {
+            int length = lengths[i];
+            if (!dirty[i] || length == 0) {
+                if (length > 0) {
+                    newLengths = ensure(newLengths, newCount);
+                    newHashes = ensure(newHashes, newCount);
+                    newShifts = ensure(newShifts, newCount);
+                    newLengths[newCount] = length;
+                    newHashes[newCount] = hashes[i];
+                    newShifts[newCount] = shifts[i];
+                    newCount++;
+                }
+                start += length;
+                continue;
+            }
+            if (length < MIN_BLOCK && i + 1 < count) {
+                lengths[i + 1] += length;
+                dirty[i + 1] = true;
+                continue;
+            }
+
+            int end = start + length;
+            while (start < end) {
+                int pieceEnd = Math.min(end, start + MAX_BLOCK);
+                if (end - pieceEnd < MIN_BLOCK) {
+                    pieceEnd = end - start > MAX_BLOCK ? start + (end - start) / 2 : end;
+                }
+                long hash = 0;
+                int pos = start;
+                while (pos < pieceEnd) {
+                    try {
+                        doc.getText(pos, pieceEnd - pos, segment);
+                    } catch (BadLocationException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                    char[] array = segment.array;
+                    for (int j = segment.offset, last = j + segment.count; j < last; j++) {
+                        hash = add(mul(hash, BASE), array[j] + 1);
+                    }
+                    pos += segment.count;
+                }
+                newLengths = ensure(newLengths, newCount);
+                newHashes = ensure(newHashes, newCount);
+                newShifts = ensure(newShifts, newCount);
+                newLengths[newCount] = pieceEnd - start;
+                newHashes[newCount] = hash;
+                newShifts[newCount] = pow(pieceEnd - start);
+                newCount++;
+                start = pieceEnd;
+            }
+        }
+
+        lengths = newLengths;
+        hashes = newHashes;
+        shifts = newShifts;
+        dirty = new boolean[newLengths.length];
+        count = newCount;
+        changed = false;
+
+        long result = 0;
+        for (int i = 0; i < count; i++) {
+            result = add(mul(result, shifts[i]), hashes[i]);
+        }
+        value = result;
+        return value;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        int offset = e.getOffset();
+        if (count == 0) {
+            lengths[0] = e.getLength();
+            dirty[0] = true;
+            count = 1;
+            changed = true;
+            return;
+        }
+        int start = 0;
+        int i = 0;
+        while (i < count - 1 && offset > start + lengths[i]) {
+            start += lengths[i];
+            i++;
+        }
+        lengths[i] += e.getLength();
+        dirty[i] = true;
+        changed = true;
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        int from = e.getOffset();
+        int to = from + e.getLength();
+        int start = 0;
+        for (int i = 0; i < count && start < to; i++) {
+            int end = start + lengths[i];
+            int overlap = Math.min(to, end) - Math.max(from, start);
+            if (overlap > 0) {
+                lengths[i] -= overlap;
+                dirty[i] = true;
+                changed = true;
+            }
+            start = end;
+        }
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+    }
+
+    /**
+     * Makes sure an array has room for given index.
+     * @param array array
+     * @param index index which has to fit
+     * @return given array or its larger copy
+     */
+    private static int[] ensure(int[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * Makes sure an array has room for given index.
+     * @param array array
+     * @param index index which has to fit
+     * @return given array or its larger copy
+     */
+    private static long[] ensure(long[] array, int index) {
+        return index < array.length ? array : Arrays.copyOf(array, array.length * 2);
+    }
+
+    /**
+     * Raises the base to given power.
+     * @param exponent exponent
+     * @return base to the power of the exponent
+     */
+    private static long pow(int exponent) {
+        long result = 1;
+        long square = BASE;
+        while (exponent > 0) {
+            if ((exponent & 1) != 0) {
+                result = mul(result, square);
+            }
+            square = mul(square, square);
+            exponent >>>= 1;
+        }
+        return result;
+    }
+
+    /**
+     * Adds two numbers modulo {@link #MOD}.
+     * @param a number smaller than the modulus
+     * @param b number smaller than the modulus
+     * @return sum modulo the modulus
+     */
+    private static long add(long a, long b) {
+        long sum = a + b;
+        return sum >= MOD ? sum - MOD : sum;
+    }
+
+    /**
+     * Multiplies two numbers modulo {@link #MOD}, splitting them into halves
+     * so the product doesn't overflow.
+     * @param a number smaller than the modulus
+     * @param b number smaller than the modulus
+     * @return product modulo the modulus
+     */
+    private static long mul(long a, long b) {
+        long aHigh = a >>> 31;
+        long aLow = a & 0x7fffffffL;
+        long bHigh = b >>> 31;
+        long bLow = b & 0x7fffffffL;
+        long middle = aLow * bHigh + aHigh * bLow;
+        long product = (aHigh * bHigh << 1) + (middle >>> 30)
+                + ((middle & 0x3fffffffL) << 31) + aLow * bLow;
+        long reduced = (product & MOD) + (product >>> 61);
+        return reduced >= MOD ? reduced - MOD : reduced;
+    }
+}
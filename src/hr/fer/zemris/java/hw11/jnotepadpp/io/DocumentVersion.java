@@ -0,0 +1,66 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.Document;
+
+/**
+ * Counts changes of a document. Work done on a snapshot of the document can
+ * compare the version of the snapshot with the current one and discard its
+ * result if the document changed in the meantime.
+ * @author Luka Kraljević
+ *
+ */
+public class DocumentVersion implements DocumentListener {
+
+    /**
+     * Number of changes so far.
+     */
+    private volatile long version;
+
+    /**
+     * Creates the counter.
+     */
+    private DocumentVersion() {
+    }
+
+    /**
+     * Returns counter of given document, creating one if the document isn't
+     * counted yet.
+     * @param doc counted document
+     * @return counter of the document
+     */
+    public static DocumentVersion of(Document doc) {
+        Object counter = doc.getProperty(DocumentVersion.class);
+        if (counter instanceof DocumentVersion) {
+            return (DocumentVersion) counter;
+        }
+        DocumentVersion created = new DocumentVersion();
+        doc.addDocumentListener(created);
+        doc.putProperty(DocumentVersion.class, created);
+        return created;
+    }
+
+    /**
+     * Returns current version, which may be read from any thread.
+     * @return number of changes so far
+     */
+    public long get() {
+        return version;
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e) {
+        version++;
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e) {
+        version++;
+    }
+
+    @Override
+    public void changedUpdate(DocumentEvent e) {
+        // attributes are not part of the text
+    }
+}
@@ -0,0 +1,593 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Writes documents to disk with constant memory overhead. Text is read from
+ * the document, or from its snapshot, segment by segment, encoded into a few
+ * reusable buffers and written with gathering writes into a temporary file
+ * next to the target. Compressed files get the encoded bytes through a
+ * compressing stream.
+ * The temporary file then atomically replaces the target, so a failure in
+ * the middle of writing never leaves a truncated file behind.
+ * <p>
+ * Large files whose changes are known from a {@link ChangeTracker.Delta} are
+ * instead updated in place: same-length changes are patched and other changes
+ * are written from the first changed byte to the end of the file.
+ * @author Luka Kraljević
+ *
+ */
+public class DocumentWriter {
+
+    /**
+     * Number of characters encoded at once.
+     */
+    private static final int CHAR_BUFFER_SIZE = 1 << 15;
+
+    /**
+     * Size of each output buffer in bytes.
+     */
+    private static final int BYTE_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of output buffers written with one gathering write.
+     */
+    private static final int BUFFER_COUNT = 4;
+
+    /**
+     * Files smaller than this are always written as a whole.
+     */
+    public static final long DELTA_THRESHOLD = 1L << 20;
+
+    /**
+     * Character the decoder replaces malformed and unmappable input with.
+     */
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * Reusable buffer for characters waiting to be encoded.
+     */
+    private final CharBuffer chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+
+    /**
+     * Reusable output buffers.
+     */
+    private final ByteBuffer[] buffers = new ByteBuffer[BUFFER_COUNT];
+
+    /**
+     * Index of the output buffer which is being filled.
+     */
+    private int current;
+
+    /**
+     * Creates the writer and its buffers.
+     */
+    public DocumentWriter() {
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            buffers[i] = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+        }
+    }
+
+    /**
+     * Writes whole document to given file. The document must not be changed
+     * while it is being written, so this should be called on the Event
+     * Dispatch Thread.
+     * @param doc document to be written
+     * @param target file the document is written to
+     * @param charset charset used for encoding
+     * @throws IOException if writing fails, in which case the target is left
+     * untouched
+     */
+    public void write(Document doc, Path target, Charset charset) throws IOException {
+        write(TextSource.of(doc), target, charset);
+    }
+
+    /**
+     * Writes given text to given file.
+     * @param text text to be written, it must not change while it is written
+     * @param target file the text is written to
+     * @param charset charset used for encoding
+     * @throws IOException if writing fails, in which case the target is left
+     * untouched
+     */
+    public void write(TextSource text, Path target, Charset charset) throws IOException {
+        write(text, target, new FileFormat(charset, Compression.NONE), null);
+    }
+
+    /**
+     * Writes given text to given file, writing only its changed part if the
+     * file is large enough, not compressed and known to be unchanged since
+     * the changes began. The delta is notified whether the text was written.
+     * @param text text to be written, it must not change while it is written
+     * @param target file the text is written to
+     * @param format charset and compression of the file
+     * @param delta changes of the text since the file was written, or null if
+     * they are unknown
+     * @throws IOException if writing fails
+     */
+    public void write(TextSource text, Path target, FileFormat format, ChangeTracker.Delta delta)
+            throws IOException {
+        try {
+            if (delta == null || format.getCompression() != Compression.NONE
+                    || !writeDelta(text, target, format, delta)) {
+                writeFull(target, format, channel -> encode(text, 0, text.length(), channel,
+                        format.getCharset(), format.hasBom()));
+            }
+        } catch (IOException | RuntimeException ex) {
+            if (delta != null) {
+                delta.failed();
+            }
+            throw ex;
+        }
+
+        if (delta != null) {
+            FileStamp stamp;
+            try {
+                stamp = FileStamp.of(target);
+            } catch (IOException ex) {
+                stamp = null;
+            }
+            delta.written(stamp);
+        }
+    }
+
+    /**
+     * Writes all text read from given reader to given file. Text is encoded
+     * as it is read, so it is never held in memory as a whole.
+     * @param text reader of the text to be written
+     * @param target file the text is written to
+     * @param format charset, byte order mark and compression of the file
+     * @throws IOException if reading or writing fails, in which case the
+     * target is left untouched
+     */
+    public void write(Reader text, Path target, FileFormat format) throws IOException {
+        writeFull(target, format,
+                channel -> encode(text, channel, format.getCharset(), format.hasBom()));
+    }
+
+    /**
+     * Writes whole text into a temporary file which then replaces the target.
+     * @param target file the text is written to
+     * @param format format of the file
+     * @param encoding writes encoded text into the channel it is given
+     * @throws IOException if writing fails, in which case the target is left
+     * untouched
+     */
+    private void writeFull(Path target, FileFormat format, Encoding encoding) throws IOException {
+        if (Files.isSymbolicLink(target)) {
+            target = target.toRealPath();
+        }
+        Path dir = target.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(dir, "." + target.getFileName(), ".tmp");
+
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                if (format.getCompression() == Compression.NONE) {
+                    encoding.encode(channel);
+                } else {
+                    try (OutputStream out = format.getCompression().compress(
+                            new ChannelOutputStream(channel))) {
+                        encoding.encode(Channels.newChannel(out));
+                    }
+                }
+                channel.force(false);
+            }
+            copyPermissions(target, temp);
+            replace(temp, target);
+        } catch (IOException | RuntimeException ex) {
+            Files.deleteIfExists(temp);
+            throw ex;
+        }
+    }
+
+    /**
+     * Writes only the changed part of given text into the file, if possible.
+     * When the changed part encodes into the same number of bytes as before,
+     * it is patched in place. Otherwise everything from the first changed byte
+     * on is rewritten and the file is truncated. Nothing is written if that
+     * would rewrite most of the file anyway, since a full write is atomic.
+     * @param text text to be written
+     * @param target file the text is written to
+     * @param format charset and byte order mark of the file
+     * @param delta changes of the text since the file was written
+     * @return true if the file was updated, false if it has to be written as a
+     * whole
+     * @throws IOException if writing fails
+     */
+    private boolean writeDelta(TextSource text, Path target, FileFormat format,
+            ChangeTracker.Delta delta) throws IOException {
+        Charset charset = format.getCharset();
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        if (!utf8 && charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+
+        delta.resolve();
+        FileStamp stamp = delta.getStamp();
+        if (stamp == null || stamp.getSize() < DELTA_THRESHOLD) {
+            return false;
+        }
+        try {
+            if (!stamp.equals(FileStamp.of(target))) {
+                return false;
+            }
+        } catch (IOException ex) {
+            return false;
+        }
+
+        int length = text.length();
+        int start = delta.getStart();
+        int end = length - delta.getSuffix();
+        if (start > 0 && Character.isHighSurrogate(charAt(text, start - 1))) {
+            start--;
+        }
+        if (end < length && end > start && Character.isLowSurrogate(charAt(text, end))) {
+            end++;
+        }
+
+        // the unchanged parts are in the file only if they were decoded losslessly
+        long prefix = encodedLength(text, 0, start, utf8, true);
+        long suffix = encodedLength(text, end, length, utf8, true);
+        if (prefix < 0 || suffix < 0) {
+            return false;
+        }
+        prefix += format.getBomLength();
+        long oldMiddle = stamp.getSize() - prefix - suffix;
+        if (oldMiddle < 0) {
+            return false;
+        }
+        long newMiddle = encodedLength(text, start, end, utf8, false);
+
+        boolean patch = newMiddle == oldMiddle;
+        long written = patch ? newMiddle : newMiddle + suffix;
+        if (written > stamp.getSize() / 2) {
+            return false;
+        }
+
+        try (FileChannel channel = FileChannel.open(stamp.getPath(), StandardOpenOption.WRITE)) {
+            channel.position(prefix);
+            encode(text, start, patch ? end : length, channel, charset, false);
+            if (!patch) {
+                channel.truncate(prefix + written);
+            }
+            channel.force(false);
+        }
+        return true;
+    }
+
+    /**
+     * Counts bytes given part of the text is encoded into. Only UTF-8 and
+     * charsets with one byte per character are supported. Unpaired surrogates
+     * are counted as one replacement byte, same as the encoder writes them.
+     * <p>
+     * Text which is already in the file is measured only if it contains no
+     * replacement characters. Those are what the decoder reads malformed or
+     * unmappable bytes as, so the text may then encode into a different
+     * number of bytes than it was read from.
+     * @param text text to be measured
+     * @param from offset of the first character
+     * @param to offset after the last character
+     * @param utf8 true for UTF-8, false for a single-byte charset
+     * @param decoded true if the text was decoded from the file
+     * @return number of encoded bytes, or -1 if decoded text contains a
+     * replacement character
+     * @throws IOException if the text can't be read
+     */
+    private static long encodedLength(TextSource text, int from, int to, boolean utf8,
+            boolean decoded) throws IOException {
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        long bytes = 0;
+        boolean high = false;
+
+        for (int pos = from; pos < to; pos += segment.count) {
+            try {
+                text.getText(pos, to - pos, segment);
+            } catch (BadLocationException ex) {
+                throw new IOException("Document changed while it was being saved.", ex);
+            }
+            for (int i = segment.offset, end = segment.offset + segment.count; i < end; i++) {
+                char c = segment.array[i];
+                if (decoded && c == REPLACEMENT) {
+                    return -1;
+                }
+                if (high) {
+                    high = false;
+                    if (Character.isLowSurrogate(c)) {
+                        bytes += utf8 ? 3 : 0;
+                        continue;
+                    }
+                }
+                if (Character.isHighSurrogate(c)) {
+                    high = true;
+                    bytes++;
+                } else if (!utf8 || c < 0x80 || Character.isLowSurrogate(c)) {
+                    bytes++;
+                } else if (c < 0x800) {
+                    bytes += 2;
+                } else {
+                    bytes += 3;
+                }
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns one character of the text.
+     * @param text text to be read
+     * @param offset offset of the character
+     * @return the character
+     * @throws IOException if the text can't be read
+     */
+    private static char charAt(TextSource text, int offset) throws IOException {
+        Segment segment = new Segment();
+        try {
+            text.getText(offset, 1, segment);
+        } catch (BadLocationException ex) {
+            throw new IOException("Document changed while it was being saved.", ex);
+        }
+        return segment.array[segment.offset];
+    }
+
+    /**
+     * Encodes given part of the text into given channel, starting at the
+     * channel's current position.
+     * @param text text to be encoded
+     * @param from offset of the first character
+     * @param to offset after the last character
+     * @param channel channel the bytes are written to
+     * @param charset charset used for encoding
+     * @param bom true if byte order mark is written first
+     * @throws IOException if writing fails
+     */
+    private void encode(TextSource text, int from, int to, WritableByteChannel channel,
+            Charset charset, boolean bom) throws IOException {
+        CharsetEncoder encoder = begin(charset, bom);
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+
+        int pos = from;
+        boolean end = false;
+        while (!end) {
+            int n = Math.min(chars.remaining(), to - pos);
+            if (n > 0) {
+                try {
+                    text.getText(pos, n, segment);
+                } catch (BadLocationException ex) {
+                    throw new IOException("Document changed while it was being saved.", ex);
+                }
+                chars.put(segment.array, segment.offset, segment.count);
+                pos += segment.count;
+            }
+            end = pos == to;
+            encodeChars(encoder, channel, end);
+        }
+        finish(encoder, channel);
+    }
+
+    /**
+     * Encodes all text read from given reader into given channel.
+     * @param text reader of the text
+     * @param channel channel the bytes are written to
+     * @param charset charset used for encoding
+     * @param bom true if byte order mark is written first
+     * @throws IOException if reading or writing fails
+     */
+    private void encode(Reader text, WritableByteChannel channel, Charset charset, boolean bom)
+            throws IOException {
+        CharsetEncoder encoder = begin(charset, bom);
+        boolean end = false;
+        while (!end) {
+            int n = text.read(chars.array(), chars.arrayOffset() + chars.position(),
+                    chars.remaining());
+            if (n > 0) {
+                chars.position(chars.position() + n);
+            }
+            end = n == -1;
+            encodeChars(encoder, channel, end);
+        }
+        finish(encoder, channel);
+    }
+
+    /**
+     * Prepares buffers for encoding and creates the encoder.
+     * @param charset charset used for encoding
+     * @param bom true if byte order mark is written first
+     * @return encoder of the charset
+     */
+    private CharsetEncoder begin(Charset charset, boolean bom) {
+        for (ByteBuffer buffer : buffers) {
+            buffer.clear();
+        }
+        current = 0;
+        chars.clear();
+        if (bom) {
+            chars.put('\uFEFF');
+        }
+        return charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    /**
+     * Encodes characters waiting in the character buffer. A trailing high
+     * surrogate may stay in the buffer until its pair arrives.
+     * @param encoder encoder of the charset
+     * @param channel channel the bytes are written to
+     * @param end true if there are no more characters
+     * @throws IOException if writing fails
+     */
+    private void encodeChars(CharsetEncoder encoder, WritableByteChannel channel, boolean end)
+            throws IOException {
+        chars.flip();
+        while (encoder.encode(chars, buffers[current], end).isOverflow()) {
+            nextBuffer(channel);
+        }
+        chars.compact();
+    }
+
+    /**
+     * Flushes the encoder and writes all remaining bytes.
+     * @param encoder encoder of the charset
+     * @param channel channel the bytes are written to
+     * @throws IOException if writing fails
+     */
+    private void finish(CharsetEncoder encoder, WritableByteChannel channel) throws IOException {
+        while (encoder.flush(buffers[current]).isOverflow()) {
+            nextBuffer(channel);
+        }
+        drain(channel, current + 1);
+    }
+
+    /**
+     * Moves to the next output buffer, writing all of them if they are full.
+     * @param channel channel the bytes are written to
+     * @throws IOException if writing fails
+     */
+    private void nextBuffer(WritableByteChannel channel) throws IOException {
+        if (current + 1 < BUFFER_COUNT) {
+            current++;
+            return;
+        }
+        drain(channel, BUFFER_COUNT);
+        current = 0;
+    }
+
+    /**
+     * Writes first <code>count</code> output buffers, with gathering writes if
+     * the channel supports them, and clears them.
+     * @param channel channel the bytes are written to
+     * @param count number of buffers to be written
+     * @throws IOException if writing fails
+     */
+    private void drain(WritableByteChannel channel, int count) throws IOException {
+        long remaining = 0;
+        for (int i = 0; i < count; i++) {
+            buffers[i].flip();
+            remaining += buffers[i].remaining();
+        }
+        if (channel instanceof GatheringByteChannel) {
+            while (remaining > 0) {
+                remaining -= ((GatheringByteChannel) channel).write(buffers, 0, count);
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                while (buffers[i].hasRemaining()) {
+                    channel.write(buffers[i]);
+                }
+            }
+        }
+        for (int i = 0; i < count; i++) {
+            buffers[i].clear();
+        }
+    }
+
+    /**
+     * Gives the new file the same permissions the old one had. Temporary
+     * files are readable only by the owner, so files which didn't exist before
+     * get the usual permissions of a newly created file.
+     * @param from existing file, which may not exist
+     * @param to newly written file
+     */
+    private static void copyPermissions(Path from, Path to) {
+        try {
+            if (Files.exists(from)) {
+                Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+            } else {
+                Files.setPosixFilePermissions(to, PosixFilePermissions.fromString("rw-r--r--"));
+            }
+        } catch (UnsupportedOperationException | IOException ex) {
+            // not a POSIX file system, the default permissions are used
+        }
+    }
+
+    /**
+     * Replaces the target with the written file, atomically if the file
+     * system supports it.
+     * @param temp written file
+     * @param target file to be replaced
+     * @throws IOException if the file can't be moved
+     */
+    private static void replace(Path temp, Path target) throws IOException {
+        try {
+            Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException ex) {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    /**
+     * Step which writes encoded text into a channel.
+     * @author Luka Kraljević
+     *
+     */
+    private interface Encoding {
+
+        /**
+         * Writes encoded text into given channel.
+         * @param channel channel the bytes are written to
+         * @throws IOException if writing fails
+         */
+        void encode(WritableByteChannel channel) throws IOException;
+    }
+
+    /**
+     * Stream which writes into a file channel without closing it, so the
+     * channel can be forced after the compressed data is finished.
+     * @author Luka Kraljević
+     *
+     */
+    private static class ChannelOutputStream extends OutputStream {
+
+        /**
+         * Channel the bytes are written to.
+         */
+        private final FileChannel channel;
+
+        /**
+         * Creates the stream.
+         * @param channel channel the bytes are written to
+         */
+        ChannelOutputStream(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(b, off, len);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,727 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.zip.CRC32;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Write-ahead journal of unsaved edits, which lets tabs be rebuilt after the
+ * application dies. Each tab has its own append-only file, which starts with
+ * a checkpoint of the whole text and continues with the inserts and removes
+ * made since. Callers only queue the records, which is cheap enough to be
+ * done for every keystroke. One background thread writes the queued
+ * records of all tabs and then syncs each written file once, so records
+ * which arrive while the disk is busy are committed together. A checkpoint
+ * is written into a new file which replaces the journal, so the journal
+ * never needs a long replay.
+ * <p>
+ * Journals of one run of the application are kept in their own directory,
+ * locked while the application runs. At startup, directories which are not
+ * locked belong to a run which didn't exit normally, and their journals can
+ * be {@link #recover() recovered}.
+ * @author Luka Kraljević
+ *
+ */
+public class EditJournal {
+
+    /**
+     * Record which starts a checkpoint and holds the file of the tab.
+     */
+    private static final byte CHECKPOINT = 1;
+
+    /**
+     * Record which holds a part of the checkpointed text.
+     */
+    private static final byte TEXT = 2;
+
+    /**
+     * Record of an insert.
+     */
+    private static final byte INSERT = 3;
+
+    /**
+     * Record of a remove.
+     */
+    private static final byte REMOVE = 4;
+
+    /**
+     * Number of characters of checkpointed text in one record.
+     */
+    private static final int TEXT_CHUNK = 1 << 16;
+
+    /**
+     * Minimum number of milliseconds between two commits.
+     */
+    private static final long COMMIT_INTERVAL = 100;
+
+    /**
+     * Directory of the journals of this run.
+     */
+    private final Path dir;
+
+    /**
+     * Channel of the lock file of this run.
+     */
+    private final FileChannel lockChannel;
+
+    /**
+     * Journals with queued records, guarded by this journal.
+     */
+    private final Set<Log> dirty = new LinkedHashSet<>();
+
+    /**
+     * Tasks run after the next commit, guarded by this journal.
+     */
+    private final List<Runnable> afterCommit = new ArrayList<>();
+
+    /**
+     * Directories of crashed runs which are being recovered, with their locks.
+     */
+    private final Map<Path, FileLock> recovering = new LinkedHashMap<>();
+
+    /**
+     * Journals of the tabs, guarded by this journal.
+     */
+    private final List<Log> logs = new ArrayList<>();
+
+    /**
+     * Thread which writes the records.
+     */
+    private final Thread writer;
+
+    /**
+     * Flag which indicates that the journal is closed.
+     */
+    private volatile boolean closed;
+
+    /**
+     * Creates the journal of this run in given directory.
+     * @param root directory which holds journals of all runs
+     * @throws IOException if the directory can't be created
+     */
+    public EditJournal(Path root) throws IOException {
+        dir = root.resolve(Long.toHexString(System.currentTimeMillis())
+                + "-" + Integer.toHexString(ThreadLocalRandom.current().nextInt()));
+        Files.createDirectories(dir);
+        lockChannel = FileChannel.open(dir.resolve("lock"),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        lockChannel.lock();
+
+        writer = new Thread(this::run, "journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Returns directory of the journals in user's home directory.
+     * @return default directory of the journals
+     */
+    public static Path defaultRoot() {
+        return Paths.get(System.getProperty("user.home"), ".jnotepadpp", "journal");
+    }
+
+    /**
+     * Creates journal of a new tab. The first record of the journal must be
+     * a {@link Log#checkpoint(TextSource, String) checkpoint}.
+     * @return journal of the tab
+     */
+    public synchronized Log open() {
+        Log log = new Log(dir.resolve(Long.toHexString(System.nanoTime())
+                + "-" + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + ".jnl"));
+        logs.add(log);
+        return log;
+    }
+
+    /**
+     * Finds journals left by runs which didn't exit normally. The journals
+     * are kept until {@link #finishRecovery()} is called.
+     * @return recoverable journals
+     * @throws IOException if the journals can't be listed
+     */
+    public List<Recovered> recover() throws IOException {
+        List<Recovered> result = new ArrayList<>();
+        try (DirectoryStream<Path> runs = Files.newDirectoryStream(dir.getParent())) {
+            for (Path run : runs) {
+                if (run.equals(dir) || !Files.isDirectory(run)) {
+                    continue;
+                }
+                FileChannel channel = FileChannel.open(run.resolve("lock"),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException ex) {
+                    lock = null;
+                }
+                if (lock == null) {
+                    channel.close();
+                    continue;
+                }
+                recovering.put(run, lock);
+                try (DirectoryStream<Path> journals = Files.newDirectoryStream(run, "*.jnl")) {
+                    for (Path journal : journals) {
+                        try (DataInputStream in = open(journal)) {
+                            byte[] record = readRecord(in, Files.size(journal));
+                            if (record != null && record[0] == CHECKPOINT) {
+                                String path = new String(record, 1, record.length - 1,
+                                        StandardCharsets.UTF_8);
+                                result.add(new Recovered(journal, path.isEmpty() ? null : path));
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Deletes journals found by {@link #recover()} once the records queued so
+     * far are committed, so the recovered tabs are safe in the new journals
+     * before the old ones are gone.
+     */
+    public void finishRecovery() {
+        Map<Path, FileLock> runs = new LinkedHashMap<>(recovering);
+        recovering.clear();
+        synchronized (this) {
+            afterCommit.add(() -> {
+                for (Map.Entry<Path, FileLock> run : runs.entrySet()) {
+                    try {
+                        deleteRun(run.getKey(), run.getValue().channel());
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                }
+            });
+            notifyAll();
+        }
+    }
+
+    /**
+     * Stops writing and deletes the journals of this run. Called when the
+     * application exits normally, after the user saved or discarded changes.
+     */
+    public void close() {
+        closed = true;
+        synchronized (this) {
+            notifyAll();
+        }
+        try {
+            writer.join(1000);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            synchronized (this) {
+                for (Log log : logs) {
+                    if (log.channel != null) {
+                        log.channel.close();
+                    }
+                }
+            }
+            deleteRun(dir, lockChannel);
+        } catch (IOException ex) {
+            ex.printStackTrace();
+        }
+    }
+
+    /**
+     * Deletes directory of a run with its journals.
+     * @param run directory of the run
+     * @param lock channel which holds lock of the run, closed before the lock
+     * file is deleted
+     * @throws IOException if the directory can't be deleted
+     */
+    private static void deleteRun(Path run, FileChannel lock) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(run)) {
+            for (Path file : stream) {
+                if (!file.getFileName().toString().equals("lock")) {
+                    Files.delete(file);
+                }
+            }
+        }
+        lock.close();
+        Files.deleteIfExists(run.resolve("lock"));
+        Files.delete(run);
+    }
+
+    /**
+     * Queues a record of given journal and wakes up the writer.
+     * @param log journal of the record
+     * @param op queued record
+     */
+    private synchronized void enqueue(Log log, Op op) {
+        log.queue.add(op);
+        dirty.add(log);
+        notifyAll();
+    }
+
+    /**
+     * Writes queued records until the journal is closed.
+     */
+    private void run() {
+        long lastCommit = 0;
+        while (!closed) {
+            List<Log> logs = new ArrayList<>();
+            List<List<Op>> batches = new ArrayList<>();
+            List<Runnable> tasks;
+            synchronized (this) {
+                while (dirty.isEmpty() && afterCommit.isEmpty() && !closed) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                for (Log log : dirty) {
+                    logs.add(log);
+                    batches.add(new ArrayList<>(log.queue));
+                    log.queue.clear();
+                }
+                dirty.clear();
+                tasks = new ArrayList<>(afterCommit);
+                afterCommit.clear();
+            }
+
+            for (int i = 0; i < logs.size(); i++) {
+                try {
+                    logs.get(i).write(batches.get(i));
+                } catch (IOException | BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            for (Log log : logs) {
+                try {
+                    log.commit();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            for (Runnable task : tasks) {
+                task.run();
+            }
+
+            long wait = lastCommit + COMMIT_INTERVAL - System.currentTimeMillis();
+            lastCommit = System.currentTimeMillis();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait);
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Opens a journal for reading.
+     * @param journal read journal
+     * @return stream of the journal
+     * @throws IOException if the journal can't be opened
+     */
+    private static DataInputStream open(Path journal) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(journal), 1 << 16));
+    }
+
+    /**
+     * Reads the next record of a journal.
+     * @param in stream of the journal
+     * @param remaining number of bytes of the journal which are not read yet
+     * @return content of the record, or null if there are no more complete
+     * records
+     * @throws IOException if the journal can't be read
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length <= 0 || length > remaining - 8) {
+                return null;
+            }
+            byte[] record = new byte[length];
+            in.readFully(record);
+            CRC32 check = new CRC32();
+            check.update(record);
+            return (int) check.getValue() == crc ? record : null;
+        } catch (EOFException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Appends a record to a buffer.
+     * @param out buffer of the records
+     * @param record content of the record
+     * @throws IOException if the record can't be written
+     */
+    private static void writeRecord(DataOutputStream out, byte[] record) throws IOException {
+        CRC32 check = new CRC32();
+        check.update(record);
+        out.writeInt(record.length);
+        out.writeInt((int) check.getValue());
+        out.write(record);
+    }
+
+    /**
+     * Creates content of a record holding text.
+     * @param type type of the record
+     * @param offset offset written before the text, or -1 for none
+     * @param text text of the record
+     * @return content of the record
+     */
+    private static byte[] textRecord(byte type, int offset, String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = ByteBuffer.allocate(1 + (offset >= 0 ? 4 : 0) + bytes.length);
+        record.put(type);
+        if (offset >= 0) {
+            record.putInt(offset);
+        }
+        record.put(bytes);
+        return record.array();
+    }
+
+    /**
+     * Queued record.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Op {
+
+        /**
+         * Type of the record.
+         */
+        final byte type;
+
+        /**
+         * Offset of an insert or remove.
+         */
+        final int offset;
+
+        /**
+         * Number of removed characters.
+         */
+        final int length;
+
+        /**
+         * Inserted text or file of a checkpoint.
+         */
+        final String text;
+
+        /**
+         * Checkpointed text.
+         */
+        final TextSource snapshot;
+
+        /**
+         * Creates the record.
+         * @param type type of the record
+         * @param offset offset of an insert or remove
+         * @param length number of removed characters
+         * @param text inserted text or file of a checkpoint
+         * @param snapshot checkpointed text
+         */
+        Op(byte type, int offset, int length, String text, TextSource snapshot) {
+            this.type = type;
+            this.offset = offset;
+            this.length = length;
+            this.text = text;
+            this.snapshot = snapshot;
+        }
+    }
+
+    /**
+     * Journal of one tab. Methods which queue records may be called from any
+     * thread, but in the order of the edits.
+     * @author Luka Kraljević
+     *
+     */
+    public final class Log {
+
+        /**
+         * File of the journal.
+         */
+        private final Path file;
+
+        /**
+         * Records waiting to be written, guarded by the enclosing journal.
+         */
+        private final Deque<Op> queue = new ArrayDeque<>();
+
+        /**
+         * Channel of the file, or null if it has no checkpoint. Used only by
+         * the writer.
+         */
+        private FileChannel channel;
+
+        /**
+         * Flag which indicates that records were written since the last
+         * commit. Used only by the writer.
+         */
+        private boolean written;
+
+        /**
+         * Creates journal in given file.
+         * @param file file of the journal
+         */
+        private Log(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Queues a checkpoint, which replaces the whole journal.
+         * @param snapshot current text of the tab, it must not change
+         * @param path file of the tab, or null if it has none
+         */
+        public void checkpoint(TextSource snapshot, String path) {
+            enqueue(this, new Op(CHECKPOINT, 0, 0, path == null ? "" : path, snapshot));
+        }
+
+        /**
+         * Queues an insert.
+         * @param offset offset of the insert
+         * @param text inserted text
+         */
+        public void inserted(int offset, String text) {
+            enqueue(this, new Op(INSERT, offset, 0, text, null));
+        }
+
+        /**
+         * Queues a remove.
+         * @param offset offset of the remove
+         * @param length number of removed characters
+         */
+        public void removed(int offset, int length) {
+            enqueue(this, new Op(REMOVE, offset, length, null, null));
+        }
+
+        /**
+         * Deletes the journal, as when the tab is saved or closed. Queued
+         * records are dropped, and the next record must be a checkpoint.
+         */
+        public void discard() {
+            enqueue(this, new Op((byte) 0, 0, 0, null, null));
+        }
+
+        /**
+         * Writes a batch of records. Called by the writer.
+         * @param ops written records
+         * @throws IOException if the journal can't be written
+         * @throws BadLocationException if a checkpointed text can't be read
+         */
+        private void write(List<Op> ops) throws IOException, BadLocationException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (Op op : ops) {
+                switch (op.type) {
+                case CHECKPOINT:
+                    writeCheckpoint(op);
+                    bytes.reset();
+                    break;
+                case INSERT:
+                    writeRecord(out, textRecord(INSERT, op.offset, op.text));
+                    break;
+                case REMOVE:
+                    writeRecord(out, ByteBuffer.allocate(9)
+                            .put(REMOVE).putInt(op.offset).putInt(op.length).array());
+                    break;
+                default:
+                    bytes.reset();
+                    if (channel != null) {
+                        channel.close();
+                        channel = null;
+                    }
+                    written = false;
+                    Files.deleteIfExists(file);
+                }
+            }
+            if (channel != null && bytes.size() > 0) {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                written = true;
+            }
+        }
+
+        /**
+         * Writes a checkpoint into a new file and replaces the journal with
+         * it. Called by the writer.
+         * @param op checkpoint record
+         * @throws IOException if the checkpoint can't be written
+         * @throws BadLocationException if the checkpointed text can't be read
+         */
+        private void writeCheckpoint(Op op) throws IOException, BadLocationException {
+            Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream data = new DataOutputStream(bytes);
+                writeRecord(data, textRecord(CHECKPOINT, -1, op.text));
+
+                TextSource snapshot = op.snapshot;
+                int length = snapshot.length();
+                Segment segment = new Segment();
+                segment.setPartialReturn(true);
+                int offset = 0;
+                while (offset < length || bytes.size() > 0) {
+                    if (offset < length) {
+                        snapshot.getText(offset, Math.min(TEXT_CHUNK, length - offset), segment);
+                        int count = segment.count;
+                        // records are decoded one by one, so a surrogate pair
+                        // must not be split between two of them
+                        if (offset + count < length && Character.isHighSurrogate(
+                                segment.array[segment.offset + count - 1])) {
+                            if (count > 1) {
+                                count--;
+                            } else {
+                                segment.setPartialReturn(false);
+                                snapshot.getText(offset, 2, segment);
+                                segment.setPartialReturn(true);
+                                count = 2;
+                            }
+                        }
+                        writeRecord(data, textRecord(TEXT, -1,
+                                new String(segment.array, segment.offset, count)));
+                        offset += count;
+                    }
+                    if (bytes.size() >= TEXT_CHUNK || offset >= length) {
+                        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+                        while (buffer.hasRemaining()) {
+                            out.write(buffer);
+                        }
+                        bytes.reset();
+                    }
+                }
+                out.force(false);
+            }
+            if (channel != null) {
+                channel.close();
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            written = false;
+        }
+
+        /**
+         * Syncs records written since the last commit. Called by the writer.
+         * @throws IOException if the journal can't be synced
+         */
+        private void commit() throws IOException {
+            if (channel != null && written) {
+                channel.force(false);
+            }
+            written = false;
+        }
+    }
+
+    /**
+     * Journal of a tab left by a run which didn't exit normally.
+     * @author Luka Kraljević
+     *
+     */
+    public static final class Recovered {
+
+        /**
+         * File of the journal.
+         */
+        private final Path journal;
+
+        /**
+         * File of the tab, or null if it has none.
+         */
+        private final String path;
+
+        /**
+         * Creates the recovered journal.
+         * @param journal file of the journal
+         * @param path file of the tab, or null if it has none
+         */
+        private Recovered(Path journal, String path) {
+            this.journal = journal;
+            this.path = path;
+        }
+
+        /**
+         * @return file of the tab, or null if the tab was never saved
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * Replays the journal into given empty document. Replay stops at the
+         * first incomplete or damaged record, which was being written when
+         * the application died.
+         * @param doc document which receives the text
+         * @throws IOException if the journal can't be read
+         */
+        public void restore(Document doc) throws IOException {
+            try (DataInputStream in = open(journal)) {
+                long remaining = Files.size(journal);
+                byte[] record;
+                while ((record = readRecord(in, remaining)) != null) {
+                    remaining -= 8 + record.length;
+                    ByteBuffer buffer = ByteBuffer.wrap(record);
+                    byte type = buffer.get();
+                    switch (type) {
+                    case TEXT:
+                        doc.insertString(doc.getLength(), text(record, 1), null);
+                        break;
+                    case INSERT:
+                        doc.insertString(buffer.getInt(), text(record, 5), null);
+                        break;
+                    case REMOVE:
+                        doc.remove(buffer.getInt(), buffer.getInt());
+                        break;
+                    default:
+                        break;
+                    }
+                }
+            } catch (BadLocationException ex) {
+                ex.printStackTrace();
+            }
+        }
+
+        /**
+         * Decodes text at the end of a record.
+         * @param record content of the record
+         * @param offset offset of the text
+         * @return decoded text
+         */
+        private static String text(byte[] record, int offset) {
+            return new String(record, offset, record.length - offset, StandardCharsets.UTF_8);
+        }
+    }
+}
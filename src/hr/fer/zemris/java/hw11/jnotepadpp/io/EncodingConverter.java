@@ -0,0 +1,48 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Converts files from their detected charset into another one. Text is
+ * decoded and encoded as a stream, so files of any size are converted with
+ * constant memory overhead, and the converted file replaces the original
+ * atomically.
+ * @author Luka Kraljević
+ *
+ */
+public class EncodingConverter {
+
+    /**
+     * Writer of the converted files.
+     */
+    private final DocumentWriter writer = new DocumentWriter();
+
+    /**
+     * Converts the file on given path into given charset. Compression of the
+     * file is kept. Byte order mark is written for UTF-16 and for UTF-8 files
+     * which already had it.
+     * @param path path of the file
+     * @param charset charset of the converted file
+     * @return format the file had before the conversion
+     * @throws IOException if the file can't be read or written
+     */
+    public FileFormat convert(Path path, Charset charset) throws IOException {
+        Compression compression = Compression.detect(path);
+        FileFormat source = CharsetDetector.detect(path, compression);
+
+        boolean bom = charset.equals(StandardCharsets.UTF_16BE)
+                || charset.equals(StandardCharsets.UTF_16LE)
+                || charset.equals(StandardCharsets.UTF_8) && source.hasBom();
+        FileFormat target = new FileFormat(charset, compression, bom);
+
+        try (Reader reader = source.newReader(Files.newInputStream(path))) {
+            writer.write(reader, path, target);
+        }
+        return source;
+    }
+}
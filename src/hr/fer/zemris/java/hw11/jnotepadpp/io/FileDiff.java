@@ -0,0 +1,250 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Segment;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.text.TextDiff;
+
+/**
+ * Compares a text with the current content of a file without reading either
+ * of them into memory as a whole. The file is read as a stream, first to
+ * find the common beginning and the length of the new text, then to find
+ * the common end, and last to read only the part between them. Only that
+ * part of both versions is compared by {@link TextDiff}, so the memory used
+ * depends on the size of the change and not on the size of the file. A
+ * file which changes while it is being compared is reported, since its
+ * passes may have seen different texts.
+ * @author Luka Kraljević
+ *
+ */
+public final class FileDiff {
+
+    /**
+     * Number of characters read at once.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Utility class, no instances.
+     */
+    private FileDiff() {
+    }
+
+    /**
+     * Compares given text with the file.
+     * @param oldText old version of the text, it must not change
+     * @param path path of the file with the new version
+     * @param format charset and compression of the file
+     * @return edits which turn the old text into the file's text, in the
+     * order of their offsets, or null if the file changed while it was read
+     * @throws IOException if the file can't be read
+     * @throws BadLocationException if the old text can't be read
+     */
+    public static List<TextDiff.Edit> diff(TextSource oldText, Path path, FileFormat format)
+            throws IOException, BadLocationException {
+        FileStamp stamp = FileStamp.of(path);
+        int oldLength = oldText.length();
+        char[] buffer = new char[BUFFER_SIZE];
+
+        // common beginning and the length of the new text
+        Cursor old = new Cursor(oldText, 0);
+        long newLength = 0;
+        int prefix = -1;
+        try (Reader reader = open(path, format)) {
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read && prefix == -1; i++) {
+                    if (newLength + i >= oldLength || old.next() != buffer[i]) {
+                        prefix = (int) newLength + i;
+                    }
+                }
+                newLength += read;
+                if (newLength > Integer.MAX_VALUE - 1) {
+                    throw new IOException("File " + path + " is too large to be compared.");
+                }
+            }
+        }
+        if (prefix == -1) {
+            if (newLength == oldLength) {
+                return new ArrayList<>();
+            }
+            prefix = (int) Math.min(oldLength, newLength);
+        }
+        prefix = lineStart(oldText, prefix);
+
+        // common end, compared as if the texts were aligned at their ends
+        int suffix = 0;
+        int max = (int) Math.min(oldLength, newLength) - prefix;
+        if (max > 0) {
+            int shift = (int) newLength - oldLength;
+            old = new Cursor(oldText, Math.max(prefix, prefix - shift));
+            int lastMismatch = prefix - 1;
+            int pos = 0;
+            try (Reader reader = open(path, format)) {
+                int read;
+                while ((read = reader.read(buffer)) != -1) {
+                    for (int i = Math.max(0, prefix - pos); i < read; i++) {
+                        int j = pos + i - shift;
+                        if (j < prefix || j >= oldLength || old.next() != buffer[i]) {
+                            lastMismatch = pos + i;
+                        }
+                    }
+                    pos += read;
+                    if (pos > newLength) {
+                        return null;
+                    }
+                }
+            }
+            if (pos != newLength) {
+                return null;
+            }
+            suffix = Math.min(max, (int) newLength - 1 - lastMismatch);
+            suffix = lineEnd(oldText, oldLength - suffix);
+        }
+
+        // changed parts of both versions
+        int newEnd = (int) newLength - suffix;
+        char[] middle = new char[newEnd - prefix];
+        try (Reader reader = open(path, format)) {
+            int pos = 0;
+            int read;
+            while (pos < newEnd && (read = reader.read(buffer)) != -1) {
+                int from = Math.max(pos, prefix);
+                int to = Math.min(pos + read, newEnd);
+                if (from < to) {
+                    System.arraycopy(buffer, from - pos, middle, from - prefix, to - from);
+                }
+                pos += read;
+            }
+            if (pos < newEnd) {
+                return null;
+            }
+        }
+        if (!stamp.equals(FileStamp.of(path))) {
+            return null;
+        }
+
+        Segment segment = new Segment();
+        oldText.getText(prefix, oldLength - suffix - prefix, segment);
+        List<TextDiff.Edit> edits = new ArrayList<>();
+        for (TextDiff.Edit edit : TextDiff.diff(segment.toString(), new String(middle))) {
+            edits.add(new TextDiff.Edit(edit.getStart() + prefix, edit.getEnd() + prefix,
+                    edit.getText()));
+        }
+        return edits;
+    }
+
+    /**
+     * Opens the file for reading its text.
+     * @param path path of the file
+     * @param format charset and compression of the file
+     * @return reader of the file's text
+     * @throws IOException if the file can't be opened
+     */
+    private static Reader open(Path path, FileFormat format) throws IOException {
+        return format.newReader(Files.newInputStream(path));
+    }
+
+    /**
+     * Finds start of the line which contains given offset.
+     * @param text the text
+     * @param offset offset in the text
+     * @return offset after the last line break before given offset
+     * @throws BadLocationException if the text can't be read
+     */
+    private static int lineStart(TextSource text, int offset) throws BadLocationException {
+        Segment segment = new Segment();
+        int end = offset;
+        while (end > 0) {
+            int from = Math.max(0, end - BUFFER_SIZE);
+            text.getText(from, end - from, segment);
+            for (int i = segment.count - 1; i >= 0; i--) {
+                if (segment.array[segment.offset + i] == '\n') {
+                    return from + i + 1;
+                }
+            }
+            end = from;
+        }
+        return 0;
+    }
+
+    /**
+     * Finds length of the common end of the texts once it is shortened to
+     * start right after a line break.
+     * @param text the old text
+     * @param offset offset where the common end starts
+     * @return number of characters after the first line break not before
+     * given offset, or 0 if there is no such line break
+     * @throws BadLocationException if the text can't be read
+     */
+    private static int lineEnd(TextSource text, int offset) throws BadLocationException {
+        int length = text.length();
+        Cursor cursor = new Cursor(text, offset);
+        for (int i = offset; i < length; i++) {
+            if (cursor.next() == '\n') {
+                return length - i - 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Reads a text character by character, from given offset on.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Cursor {
+
+        /**
+         * The text.
+         */
+        private final TextSource text;
+
+        /**
+         * Part of the text which is being read.
+         */
+        private final Segment segment = new Segment();
+
+        /**
+         * Offset of the text after the part which is being read.
+         */
+        private int next;
+
+        /**
+         * Index of the next character in the segment.
+         */
+        private int index;
+
+        /**
+         * Creates the cursor.
+         * @param text the text
+         * @param offset offset of the first character which is read
+         */
+        Cursor(TextSource text, int offset) {
+            this.text = text;
+            this.next = offset;
+            segment.setPartialReturn(true);
+        }
+
+        /**
+         * Reads the next character. The caller makes sure there is one.
+         * @return the character
+         * @throws BadLocationException if the text can't be read
+         */
+        char next() throws BadLocationException {
+            if (index == segment.count) {
+                text.getText(next, text.length() - next, segment);
+                next += segment.count;
+                index = 0;
+            }
+            return segment.array[segment.offset + index++];
+        }
+    }
+}
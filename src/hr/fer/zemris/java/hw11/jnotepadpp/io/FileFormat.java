@@ -0,0 +1,113 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Describes how the text of a document is stored in its file: the charset
+ * used for encoding, whether the text starts with a byte order mark and the
+ * compression of the encoded bytes.
+ * @author Luka Kraljević
+ *
+ */
+public final class FileFormat {
+
+    /**
+     * Format of new documents, UTF-8 without compression.
+     */
+    public static final FileFormat DEFAULT = new FileFormat(StandardCharsets.UTF_8, Compression.NONE);
+
+    /**
+     * Charset of the text.
+     */
+    private final Charset charset;
+
+    /**
+     * Compression of the file.
+     */
+    private final Compression compression;
+
+    /**
+     * Flag which indicates that the text starts with a byte order mark.
+     */
+    private final boolean bom;
+
+    /**
+     * Creates the format without byte order mark.
+     * @param charset charset of the text
+     * @param compression compression of the file
+     */
+    public FileFormat(Charset charset, Compression compression) {
+        this(charset, compression, false);
+    }
+
+    /**
+     * Creates the format.
+     * @param charset charset of the text
+     * @param compression compression of the file
+     * @param bom true if the text starts with a byte order mark
+     */
+    public FileFormat(Charset charset, Compression compression, boolean bom) {
+        this.charset = charset;
+        this.compression = compression;
+        this.bom = bom;
+    }
+
+    /**
+     * Returns number of bytes of the byte order mark.
+     * @return length of the mark, or 0 if the text doesn't start with it
+     */
+    public int getBomLength() {
+        return bom ? "\uFEFF".getBytes(charset).length : 0;
+    }
+
+    /**
+     * Creates reader which decodes text from given stream of the file's
+     * bytes. The stream is decompressed and the byte order mark is skipped.
+     * Malformed input is replaced, so a wrongly detected charset never fails.
+     * @param in stream of the file's bytes
+     * @return reader of the text
+     * @throws IOException if the stream can't be read
+     */
+    public Reader newReader(InputStream in) throws IOException {
+        InputStream bytes = compression.decompress(in);
+        int skip = getBomLength();
+        for (int i = 0; i < skip && bytes.read() != -1; i++) {
+            // byte order mark is not part of the text
+        }
+        return new InputStreamReader(bytes, charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+    }
+
+    /**
+     * @return the charset
+     */
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the compression
+     */
+    public Compression getCompression() {
+        return compression;
+    }
+
+    /**
+     * @return the bom
+     */
+    public boolean hasBom() {
+        return bom;
+    }
+
+    @Override
+    public String toString() {
+        return charset.name() + (bom ? " BOM" : "");
+    }
+}
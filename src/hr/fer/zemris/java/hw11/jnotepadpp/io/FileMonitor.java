@@ -0,0 +1,232 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Notices when the file of a document is changed by another program. The
+ * monitor remembers the file as it was when the document was last loaded or
+ * saved: its modification time, size and, for files which are not too large,
+ * a hash of the content. A change reported by the {@link FileWatchService} is
+ * external only if the size or the hash differ, so merely touched files are
+ * ignored. Changes made while the document itself is being saved are not
+ * reported.
+ * @author Luka Kraljević
+ *
+ */
+public class FileMonitor {
+
+    /**
+     * Content of files up to this size is hashed.
+     */
+    private static final long HASH_LIMIT = 64L * 1024 * 1024;
+
+    /**
+     * Size of the buffer used while hashing.
+     */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Service which reports the changes.
+     */
+    private final FileWatchService service;
+
+    /**
+     * Path of the monitored file.
+     */
+    private final Path path;
+
+    /**
+     * Listener called on the watch service's thread once the file is changed
+     * externally.
+     */
+    private final Runnable listener;
+
+    /**
+     * Watch of the file, or null if the monitor isn't started.
+     */
+    private FileWatchService.Watch watch;
+
+    /**
+     * Stamp of the file when it was last in sync with the document.
+     */
+    private FileStamp stamp;
+
+    /**
+     * Hash of the file's content when it was last in sync with the document,
+     * or null if it is not known.
+     */
+    private byte[] hash;
+
+    /**
+     * Number of saves of the document which are in progress.
+     */
+    private final AtomicInteger saving = new AtomicInteger();
+
+    /**
+     * Flag which indicates that an external change was reported and the
+     * document wasn't synced with the file since.
+     */
+    private volatile boolean changed;
+
+    /**
+     * Creates the monitor.
+     * @param service service which reports the changes
+     * @param path path of the monitored file
+     * @param listener listener called on the watch service's thread once the
+     * file is changed externally
+     */
+    public FileMonitor(FileWatchService service, Path path, Runnable listener) {
+        this.service = service;
+        this.path = path.toAbsolutePath().normalize();
+        this.listener = listener;
+    }
+
+    /**
+     * Starts monitoring the file.
+     * @throws IOException if the file's directory can't be watched
+     */
+    public void start() throws IOException {
+        watch = service.watch(path, this::check);
+    }
+
+    /**
+     * Stops monitoring the file.
+     */
+    public void stop() {
+        if (watch != null) {
+            watch.cancel();
+        }
+    }
+
+    /**
+     * Remembers the file as it is now, because the document was just loaded
+     * from it. The file is read on the watch service's thread.
+     */
+    public void sync() {
+        if (watch != null) {
+            watch.execute(this::remember);
+        }
+    }
+
+    /**
+     * Tells the monitor that the document is about to be saved, so changes of
+     * the file are not reported until {@link #endSave()}.
+     */
+    public void beginSave() {
+        saving.incrementAndGet();
+    }
+
+    /**
+     * Tells the monitor that saving of the document is finished, either
+     * successfully or not, and remembers the file as it is now.
+     */
+    public void endSave() {
+        if (watch == null) {
+            saving.decrementAndGet();
+            return;
+        }
+        watch.execute(() -> {
+            remember();
+            saving.decrementAndGet();
+        });
+    }
+
+    /**
+     * Checks if the file was changed by another program since the document
+     * was last loaded or saved.
+     * @return true if there is an external change
+     */
+    public boolean isChanged() {
+        return changed;
+    }
+
+    /**
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Reads stamp and hash of the file as it is now.
+     */
+    private void remember() {
+        changed = false;
+        try {
+            stamp = FileStamp.of(path);
+            hash = stamp.getSize() <= HASH_LIMIT ? hash(path) : null;
+        } catch (IOException ex) {
+            stamp = null;
+            hash = null;
+        }
+    }
+
+    /**
+     * Compares the file with the remembered one and reports the change.
+     * Called on the watch service's thread.
+     */
+    private void check() {
+        if (saving.get() > 0 || changed) {
+            return;
+        }
+
+        try {
+            FileStamp now = FileStamp.of(path);
+            if (now.equals(stamp)) {
+                return;
+            }
+
+            byte[] current = now.getSize() <= HASH_LIMIT ? hash(path) : null;
+            boolean same = stamp != null && now.getSize() == stamp.getSize()
+                    && hash != null && Arrays.equals(hash, current);
+            stamp = now;
+            hash = current;
+            if (same) {
+                return;
+            }
+        } catch (NoSuchFileException ex) {
+            // deleted or being replaced, the new file is checked once it's created
+            return;
+        } catch (IOException ex) {
+            ex.printStackTrace();
+            return;
+        }
+
+        changed = true;
+        listener.run();
+    }
+
+    /**
+     * Hashes the content of the file on given path.
+     * @param path path of the file
+     * @return hash of the file
+     * @throws IOException if the file can't be read
+     */
+    private static byte[] hash(Path path) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        }
+        return digest.digest();
+    }
+}
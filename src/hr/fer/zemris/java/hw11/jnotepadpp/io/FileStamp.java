@@ -0,0 +1,88 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Objects;
+
+/**
+ * Identity of one version of a file on disk, described by its real path, size
+ * and time of the last modification. Two equal stamps are taken as proof that
+ * the file wasn't changed between them.
+ * @author Luka Kraljević
+ *
+ */
+public final class FileStamp {
+
+    /**
+     * Real path of the file.
+     */
+    private final Path path;
+
+    /**
+     * Size of the file in bytes.
+     */
+    private final long size;
+
+    /**
+     * Time of the last modification.
+     */
+    private final FileTime modified;
+
+    /**
+     * Creates the stamp.
+     * @param path real path of the file
+     * @param size size of the file in bytes
+     * @param modified time of the last modification
+     */
+    private FileStamp(Path path, long size, FileTime modified) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    /**
+     * Reads stamp of the file on given path.
+     * @param path path of the file
+     * @return stamp of the file as it is now
+     * @throws IOException if the file doesn't exist or can't be read
+     */
+    public static FileStamp of(Path path) throws IOException {
+        Path real = path.toRealPath();
+        BasicFileAttributes attributes = Files.readAttributes(real, BasicFileAttributes.class);
+        return new FileStamp(real, attributes.size(), attributes.lastModifiedTime());
+    }
+
+    /**
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return the size
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof FileStamp)) {
+            return false;
+        }
+        FileStamp other = (FileStamp) obj;
+        return size == other.size && path.equals(other.path) && modified.equals(other.modified);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(path, size, modified);
+    }
+}
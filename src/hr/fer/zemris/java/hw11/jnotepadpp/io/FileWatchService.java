@@ -0,0 +1,223 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Watches files for changes with a single {@link WatchService} shared by all
+ * tabs. Directories of the watched files are registered once, no matter how
+ * many of their files are watched. Listeners are called one at a time on a
+ * background thread, so a listener may read the changed file directly.
+ * @author Luka Kraljević
+ *
+ */
+public class FileWatchService {
+
+    /**
+     * Watch service of the default file system, created on the first watch.
+     */
+    private WatchService watcher;
+
+    /**
+     * Registered directories with watches of their files.
+     */
+    private final Map<Path, Directory> directories = new HashMap<>();
+
+    /**
+     * Thread which calls the listeners.
+     */
+    private final ExecutorService dispatcher = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "file-watch-dispatcher");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Starts watching the file on given path. The file doesn't have to exist,
+     * but its directory does.
+     * @param file watched file
+     * @param listener called after the file is created, changed or deleted
+     * @return handle of the watch
+     * @throws IOException if the directory can't be watched
+     */
+    public synchronized Watch watch(Path file, Runnable listener) throws IOException {
+        if (watcher == null) {
+            watcher = FileSystems.getDefault().newWatchService();
+            Thread t = new Thread(this::run, "file-watch");
+            t.setDaemon(true);
+            t.start();
+        }
+
+        Path absolute = file.toAbsolutePath().normalize();
+        Path dir = absolute.getParent();
+        Directory directory = directories.get(dir);
+        if (directory == null) {
+            WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+            directory = new Directory(key);
+            directories.put(dir, directory);
+        }
+
+        Watch watch = new Watch(dir, absolute, listener);
+        directory.watches.add(watch);
+        return watch;
+    }
+
+    /**
+     * Waits for events and hands them over to the listeners.
+     */
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watcher.take();
+            } catch (InterruptedException | ClosedWatchServiceException ex) {
+                return;
+            }
+
+            Path dir = (Path) key.watchable();
+            List<Watch> notified = new ArrayList<>();
+            for (WatchEvent<?> event : key.pollEvents()) {
+                Path changed = event.kind() == StandardWatchEventKinds.OVERFLOW
+                        ? null
+                        : dir.resolve((Path) event.context());
+                synchronized (this) {
+                    Directory directory = directories.get(dir);
+                    if (directory == null) {
+                        continue;
+                    }
+                    for (Watch watch : directory.watches) {
+                        if ((changed == null || watch.file.equals(changed))
+                                && !notified.contains(watch)) {
+                            notified.add(watch);
+                        }
+                    }
+                }
+            }
+            key.reset();
+
+            for (Watch watch : notified) {
+                watch.fire();
+            }
+        }
+    }
+
+    /**
+     * Watched directory.
+     * @author Luka Kraljević
+     *
+     */
+    private static class Directory {
+
+        /**
+         * Key of the directory's registration.
+         */
+        final WatchKey key;
+
+        /**
+         * Watches of files in the directory.
+         */
+        final List<Watch> watches = new ArrayList<>();
+
+        /**
+         * Creates the directory.
+         * @param key key of the directory's registration
+         */
+        Directory(WatchKey key) {
+            this.key = key;
+        }
+    }
+
+    /**
+     * Handle of one watched file.
+     * @author Luka Kraljević
+     *
+     */
+    public class Watch {
+
+        /**
+         * Directory of the file.
+         */
+        private final Path dir;
+
+        /**
+         * Watched file.
+         */
+        private final Path file;
+
+        /**
+         * Listener of the changes.
+         */
+        private final Runnable listener;
+
+        /**
+         * Flag which indicates that the watch is cancelled.
+         */
+        private volatile boolean cancelled;
+
+        /**
+         * Creates the watch.
+         * @param dir directory of the file
+         * @param file watched file
+         * @param listener listener of the changes
+         */
+        private Watch(Path dir, Path file, Runnable listener) {
+            this.dir = dir;
+            this.file = file;
+            this.listener = listener;
+        }
+
+        /**
+         * Calls the listener on the listeners' thread, as if the file was
+         * changed.
+         */
+        public void fire() {
+            execute(listener);
+        }
+
+        /**
+         * Runs given task on the listeners' thread, so it never runs at the
+         * same time as the listener. The task is skipped if the watch is
+         * cancelled before it runs.
+         * @param task task to be run
+         */
+        public void execute(Runnable task) {
+            dispatcher.execute(() -> {
+                if (!cancelled) {
+                    task.run();
+                }
+            });
+        }
+
+        /**
+         * Stops watching the file. The listener is not called after this
+         * method returns, unless it is already running.
+         */
+        public void cancel() {
+            cancelled = true;
+            synchronized (FileWatchService.this) {
+                Directory directory = directories.get(dir);
+                if (directory == null) {
+                    return;
+                }
+                directory.watches.remove(this);
+                if (directory.watches.isEmpty()) {
+                    directory.key.cancel();
+                    directories.remove(dir);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,589 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Local history of saved files. Every saved version of a file is split into
+ * chunks by content-defined chunking: a rolling hash of the last characters
+ * decides where a chunk ends, so a change only affects the chunks around it
+ * and text after it is split the same way as before. Each chunk is stored
+ * once, compressed, in a file named by the SHA-256 hash of its text, and a
+ * version only lists hashes of its chunks. Many versions of a file which
+ * grows at the end, like a log, therefore cost little more than its newest
+ * version.
+ * <p>
+ * Versions are recorded and the store is compacted on one background thread,
+ * so the chunks of a version are always written before the version, and
+ * compaction never sees a half recorded version. Compaction forgets versions
+ * which are too old or too many and deletes chunks which no version lists.
+ * @author Luka Kraljević
+ *
+ */
+public class HistoryStore {
+
+    /**
+     * Minimum number of characters in a chunk.
+     */
+    private static final int MIN_CHUNK = 16 * 1024;
+
+    /**
+     * Maximum number of characters in a chunk.
+     */
+    private static final int MAX_CHUNK = 256 * 1024;
+
+    /**
+     * Mask of the rolling hash which ends a chunk when its bits are zero,
+     * giving chunks of about 64K characters. The highest bits are tested,
+     * since they depend on the last 64 characters, while the lowest bits
+     * depend only on the last few.
+     */
+    private static final long CHUNK_MASK = 0xFFFFL << 48;
+
+    /**
+     * Random values of the rolling hash for each byte.
+     */
+    private static final long[] GEAR = new long[256];
+
+    static {
+        Random random = new Random(0x6a4e6f74L);
+        for (int i = 0; i < GEAR.length; i++) {
+            GEAR[i] = random.nextLong();
+        }
+    }
+
+    /**
+     * Number of bytes of a chunk hash.
+     */
+    private static final int HASH_SIZE = 32;
+
+    /**
+     * Marker at the beginning of a version file.
+     */
+    private static final int VERSION_MAGIC = 0x4a4e5631;
+
+    /**
+     * Maximum number of versions kept for one file.
+     */
+    private static final int MAX_VERSIONS = 256;
+
+    /**
+     * Age in milliseconds after which versions are forgotten. The newest
+     * version of a file is kept regardless of its age.
+     */
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(30);
+
+    /**
+     * Minutes between two compactions.
+     */
+    private static final long COMPACT_PERIOD = 10;
+
+    /**
+     * Directory of the store.
+     */
+    private final Path root;
+
+    /**
+     * Thread which records versions and compacts the store.
+     */
+    private final ScheduledExecutorService executor;
+
+    /**
+     * Creates the store in given directory, which is created when the first
+     * version is recorded.
+     * @param root directory of the store
+     */
+    public HistoryStore(Path root) {
+        this.root = root;
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, "history");
+            t.setDaemon(true);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(() -> {
+            try {
+                compact();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }, 1, COMPACT_PERIOD, TimeUnit.MINUTES);
+        this.executor = executor;
+    }
+
+    /**
+     * Returns directory of the store in user's home directory.
+     * @return default directory of the store
+     */
+    public static Path defaultRoot() {
+        return Paths.get(System.getProperty("user.home"), ".jnotepadpp", "history");
+    }
+
+    /**
+     * Requests recording given snapshot as the newest version of given file.
+     * The snapshot isn't recorded if it is the same as the newest version.
+     * @param file file the snapshot was saved to
+     * @param snapshot saved text, it must not change
+     */
+    public void record(Path file, TextSource snapshot) {
+        Path key = file.toAbsolutePath();
+        try {
+            executor.execute(() -> {
+                try {
+                    write(key, snapshot);
+                } catch (IOException | BadLocationException ex) {
+                    ex.printStackTrace();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            // the store is closed, the application is exiting
+        }
+    }
+
+    /**
+     * Returns recorded versions of given file.
+     * @param file file whose versions are listed
+     * @return versions of the file, newest first
+     * @throws IOException if the versions can't be listed
+     */
+    public List<Version> getVersions(Path file) throws IOException {
+        Path key = file.toAbsolutePath();
+        Path dir = versionsDir(key);
+        List<Version> versions = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return versions;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.v")) {
+            for (Path manifest : stream) {
+                String name = manifest.getFileName().toString();
+                try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest))) {
+                    if (in.readInt() != VERSION_MAGIC) {
+                        continue;
+                    }
+                    long time = Long.parseLong(name.substring(0, name.length() - 2));
+                    versions.add(new Version(key, manifest, time, in.readLong()));
+                } catch (NumberFormatException | NoSuchFileException ex) {
+                    continue;
+                }
+            }
+        }
+        Collections.sort(versions, (a, b) -> Long.compare(b.time, a.time));
+        return versions;
+    }
+
+    /**
+     * Appends text of given version to the end of given document. Chunks
+     * are read and inserted one by one, so the version is never held in
+     * memory as a whole.
+     * @param version restored version
+     * @param doc document which receives the text
+     * @throws IOException if a chunk of the version can't be read
+     * @throws BadLocationException if the document can't be changed
+     */
+    public void restore(Version version, Document doc) throws IOException, BadLocationException {
+        for (byte[] hash : readHashes(version.manifest)) {
+            Path chunk = chunkFile(hash);
+            try (InputStream in = new InflaterInputStream(Files.newInputStream(chunk))) {
+                String text = new String(readAll(in), StandardCharsets.UTF_8);
+                doc.insertString(doc.getLength(), text, null);
+            }
+        }
+    }
+
+    /**
+     * Stops the background thread, waiting for the requested versions to be
+     * recorded for at most given time.
+     * @param timeout maximum time to wait in milliseconds
+     */
+    public void close(long timeout) {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Forgets versions which are older than {@link #MAX_AGE} or above
+     * {@link #MAX_VERSIONS}, and deletes chunks which are not listed by any of
+     * the remaining versions. Has to be called on the store's thread.
+     * @throws IOException if the store can't be read
+     */
+    private void compact() throws IOException {
+        Path versionsRoot = root.resolve("versions");
+        Path chunksRoot = root.resolve("chunks");
+        if (!Files.isDirectory(versionsRoot) || !Files.isDirectory(chunksRoot)) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Set<String> used = new HashSet<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(versionsRoot)) {
+            for (Path dir : files) {
+                List<Path> manifests = new ArrayList<>();
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.v")) {
+                    for (Path manifest : stream) {
+                        manifests.add(manifest);
+                    }
+                }
+                Collections.sort(manifests, Collections.reverseOrder());
+                for (int i = 0; i < manifests.size(); i++) {
+                    Path manifest = manifests.get(i);
+                    String name = manifest.getFileName().toString();
+                    long time;
+                    try {
+                        time = Long.parseLong(name.substring(0, name.length() - 2));
+                    } catch (NumberFormatException ex) {
+                        continue;
+                    }
+                    if (i > 0 && (i >= MAX_VERSIONS || now - time > MAX_AGE)) {
+                        Files.delete(manifest);
+                        continue;
+                    }
+                    for (byte[] hash : readHashes(manifest)) {
+                        used.add(toHex(hash));
+                    }
+                }
+                if (manifests.isEmpty()) {
+                    deleteDirectory(dir);
+                }
+            }
+        }
+
+        try (DirectoryStream<Path> buckets = Files.newDirectoryStream(chunksRoot)) {
+            for (Path bucket : buckets) {
+                try (DirectoryStream<Path> chunks = Files.newDirectoryStream(bucket)) {
+                    for (Path chunk : chunks) {
+                        if (!used.contains(chunk.getFileName().toString())) {
+                            Files.delete(chunk);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Records a version. Has to be called on the store's thread.
+     * @param key absolute path of the saved file
+     * @param snapshot saved text
+     * @throws IOException if the version can't be written
+     * @throws BadLocationException if the snapshot can't be read
+     */
+    private void write(Path key, TextSource snapshot) throws IOException, BadLocationException {
+        MessageDigest digest = sha256();
+        List<byte[]> hashes = new ArrayList<>();
+        char[] chunk = new char[MAX_CHUNK + 1];
+        int size = 0;
+        long hash = 0;
+
+        int length = snapshot.length();
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        int offset = 0;
+        while (offset < length) {
+            snapshot.getText(offset, length - offset, segment);
+            for (int i = 0; i < segment.count; i++) {
+                char c = segment.array[segment.offset + i];
+                chunk[size++] = c;
+                hash = (hash << 1) + GEAR[(c ^ (c >>> 8)) & 0xff];
+                // a surrogate pair isn't split unless the chunk is full, which
+                // only happens after a run of unpaired high surrogates
+                if ((size >= MIN_CHUNK && (hash & CHUNK_MASK) == 0 || size >= MAX_CHUNK)
+                        && (!Character.isHighSurrogate(c) || size == chunk.length)) {
+                    hashes.add(storeChunk(digest, chunk, size));
+                    size = 0;
+                    hash = 0;
+                }
+            }
+            offset += segment.count;
+        }
+        if (size > 0) {
+            hashes.add(storeChunk(digest, chunk, size));
+        }
+
+        Path dir = versionsDir(key);
+        Files.createDirectories(dir);
+        List<Version> versions = getVersions(key);
+        if (!versions.isEmpty() && versions.get(0).length == length) {
+            List<byte[]> newest = readHashes(versions.get(0).manifest);
+            if (newest.size() == hashes.size()) {
+                boolean same = true;
+                for (int i = 0; i < hashes.size() && same; i++) {
+                    same = Arrays.equals(newest.get(i), hashes.get(i));
+                }
+                if (same) {
+                    return;
+                }
+            }
+        }
+
+        Path pathFile = dir.resolve("path");
+        if (!Files.exists(pathFile)) {
+            Files.write(pathFile, key.toString().getBytes(StandardCharsets.UTF_8));
+        }
+        long time = System.currentTimeMillis();
+        if (!versions.isEmpty() && versions.get(0).time >= time) {
+            time = versions.get(0).time + 1;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(16 + hashes.size() * HASH_SIZE);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(VERSION_MAGIC);
+            out.writeLong(length);
+            out.writeInt(hashes.size());
+            for (byte[] h : hashes) {
+                out.write(h);
+            }
+        }
+        writeAtomically(dir.resolve(time + ".v"), bytes.toByteArray());
+    }
+
+    /**
+     * Stores a chunk unless a chunk with the same text is already stored.
+     * @param digest digest used for hashing
+     * @param chars array holding the chunk
+     * @param size number of characters of the chunk
+     * @return hash of the chunk
+     * @throws IOException if the chunk can't be written
+     */
+    private byte[] storeChunk(MessageDigest digest, char[] chars, int size) throws IOException {
+        byte[] text = new String(chars, 0, size).getBytes(StandardCharsets.UTF_8);
+        byte[] hash = digest.digest(text);
+        Path file = chunkFile(hash);
+        if (Files.exists(file)) {
+            return hash;
+        }
+
+        Files.createDirectories(file.getParent());
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(text.length / 4 + 64);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (OutputStream out = new DeflaterOutputStream(compressed, deflater)) {
+            out.write(text);
+        } finally {
+            deflater.end();
+        }
+        writeAtomically(file, compressed.toByteArray());
+        return hash;
+    }
+
+    /**
+     * Writes a file through a temporary file, so the file is either complete
+     * or missing.
+     * @param file written file
+     * @param data content of the file
+     * @throws IOException if the file can't be written
+     */
+    private static void writeAtomically(Path file, byte[] data) throws IOException {
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.write(temp, data);
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads hashes of the chunks of a version.
+     * @param manifest file of the version
+     * @return hashes of the chunks in order
+     * @throws IOException if the file can't be read
+     */
+    private static List<byte[]> readHashes(Path manifest) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest))) {
+            if (in.readInt() != VERSION_MAGIC) {
+                throw new IOException("Not a version file: " + manifest);
+            }
+            in.readLong();
+            int count = in.readInt();
+            List<byte[]> hashes = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                byte[] hash = new byte[HASH_SIZE];
+                in.readFully(hash);
+                hashes.add(hash);
+            }
+            return hashes;
+        }
+    }
+
+    /**
+     * Returns directory which holds versions of given file.
+     * @param key absolute path of the file
+     * @return directory of the file's versions
+     */
+    private Path versionsDir(Path key) {
+        byte[] hash = sha256().digest(key.toString().getBytes(StandardCharsets.UTF_8));
+        return root.resolve("versions").resolve(toHex(hash).substring(0, 32));
+    }
+
+    /**
+     * Returns file which holds chunk with given hash.
+     * @param hash hash of the chunk
+     * @return file of the chunk
+     */
+    private Path chunkFile(byte[] hash) {
+        String name = toHex(hash);
+        return root.resolve("chunks").resolve(name.substring(0, 2)).resolve(name);
+    }
+
+    /**
+     * Deletes a directory and the files in it.
+     * @param dir deleted directory
+     * @throws IOException if the directory can't be deleted
+     */
+    private static void deleteDirectory(Path dir) throws IOException {
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path file : stream) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    /**
+     * Reads the rest of a stream.
+     * @param in read stream
+     * @return read bytes
+     * @throws IOException if the stream can't be read
+     */
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1 << 16];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Returns hexadecimal form of given bytes.
+     * @param bytes converted bytes
+     * @return lowercase hexadecimal digits
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+            sb.append(Character.forDigit(b & 0xf, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Creates SHA-256 digest, which every Java platform supports.
+     * @return new digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Recorded version of a file.
+     * @author Luka Kraljević
+     *
+     */
+    public static final class Version {
+
+        /**
+         * Format of the time shown for a version.
+         */
+        private static final DateTimeFormatter FORMAT =
+                DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+        /**
+         * Absolute path of the file.
+         */
+        private final Path file;
+
+        /**
+         * File which lists chunks of the version.
+         */
+        private final Path manifest;
+
+        /**
+         * Time the version was saved, in milliseconds since the epoch.
+         */
+        private final long time;
+
+        /**
+         * Number of characters of the version.
+         */
+        private final long length;
+
+        /**
+         * Creates the version.
+         * @param file absolute path of the file
+         * @param manifest file which lists chunks of the version
+         * @param time time the version was saved
+         * @param length number of characters of the version
+         */
+        private Version(Path file, Path manifest, long time, long length) {
+            this.file = file;
+            this.manifest = manifest;
+            this.time = time;
+            this.length = length;
+        }
+
+        /**
+         * @return absolute path of the file
+         */
+        public Path getFile() {
+            return file;
+        }
+
+        /**
+         * @return time the version was saved, in milliseconds since the epoch
+         */
+        public long getTime() {
+            return time;
+        }
+
+        /**
+         * @return number of characters of the version
+         */
+        public long getLength() {
+            return length;
+        }
+
+        @Override
+        public String toString() {
+            return FORMAT.format(Instant.ofEpochMilli(time)) + " (" + length + " characters)";
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.text.MappedContent;
+
+/**
+ * Decodes a UTF-8 or single-byte encoded file in parallel. The file is mapped
+ * into memory and split into chunks which start on code point boundaries.
+ * Chunks are decoded on the common fork/join pool and handed over in the
+ * order they appear in the file.
+ * Only a few chunks are decoded ahead of the one being handed over, so the
+ * file is never held in memory as a whole, neither as bytes nor as text.
+ * @author Luka Kraljević
+ *
+ */
+public class ParallelDecoder {
+
+    /**
+     * Approximate size of one chunk in bytes.
+     */
+    private static final int CHUNK_SIZE = 1 << 20;
+
+    /**
+     * Utility class, no instances.
+     */
+    private ParallelDecoder() {
+    }
+
+    /**
+     * Decodes the file from given path. Files must be smaller than 2 GB.
+     * @param path path of the file
+     * @param charset charset of the file, which must be supported by
+     * {@link MappedContent#supports(Charset)}
+     * @param offset number of bytes at the beginning of the file which are
+     * skipped, such as the byte order mark
+     * @param consumer receives decoded chunks in order of the file, and may
+     * block to hold the decoding back until it has used them
+     * @param progress receives number of bytes decoded so far
+     * @throws IOException if the file can't be read
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    public static void decode(Path path, Charset charset, int offset,
+            Consumer<CharBuffer> consumer, LongConsumer progress) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File " + path + " is too large to be decoded.");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        int size = buffer.limit();
+        int window = 2 * ForkJoinPool.getCommonPoolParallelism() + 1;
+        Deque<ForkJoinTask<CharBuffer>> pending = new ArrayDeque<>();
+        Deque<Integer> ends = new ArrayDeque<>();
+        boolean utf8 = charset.equals(StandardCharsets.UTF_8);
+        int start = Math.min(offset, size);
+
+        try {
+            while (start < size || !pending.isEmpty()) {
+                while (start < size && pending.size() < window) {
+                    int end = Math.min(size, start + CHUNK_SIZE);
+                    if (utf8) {
+                        end = boundary(buffer, end);
+                    }
+                    ByteBuffer chunk = buffer.duplicate();
+                    chunk.limit(end);
+                    chunk.position(start);
+                    pending.add(ForkJoinPool.commonPool().submit(() -> decodeChunk(chunk, charset)));
+                    ends.add(end);
+                    start = end;
+                }
+
+                CharBuffer chars;
+                try {
+                    chars = pending.peek().get();
+                } catch (ExecutionException ex) {
+                    throw new IOException("Error while decoding " + path, ex.getCause());
+                }
+                pending.poll();
+                consumer.accept(chars);
+                progress.accept(ends.poll());
+            }
+        } catch (InterruptedException ex) {
+            for (ForkJoinTask<CharBuffer> task : pending) {
+                task.cancel(true);
+            }
+            throw new InterruptedIOException("Decoding of " + path + " was interrupted.");
+        }
+    }
+
+    /**
+     * Moves given position forward to the first byte which starts a code
+     * point.
+     * @param buffer bytes of the file
+     * @param pos position to be adjusted
+     * @return nearest code point boundary not before given position
+     */
+    private static int boundary(ByteBuffer buffer, int pos) {
+        while (pos < buffer.limit() && (buffer.get(pos) & 0xC0) == 0x80) {
+            pos++;
+        }
+        return pos;
+    }
+
+    /**
+     * Decodes one chunk. Supported charsets never produce more characters
+     * than they have bytes, so the output buffer is allocated only once.
+     * @param chunk bytes of the chunk
+     * @param charset charset of the file
+     * @return decoded characters, ready to be read
+     */
+    private static CharBuffer decodeChunk(ByteBuffer chunk, Charset charset) {
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer out = CharBuffer.allocate(chunk.remaining());
+        decoder.decode(chunk, out, true);
+        decoder.flush(out);
+        out.flip();
+        return out;
+    }
+}
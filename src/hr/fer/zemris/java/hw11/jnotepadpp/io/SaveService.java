@@ -0,0 +1,208 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes snapshots of documents to disk on a small pool of background
+ * threads. Saves of the same file are coalesced: while the file is being
+ * written, only the newest of the requested snapshots is remembered and it is
+ * written once the current write finishes. Everybody who asked for one of the
+ * skipped snapshots is notified when the newest one is written. Written
+ * snapshots are recorded in the local history, if the service has one.
+ * @author Luka Kraljević
+ *
+ */
+public class SaveService {
+
+    /**
+     * Threads which write the files.
+     */
+    private final ExecutorService pool;
+
+    /**
+     * Writer used by each of the threads.
+     */
+    private final ThreadLocal<DocumentWriter> writers =
+            ThreadLocal.withInitial(DocumentWriter::new);
+
+    /**
+     * Files which are being written, guarded by this service.
+     */
+    private final Map<Path, Job> jobs = new HashMap<>();
+
+    /**
+     * Local history which records written snapshots, or null.
+     */
+    private volatile HistoryStore history;
+
+    /**
+     * Creates the service with at most given number of parallel writes.
+     * @param threads number of writing threads
+     */
+    public SaveService(int threads) {
+        pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "save");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Requests writing given snapshot to given file.
+     * @param snapshot text which will be written, it must not change
+     * @param target file to be written
+     * @param charset charset used for encoding
+     * @return future which completes when given snapshot, or a newer one for
+     * the same file, is written
+     */
+    public CompletableFuture<Void> save(TextSource snapshot, Path target, Charset charset) {
+        return save(snapshot, target, new FileFormat(charset, Compression.NONE), null);
+    }
+
+    /**
+     * Requests writing given snapshot to given file, writing only its changed
+     * part if possible.
+     * @param snapshot text which will be written, it must not change
+     * @param target file to be written
+     * @param format charset and compression of the file
+     * @param delta changes of the snapshot since the file was written, or null
+     * if they are unknown
+     * @return future which completes when given snapshot, or a newer one for
+     * the same file, is written
+     */
+    public synchronized CompletableFuture<Void> save(TextSource snapshot, Path target,
+            FileFormat format, ChangeTracker.Delta delta) {
+        Path key = target.toAbsolutePath();
+        Job job = jobs.get(key);
+        if (job != null) {
+            if (job.pendingFuture == null) {
+                job.pendingFuture = new CompletableFuture<>();
+            }
+            job.pending = snapshot;
+            job.pendingFormat = format;
+            job.pendingDelta = delta;
+            return job.pendingFuture;
+        }
+
+        job = new Job(key);
+        jobs.put(key, job);
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        job.running = future;
+        Job started = job;
+        pool.execute(() -> run(started, snapshot, format, delta, future));
+        return future;
+    }
+
+    /**
+     * Sets local history which records every written snapshot.
+     * @param history local history, or null to stop recording
+     */
+    public void setHistory(HistoryStore history) {
+        this.history = history;
+    }
+
+    /**
+     * Returns unfinished writes, keyed by the file they write.
+     * @return futures of writes which are not finished yet
+     */
+    public synchronized Map<Path, CompletableFuture<Void>> getPending() {
+        Map<Path, CompletableFuture<Void>> pending = new LinkedHashMap<>();
+        for (Job job : jobs.values()) {
+            pending.put(job.target, job.pendingFuture != null ? job.pendingFuture : job.running);
+        }
+        return pending;
+    }
+
+    /**
+     * Writes snapshots of one file until there are no more pending ones.
+     * @param job job of the file
+     * @param snapshot first snapshot to be written
+     * @param format format of the first snapshot
+     * @param delta changes of the first snapshot or null
+     * @param future future of the first snapshot
+     */
+    private void run(Job job, TextSource snapshot, FileFormat format,
+            ChangeTracker.Delta delta, CompletableFuture<Void> future) {
+        while (true) {
+            try {
+                writers.get().write(snapshot, job.target, format, delta);
+                HistoryStore store = history;
+                if (store != null) {
+                    store.record(job.target, snapshot);
+                }
+                future.complete(null);
+            } catch (Throwable ex) {
+                future.completeExceptionally(ex);
+            }
+
+            synchronized (this) {
+                if (job.pending == null) {
+                    jobs.remove(job.target);
+                    return;
+                }
+                snapshot = job.pending;
+                format = job.pendingFormat;
+                delta = job.pendingDelta;
+                future = job.pendingFuture;
+                job.pending = null;
+                job.pendingFormat = null;
+                job.pendingDelta = null;
+                job.pendingFuture = null;
+                job.running = future;
+            }
+        }
+    }
+
+    /**
+     * Writing state of one file.
+     * @author Luka Kraljević
+     *
+     */
+    private static class Job {
+
+        /**
+         * File which is written.
+         */
+        final Path target;
+
+        /**
+         * Future of the snapshot which is being written.
+         */
+        CompletableFuture<Void> running;
+
+        /**
+         * Newest snapshot waiting to be written or null.
+         */
+        TextSource pending;
+
+        /**
+         * Format of the pending snapshot.
+         */
+        FileFormat pendingFormat;
+
+        /**
+         * Changes of the pending snapshot.
+         */
+        ChangeTracker.Delta pendingDelta;
+
+        /**
+         * Future of the pending snapshot.
+         */
+        CompletableFuture<Void> pendingFuture;
+
+        /**
+         * Creates job for given file.
+         * @param target file which is written
+         */
+        Job(Path target) {
+            this.target = target;
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument.Content;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineIndex;
+import hr.fer.zemris.java.hw11.jnotepadpp.text.LineIndexedDocument;
+
+/**
+ * Immutable view of a document's text at one version, which can be read
+ * from any thread while the document itself keeps changing. Contents which
+ * can take snapshots share their storage with the snapshot, documents which
+ * can't change are read directly, and the text of other documents is copied
+ * into chunks of fixed size, so no single huge array is allocated.
+ * <p>
+ * Work done on a snapshot can check with {@link #isCurrent()} whether the
+ * document changed in the meantime and discard its result if it did.
+ * @author Luka Kraljević
+ *
+ */
+public class TextSnapshot implements TextSource {
+
+    /**
+     * Number of characters in one chunk of copied text.
+     */
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    /**
+     * Document whose text this is.
+     */
+    private final Document doc;
+
+    /**
+     * Version of the document when the snapshot was taken.
+     */
+    private final long version;
+
+    /**
+     * Text of the snapshot.
+     */
+    private final TextSource text;
+
+    /**
+     * Lines of the snapshot, or null if they aren't indexed.
+     */
+    private final LineIndex lines;
+
+    /**
+     * Creates the snapshot.
+     * @param doc document whose text this is
+     * @param text text of the snapshot
+     * @param lines lines of the snapshot, or null if they aren't indexed
+     */
+    private TextSnapshot(Document doc, TextSource text, LineIndex lines) {
+        this.doc = doc;
+        this.version = DocumentVersion.of(doc).get();
+        this.text = text;
+        this.lines = lines;
+    }
+
+    /**
+     * Takes snapshot of given document. Must be called on the Event Dispatch
+     * Thread.
+     * @param doc document whose text is taken
+     * @return snapshot of the document's text
+     */
+    public static TextSnapshot of(Document doc) {
+        if (doc instanceof LineIndexedDocument) {
+            Content content = ((LineIndexedDocument) doc).snapshot();
+            if (content != null) {
+                TextSource text = new TextSource() {
+
+                    @Override
+                    public int length() {
+                        return content.length() - 1;
+                    }
+
+                    @Override
+                    public void getText(int offset, int length, Segment txt) throws BadLocationException {
+                        content.getChars(offset, length, txt);
+                    }
+                };
+                return new TextSnapshot(doc, text,
+                        content instanceof LineIndex ? (LineIndex) content : null);
+            }
+        }
+        return new TextSnapshot(doc, copy(doc), null);
+    }
+
+    /**
+     * Copies text of given document into chunks.
+     * @param doc document whose text is copied
+     * @return copied text
+     */
+    private static TextSource copy(Document doc) {
+        int length = doc.getLength();
+        List<char[]> chunks = new ArrayList<>(length / CHUNK_SIZE + 1);
+        Segment segment = new Segment();
+        segment.setPartialReturn(true);
+        char[] chunk = null;
+        int filled = CHUNK_SIZE;
+        int pos = 0;
+
+        try {
+            while (pos < length) {
+                if (filled == CHUNK_SIZE) {
+                    chunk = new char[Math.min(CHUNK_SIZE, length - pos)];
+                    chunks.add(chunk);
+                    filled = 0;
+                }
+                doc.getText(pos, Math.min(chunk.length - filled, length - pos), segment);
+                System.arraycopy(segment.array, segment.offset, chunk, filled, segment.count);
+                filled += segment.count;
+                pos += segment.count;
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return new CopiedText(chunks, length);
+    }
+
+    /**
+     * @return the document whose text this is
+     */
+    public Document getDocument() {
+        return doc;
+    }
+
+    /**
+     * @return the version of the document when the snapshot was taken
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Returns lines of the snapshot, if the document indexes them.
+     * @return index of the lines, or null
+     */
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    /**
+     * Checks if the document still has the text of this snapshot. May be
+     * called from any thread.
+     * @return true if the document didn't change since the snapshot was taken
+     */
+    public boolean isCurrent() {
+        return DocumentVersion.of(doc).get() == version;
+    }
+
+    @Override
+    public int length() {
+        return text.length();
+    }
+
+    @Override
+    public void getText(int offset, int length, Segment txt) throws BadLocationException {
+        text.getText(offset, length, txt);
+    }
+
+    /**
+     * Text copied into chunks.
+     * @author Luka Kraljević
+     *
+     */
+    private static class CopiedText implements TextSource {
+
+        /**
+         * Copied chunks, all of them full except the last one.
+         */
+        private final List<char[]> chunks;
+
+        /**
+         * Length of the text.
+         */
+        private final int length;
+
+        /**
+         * Creates the text from given chunks.
+         * @param chunks copied chunks
+         * @param length length of the text
+         */
+        CopiedText(List<char[]> chunks, int length) {
+            this.chunks = chunks;
+            this.length = length;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void getText(int offset, int length, Segment txt) throws BadLocationException {
+            if (offset < 0 || length < 0 || offset + length > this.length) {
+                throw new BadLocationException("Invalid range", offset);
+            }
+
+            int index = offset / CHUNK_SIZE;
+            int local = offset % CHUNK_SIZE;
+            if (txt.isPartialReturn() || local + length <= CHUNK_SIZE) {
+                txt.array = length == 0 ? new char[0] : chunks.get(index);
+                txt.offset = local;
+                txt.count = Math.min(length, CHUNK_SIZE - local);
+                return;
+            }
+
+            char[] copy = new char[length];
+            int done = 0;
+            while (done < length) {
+                char[] chunk = chunks.get(index++);
+                int n = Math.min(length - done, chunk.length - local);
+                System.arraycopy(chunk, local, copy, done, n);
+                done += n;
+                local = 0;
+            }
+            txt.array = copy;
+            txt.offset = 0;
+            txt.count = length;
+        }
+    }
+}
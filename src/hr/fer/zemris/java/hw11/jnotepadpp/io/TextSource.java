@@ -0,0 +1,52 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.io;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Segment;
+
+/**
+ * Text which can be read piece by piece through {@link Segment}s, like the
+ * text of a {@link Document}.
+ * @author Luka Kraljević
+ *
+ */
+public interface TextSource {
+
+    /**
+     * Returns number of characters of the text.
+     * @return length of the text
+     */
+    public int length();
+
+    /**
+     * Fetches part of the text into given segment. If the segment allows
+     * partial return, fewer characters than requested may be returned.
+     * @param offset offset of the first character
+     * @param length number of characters
+     * @param txt segment which receives the text
+     * @throws BadLocationException if the range is not inside the text
+     */
+    public void getText(int offset, int length, Segment txt) throws BadLocationException;
+
+    /**
+     * Returns source which reads given document directly. The document must
+     * not change while the source is being read.
+     * @param doc document to be read
+     * @return source of document's text
+     */
+    public static TextSource of(Document doc) {
+        return new TextSource() {
+
+            @Override
+            public int length() {
+                return doc.getLength();
+            }
+
+            @Override
+            public void getText(int offset, int length, Segment txt)
+                    throws BadLocationException {
+                doc.getText(offset, length, txt);
+            }
+        };
+    }
+}
@@ -0,0 +1,769 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.lang.ref.WeakReference;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Content which stores text in chunks of bytes. A chunk whose characters are
+ * all Latin-1 keeps one byte per character, as compact strings do, and only
+ * chunks which contain other characters use two bytes per character. Bytes
+ * can be kept in direct buffers, outside of the heap, so large documents
+ * neither need a large heap nor make garbage collection slower.
+ * <p>
+ * Chunks are never longer than {@link #CHUNK_SIZE} characters, so an edit
+ * only moves the characters of the chunks it touches. Starts of the lines are
+ * kept in a {@link LineStartIndex}, so the document needs no object per line.
+ * <p>
+ * Snapshots share the chunks with the content. A shared chunk is copied
+ * before it is changed for the first time, so a snapshot costs only as much
+ * as the chunks which are edited afterwards.
+ * @author Luka Kraljević
+ *
+ */
+public class CompactContent implements SnapshotContent, LineIndex {
+
+    /**
+     * Maximum number of characters in a chunk.
+     */
+    private static final int CHUNK_SIZE = 1 << 15;
+
+    /**
+     * Smallest capacity of a chunk in bytes.
+     */
+    private static final int MIN_CAPACITY = 64;
+
+    /**
+     * Flag which indicates that chunks are kept in direct buffers.
+     */
+    private final boolean offHeap;
+
+    /**
+     * Chunks of the text, there is always at least one.
+     */
+    private Chunk[] chunks = new Chunk[16];
+
+    /**
+     * Offsets where the chunks start.
+     */
+    private int[] starts = new int[16];
+
+    /**
+     * Number of chunks.
+     */
+    private int count;
+
+    /**
+     * Number of text characters, without the implied line break at the end.
+     */
+    private int length;
+
+    /**
+     * Starts of the lines.
+     */
+    private final LineStartIndex lines;
+
+    /**
+     * Positions which follow the changes of the text.
+     */
+    private final List<WeakReference<Mark>> marks = new ArrayList<>();
+
+    /**
+     * Creates empty content.
+     * @param offHeap true if the text is kept outside of the heap
+     */
+    public CompactContent(boolean offHeap) {
+        this.offHeap = offHeap;
+        this.lines = new LineStartIndex();
+        chunks[0] = new Chunk(new char[0], 0, 0);
+        count = 1;
+    }
+
+    /**
+     * Creates snapshot of another content, which shares its chunks.
+     * @param other content whose text is copied
+     */
+    private CompactContent(CompactContent other) {
+        this.offHeap = other.offHeap;
+        this.lines = other.lines.snapshot();
+        this.chunks = Arrays.copyOf(other.chunks, other.count);
+        this.starts = Arrays.copyOf(other.starts, other.count);
+        this.count = other.count;
+        this.length = other.length;
+    }
+
+    @Override
+    public CompactContent snapshot() {
+        for (int i = 0; i < count; i++) {
+            chunks[i].shared = true;
+        }
+        return new CompactContent(this);
+    }
+
+    /**
+     * Checks if the text is kept outside of the heap.
+     * @return true if chunks are direct buffers
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * Returns number of bytes reserved for the text.
+     * @return capacity of all chunks in bytes
+     */
+    public long getStorageSize() {
+        long size = 0;
+        for (int i = 0; i < count; i++) {
+            size += chunks[i].data.capacity();
+        }
+        return size;
+    }
+
+    @Override
+    public int getLineCount() {
+        return lines.getLineCount();
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        return lines.getLineStart(line);
+    }
+
+    @Override
+    public int getLineOfOffset(int offset) {
+        return lines.getLineOfOffset(offset);
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        Mark mark = new Mark(offset);
+        marks.add(new WeakReference<>(mark));
+        return mark;
+    }
+
+    @Override
+    public int length() {
+        return length + 1;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > length) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        if (str.isEmpty()) {
+            return null;
+        }
+
+        insert(where, str.toCharArray(), 0, str.length());
+        return new InsertEdit(where, str.length());
+    }
+
+    /**
+     * Inserts characters from given array, without copying them into a
+     * string first.
+     * @param where offset of the insert
+     * @param text array with the inserted characters
+     * @param from index of the first inserted character
+     * @param to index after the last inserted character
+     * @return edit which undoes the insert, or null if nothing was inserted
+     * @throws BadLocationException if the offset isn't in the text
+     */
+    public UndoableEdit insertChars(int where, char[] text, int from, int to)
+            throws BadLocationException {
+        if (where < 0 || where > length) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        if (from == to) {
+            return null;
+        }
+
+        insert(where, text, from, to);
+        return new InsertEdit(where, to - from);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems > length) {
+            throw new BadLocationException("Invalid remove", where);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+
+        String removed = getString(where, nitems);
+        delete(where, nitems);
+        return new RemoveEdit(where, removed);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return new String(s.array, s.offset, s.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length + 1) {
+            throw new BadLocationException("Invalid range", where);
+        }
+
+        int index = where == length ? count - 1 : find(where);
+        if (txt.isPartialReturn()) {
+            int chunkEnd = starts[index] + chunks[index].length;
+            len = where == length ? len : Math.min(len, chunkEnd - where);
+        }
+        char[] array = new char[len];
+        int copied = 0;
+        while (copied < len && where + copied < length) {
+            Chunk chunk = chunks[index];
+            int local = where + copied - starts[index];
+            int n = Math.min(chunk.length - local, len - copied);
+            chunk.getChars(local, local + n, array, copied);
+            copied += n;
+            index++;
+        }
+        if (copied < len) {
+            array[copied] = '\n';
+        }
+        txt.array = array;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    /**
+     * Inserts characters into the text. A chunk which would become too long
+     * is split into evenly filled chunks.
+     * @param where offset of the insert
+     * @param text array with the inserted characters
+     * @param from index of the first inserted character
+     * @param to index after the last inserted character
+     */
+    private void insert(int where, char[] text, int from, int to) {
+        int n = to - from;
+        int index = where == 0 ? 0 : find(where - 1);
+        Chunk chunk = chunks[index];
+        int local = where - starts[index];
+        if (chunk.length + n <= CHUNK_SIZE) {
+            own(index).insert(local, text, from, to);
+        } else {
+            int total = chunk.length + n;
+            char[] all = new char[total];
+            chunk.getChars(0, local, all, 0);
+            System.arraycopy(text, from, all, local, n);
+            chunk.getChars(local, chunk.length, all, local + n);
+
+            int pieces = (total + CHUNK_SIZE - 1) / CHUNK_SIZE;
+            Chunk[] replacement = new Chunk[pieces];
+            for (int i = 0; i < pieces; i++) {
+                int first = (int) ((long) total * i / pieces);
+                int last = (int) ((long) total * (i + 1) / pieces);
+                replacement[i] = new Chunk(all, first, last);
+            }
+            replace(index, 1, replacement);
+        }
+        length += n;
+        updateStarts(index);
+        lines.inserted(where, text, from, to);
+        inserted(where, n);
+    }
+
+    /**
+     * Removes characters from the text. Chunks which become empty are
+     * dropped and small neighbouring chunks are joined.
+     * @param where offset of the remove
+     * @param nitems number of removed characters
+     */
+    private void delete(int where, int nitems) {
+        int first = find(where);
+        int index = first;
+        int local = where - starts[index];
+        int remaining = nitems;
+        while (remaining > 0) {
+            Chunk chunk = own(index);
+            int n = Math.min(chunk.length - local, remaining);
+            chunk.remove(local, local + n);
+            remaining -= n;
+            if (chunk.length == 0 && count > 1) {
+                replace(index, 1, new Chunk[0]);
+            } else {
+                index++;
+            }
+            local = 0;
+        }
+        length -= nitems;
+
+        first = Math.min(first, count - 1);
+        if (first + 1 < count) {
+            join(first);
+        }
+        if (first > 0) {
+            first--;
+            join(first);
+        }
+        updateStarts(first);
+        lines.removed(where, nitems);
+        removed(where, nitems);
+    }
+
+    /**
+     * Joins given chunk with the next one if both of them together are at
+     * most half full.
+     * @param index index of the chunk
+     */
+    private void join(int index) {
+        Chunk chunk = chunks[index];
+        Chunk next = chunks[index + 1];
+        if (chunk.length + next.length <= CHUNK_SIZE / 2) {
+            char[] text = new char[next.length];
+            next.getChars(0, next.length, text, 0);
+            own(index).insert(chunk.length, text, 0, text.length);
+            replace(index + 1, 1, new Chunk[0]);
+        }
+    }
+
+    /**
+     * Returns chunk which may be changed, copying it first if it is shared
+     * with a snapshot.
+     * @param index index of the chunk
+     * @return the chunk
+     */
+    private Chunk own(int index) {
+        if (chunks[index].shared) {
+            chunks[index] = new Chunk(chunks[index]);
+        }
+        return chunks[index];
+    }
+
+    /**
+     * Replaces a range of chunks with other chunks.
+     * @param index index of the first replaced chunk
+     * @param removed number of replaced chunks
+     * @param replacement new chunks
+     */
+    private void replace(int index, int removed, Chunk[] replacement) {
+        int newCount = count - removed + replacement.length;
+        if (newCount > chunks.length) {
+            int capacity = Math.max(newCount, chunks.length * 2);
+            chunks = Arrays.copyOf(chunks, capacity);
+            starts = Arrays.copyOf(starts, capacity);
+        }
+        System.arraycopy(chunks, index + removed, chunks, index + replacement.length,
+                count - index - removed);
+        System.arraycopy(replacement, 0, chunks, index, replacement.length);
+        for (int i = newCount; i < count; i++) {
+            chunks[i] = null;
+        }
+        count = newCount;
+    }
+
+    /**
+     * Recomputes starts of the chunks after given one.
+     * @param index index of the last chunk whose start is correct
+     */
+    private void updateStarts(int index) {
+        starts[0] = 0;
+        for (int i = index + 1; i < count; i++) {
+            starts[i] = starts[i - 1] + chunks[i - 1].length;
+        }
+    }
+
+    /**
+     * Finds the chunk which contains the character at given offset.
+     * @param offset offset of a text character
+     * @return index of the chunk
+     */
+    private int find(int offset) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Moves positions after an insert.
+     * @param where offset of the insert
+     * @param length number of inserted characters
+     */
+    private void inserted(int where, int length) {
+        Iterator<WeakReference<Mark>> it = marks.iterator();
+        while (it.hasNext()) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset > where || mark.offset == where && where != 0) {
+                mark.offset += length;
+            }
+        }
+    }
+
+    /**
+     * Moves positions after a remove.
+     * @param where offset of the remove
+     * @param length number of removed characters
+     */
+    private void removed(int where, int length) {
+        Iterator<WeakReference<Mark>> it = marks.iterator();
+        while (it.hasNext()) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset >= where + length) {
+                mark.offset -= length;
+            } else if (mark.offset > where) {
+                mark.offset = where;
+            }
+        }
+    }
+
+    /**
+     * Part of the text stored in a buffer, with one byte per character while
+     * all of its characters are Latin-1 and two bytes otherwise.
+     * @author Luka Kraljević
+     *
+     */
+    private final class Chunk {
+
+        /**
+         * Bytes of the characters.
+         */
+        ByteBuffer data;
+
+        /**
+         * Flag which indicates that characters take two bytes.
+         */
+        boolean wide;
+
+        /**
+         * Number of characters.
+         */
+        int length;
+
+        /**
+         * Flag which indicates that the chunk belongs to a snapshot too, so
+         * it must not be changed.
+         */
+        boolean shared;
+
+        /**
+         * Creates chunk with given characters.
+         * @param text array with the characters
+         * @param from index of the first character
+         * @param to index after the last character
+         */
+        Chunk(char[] text, int from, int to) {
+            wide = !isLatin1(text, from, to);
+            data = allocate((to - from) * unit());
+            write(0, text, from, to);
+            length = to - from;
+        }
+
+        /**
+         * Creates copy of given chunk.
+         * @param other copied chunk
+         */
+        Chunk(Chunk other) {
+            wide = other.wide;
+            length = other.length;
+            data = allocate(other.data.capacity());
+            data.put(other.slice(0, length * unit()));
+        }
+
+        /**
+         * @return number of bytes per character
+         */
+        int unit() {
+            return wide ? 2 : 1;
+        }
+
+        /**
+         * Copies characters of the chunk into an array.
+         * @param from index of the first copied character
+         * @param to index after the last copied character
+         * @param dst destination array
+         * @param at index in the array where copying starts
+         */
+        void getChars(int from, int to, char[] dst, int at) {
+            if (wide) {
+                for (int i = from; i < to; i++) {
+                    dst[at++] = data.getChar(i << 1);
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    dst[at++] = (char) (data.get(i) & 0xFF);
+                }
+            }
+        }
+
+        /**
+         * Inserts characters into the chunk, which has to stay short enough.
+         * The chunk is widened if any of the characters isn't Latin-1.
+         * @param at index where the characters are inserted
+         * @param text array with the characters
+         * @param from index of the first character
+         * @param to index after the last character
+         */
+        void insert(int at, char[] text, int from, int to) {
+            int n = to - from;
+            if (!wide && !isLatin1(text, from, to)) {
+                widen(n);
+            }
+            int unit = unit();
+            int needed = (length + n) * unit;
+            if (needed > data.capacity()) {
+                int capacity = Math.min(Math.max(needed, data.capacity() * 2), CHUNK_SIZE * unit);
+                ByteBuffer grown = allocate(capacity);
+                grown.put(slice(0, length * unit));
+                data = grown;
+            }
+            if (at < length) {
+                ByteBuffer moved = slice(at * unit, length * unit);
+                ByteBuffer target = data.duplicate();
+                target.position((at + n) * unit);
+                target.put(moved);
+            }
+            write(at, text, from, to);
+            length += n;
+        }
+
+        /**
+         * Removes characters from the chunk.
+         * @param from index of the first removed character
+         * @param to index after the last removed character
+         */
+        void remove(int from, int to) {
+            int unit = unit();
+            if (to < length) {
+                ByteBuffer moved = slice(to * unit, length * unit);
+                ByteBuffer target = data.duplicate();
+                target.position(from * unit);
+                target.put(moved);
+            }
+            length -= to - from;
+        }
+
+        /**
+         * Stores the characters with two bytes each.
+         * @param extra number of characters which will be inserted
+         */
+        private void widen(int extra) {
+            ByteBuffer wider = allocate(Math.min((length + extra) * 2, CHUNK_SIZE * 2));
+            for (int i = 0; i < length; i++) {
+                wider.putChar(i << 1, (char) (data.get(i) & 0xFF));
+            }
+            data = wider;
+            wide = true;
+        }
+
+        /**
+         * Writes characters over the chunk's bytes.
+         * @param at index of the first written character
+         * @param text array with the characters
+         * @param from index of the first character
+         * @param to index after the last character
+         */
+        private void write(int at, char[] text, int from, int to) {
+            if (wide) {
+                for (int i = from; i < to; i++) {
+                    data.putChar((at++) << 1, text[i]);
+                }
+            } else {
+                for (int i = from; i < to; i++) {
+                    data.put(at++, (byte) text[i]);
+                }
+            }
+        }
+
+        /**
+         * Returns view of a range of the chunk's bytes.
+         * @param from index of the first byte
+         * @param to index after the last byte
+         * @return view of the bytes
+         */
+        private ByteBuffer slice(int from, int to) {
+            ByteBuffer view = data.duplicate();
+            view.limit(to);
+            view.position(from);
+            return view;
+        }
+    }
+
+    /**
+     * Allocates a buffer for a chunk, on the heap or outside of it.
+     * @param capacity capacity in bytes
+     * @return new buffer
+     */
+    private ByteBuffer allocate(int capacity) {
+        capacity = Math.max(capacity, MIN_CAPACITY);
+        ByteBuffer buffer = offHeap ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return buffer.order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * Checks if all characters in a range of an array are Latin-1.
+     * @param text array with the characters
+     * @param from index of the first character
+     * @param to index after the last character
+     * @return true if no character is above 0xFF
+     */
+    private static boolean isLatin1(char[] text, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (text[i] > 0xFF) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position which follows the changes of the text.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Mark implements Position {
+
+        /**
+         * Current offset of the position.
+         */
+        int offset;
+
+        /**
+         * Creates the position.
+         * @param offset offset of the position
+         */
+        Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Undoable insert, which keeps the inserted text while it is undone.
+     * @author Luka Kraljević
+     *
+     */
+    private class InsertEdit extends AbstractUndoableEdit {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Offset of the insert.
+         */
+        private final int where;
+
+        /**
+         * Number of inserted characters.
+         */
+        private final int length;
+
+        /**
+         * Inserted text while the insert is undone.
+         */
+        private char[] text;
+
+        /**
+         * Creates the edit.
+         * @param where offset of the insert
+         * @param length number of inserted characters
+         */
+        InsertEdit(int where, int length) {
+            this.where = where;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            try {
+                text = getString(where, length).toCharArray();
+            } catch (BadLocationException ex) {
+                throw new CannotUndoException();
+            }
+            delete(where, length);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            insert(where, text, 0, text.length);
+            text = null;
+        }
+    }
+
+    /**
+     * Undoable remove, which keeps the removed text.
+     * @author Luka Kraljević
+     *
+     */
+    private class RemoveEdit extends AbstractUndoableEdit {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Offset of the remove.
+         */
+        private final int where;
+
+        /**
+         * Removed text.
+         */
+        private final String text;
+
+        /**
+         * Creates the edit.
+         * @param where offset of the remove
+         * @param text removed text
+         */
+        RemoveEdit(int where, String text) {
+            this.where = where;
+            this.text = text;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            insert(where, text.toCharArray(), 0, text.length());
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            delete(where, text.length());
+        }
+    }
+}
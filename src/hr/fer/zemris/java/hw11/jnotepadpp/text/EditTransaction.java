@@ -0,0 +1,199 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Caret;
+import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+
+/**
+ * Collects many changes of a text component's document and applies them as
+ * one replace of the changed range. Listeners get one removal and one insert
+ * instead of an event for every change, and the caret doesn't follow the
+ * document while the replace is applied, so the caret listeners, the status
+ * bar and the layout are updated only once. The replace is one entry of the
+ * component's {@link UndoHistory}.
+ * <p>
+ * Changes are given in offsets of the document as it was when the
+ * transaction was created, and must not overlap.
+ * @author Luka Kraljević
+ *
+ */
+public class EditTransaction {
+
+    /**
+     * Text component whose document is changed.
+     */
+    private final JTextComponent editor;
+
+    /**
+     * Changed document.
+     */
+    private final Document doc;
+
+    /**
+     * Collected changes.
+     */
+    private final List<Change> changes = new ArrayList<>();
+
+    /**
+     * Creates transaction for the document of given text component.
+     * @param editor text component whose document is changed
+     */
+    public EditTransaction(JTextComponent editor) {
+        this.editor = editor;
+        this.doc = editor.getDocument();
+    }
+
+    /**
+     * Adds replacement of a range of the document.
+     * @param offset offset where the range starts
+     * @param length length of the range
+     * @param text text which replaces the range
+     */
+    public void replace(int offset, int length, String text) {
+        changes.add(new Change(offset, offset + length, text));
+    }
+
+    /**
+     * Applies the collected changes. The selection is moved with the text
+     * around it, so a selection which covered the changed text covers the new
+     * text afterwards.
+     * @throws BadLocationException if a change is outside of the document or
+     * changes overlap
+     */
+    public void commit() throws BadLocationException {
+        if (changes.isEmpty()) {
+            return;
+        }
+        Collections.sort(changes, Comparator.comparingInt(c -> c.start));
+        for (int i = 1; i < changes.size(); i++) {
+            if (changes.get(i).start < changes.get(i - 1).end) {
+                throw new BadLocationException("Overlapping changes", changes.get(i).start);
+            }
+        }
+
+        int start = changes.get(0).start;
+        int end = changes.get(changes.size() - 1).end;
+        String old = doc.getText(start, end - start);
+        StringBuilder text = new StringBuilder();
+        int copied = start;
+        for (Change change : changes) {
+            text.append(old, copied - start, change.start - start);
+            text.append(change.text);
+            copied = change.end;
+        }
+
+        int prefix = 0;
+        int max = Math.min(old.length(), text.length());
+        while (prefix < max && old.charAt(prefix) == text.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        max -= prefix;
+        while (suffix < max
+                && old.charAt(old.length() - 1 - suffix) == text.charAt(text.length() - 1 - suffix)) {
+            suffix++;
+        }
+        if (prefix + suffix == old.length() && prefix + suffix == text.length()) {
+            return;
+        }
+
+        Caret caret = editor.getCaret();
+        int dot = map(caret.getDot());
+        int mark = map(caret.getMark());
+        int policy = -1;
+        if (caret instanceof DefaultCaret) {
+            policy = ((DefaultCaret) caret).getUpdatePolicy();
+            ((DefaultCaret) caret).setUpdatePolicy(DefaultCaret.NEVER_UPDATE);
+        }
+        UndoHistory history = UndoHistory.of(editor);
+        if (history != null) {
+            history.begin();
+        }
+        try {
+            int offset = start + prefix;
+            int length = old.length() - prefix - suffix;
+            String replacement = text.substring(prefix, text.length() - suffix);
+            if (doc instanceof AbstractDocument) {
+                ((AbstractDocument) doc).replace(offset, length, replacement, null);
+            } else {
+                doc.remove(offset, length);
+                doc.insertString(offset, replacement, null);
+            }
+        } finally {
+            if (history != null) {
+                history.end();
+            }
+            if (policy != -1) {
+                ((DefaultCaret) caret).setUpdatePolicy(policy);
+            }
+        }
+        int docLength = doc.getLength();
+        caret.setDot(Math.min(mark, docLength));
+        caret.moveDot(Math.min(dot, docLength));
+        changes.clear();
+    }
+
+    /**
+     * Finds where an offset of the old document is after the changes. Offsets
+     * inside a changed range move to its end, and so do offsets where text is
+     * only inserted, as the caret does when typing.
+     * @param offset offset in the old document
+     * @return offset in the changed document
+     */
+    private int map(int offset) {
+        int shift = 0;
+        for (Change change : changes) {
+            if (change.start > offset || change.start == offset && change.end > change.start) {
+                break;
+            }
+            if (change.end > offset) {
+                return change.start + change.text.length() + shift;
+            }
+            shift += change.text.length() - (change.end - change.start);
+        }
+        return offset + shift;
+    }
+
+    /**
+     * Replacement of a range of the old document.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Change {
+
+        /**
+         * Offset where the replaced range starts.
+         */
+        final int start;
+
+        /**
+         * Offset where the replaced range ends.
+         */
+        final int end;
+
+        /**
+         * Text which replaces the range.
+         */
+        final String text;
+
+        /**
+         * Creates the change.
+         * @param start offset where the replaced range starts
+         * @param end offset where the replaced range ends
+         * @param text text which replaces the range
+         */
+        Change(int start, int end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+    }
+}
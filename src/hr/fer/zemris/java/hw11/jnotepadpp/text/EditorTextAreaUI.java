@@ -0,0 +1,146 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.awt.event.ActionEvent;
+
+import javax.swing.ActionMap;
+import javax.swing.JTextArea;
+import javax.swing.UIManager;
+import javax.swing.plaf.basic.BasicTextAreaUI;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultEditorKit;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.TextAction;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+
+/**
+ * UI of editor's text areas. Documents which have a {@link LineIndex} are
+ * rendered with {@link LargeFileView}, or with {@link WrappedLargeFileView}
+ * if the text area wraps lines, all others the same way as in
+ * {@link BasicTextAreaUI}.
+ * <p>
+ * Moving the caret to the start or the end of a row asks those views where
+ * the row starts and ends, because the default actions measure every
+ * position of the row, which would take forever on a long line.
+ * @author Luka Kraljević
+ *
+ */
+public class EditorTextAreaUI extends BasicTextAreaUI {
+
+    /**
+     * Names of the actions which move the caret to the start or the end of a
+     * row.
+     */
+    private static final String[] ROW_ACTIONS = {
+            DefaultEditorKit.beginLineAction, DefaultEditorKit.selectionBeginLineAction,
+            DefaultEditorKit.endLineAction, DefaultEditorKit.selectionEndLineAction
+    };
+
+    @Override
+    public View create(Element elem) {
+        if (elem.getDocument() instanceof LineIndexedDocument) {
+            JTextComponent c = getComponent();
+            if (c instanceof JTextArea && ((JTextArea) c).getLineWrap()) {
+                return new WrappedLargeFileView(elem);
+            }
+            return new LargeFileView(elem);
+        }
+        return super.create(elem);
+    }
+
+    @Override
+    protected void installKeyboardActions() {
+        super.installKeyboardActions();
+        ActionMap map = getComponent().getActionMap();
+        for (int i = 0; i < ROW_ACTIONS.length; i++) {
+            map.put(ROW_ACTIONS[i], new RowAction(ROW_ACTIONS[i], i >= 2, i % 2 == 1));
+        }
+    }
+
+    @Override
+    protected void uninstallKeyboardActions() {
+        ActionMap map = getComponent().getActionMap();
+        for (String name : ROW_ACTIONS) {
+            map.remove(name);
+        }
+        super.uninstallKeyboardActions();
+    }
+
+    /**
+     * Returns start or end of the row which contains given position.
+     * @param target text component
+     * @param pos position in the document
+     * @param end true for the end of the row, false for the start
+     * @return offset of the row's start or end
+     * @throws BadLocationException if the position isn't in the document
+     */
+    private int rowBound(JTextComponent target, int pos, boolean end) throws BadLocationException {
+        View root = getRootView(target);
+        View view = root.getViewCount() > 0 ? root.getView(0) : null;
+        if (view instanceof WrappedLargeFileView) {
+            WrappedLargeFileView wrapped = (WrappedLargeFileView) view;
+            return end ? wrapped.getRowEnd(pos) : wrapped.getRowStart(pos);
+        }
+        if (view instanceof LargeFileView) {
+            LineIndexedDocument doc = (LineIndexedDocument) target.getDocument();
+            int line = doc.getDefaultRootElement().getElementIndex(pos);
+            int start = doc.getLineIndex().getLineStart(line);
+            return end ? start + LargeFileView.lineLength(doc, line) : start;
+        }
+        return end ? Utilities.getRowEnd(target, pos) : Utilities.getRowStart(target, pos);
+    }
+
+    /**
+     * Action which moves the caret to the start or the end of its row.
+     * @author Luka Kraljević
+     *
+     */
+    private class RowAction extends TextAction {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Flag which indicates that the caret moves to the end of the row.
+         */
+        private final boolean end;
+
+        /**
+         * Flag which indicates that the selection is extended.
+         */
+        private final boolean select;
+
+        /**
+         * Creates the action.
+         * @param name name of the action
+         * @param end true to move to the end of the row
+         * @param select true to extend the selection
+         */
+        RowAction(String name, boolean end, boolean select) {
+            super(name);
+            this.end = end;
+            this.select = select;
+        }
+
+        @Override
+        public void actionPerformed(ActionEvent e) {
+            JTextComponent target = getTextComponent(e);
+            if (target == null) {
+                return;
+            }
+            try {
+                int pos = rowBound(target, target.getCaretPosition(), end);
+                if (select) {
+                    target.moveCaretPosition(pos);
+                } else {
+                    target.setCaretPosition(pos);
+                }
+            } catch (BadLocationException ex) {
+                UIManager.getLookAndFeel().provideErrorFeedback(target);
+            }
+        }
+    }
+}
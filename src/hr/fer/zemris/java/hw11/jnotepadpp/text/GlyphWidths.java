@@ -0,0 +1,96 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.awt.FontMetrics;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Widths of characters of one font, asked from the font only once. Widths
+ * are fetched by pages of 256 characters, as characters of a text mostly come
+ * from a few pages. Widths of a font are shared by all views which use it.
+ * Must be used on the Event Dispatch Thread.
+ * @author Luka Kraljević
+ *
+ */
+final class GlyphWidths {
+
+    /**
+     * Widths of the fonts in use.
+     */
+    private static final Map<FontMetrics, GlyphWidths> CACHE = new WeakHashMap<>();
+
+    /**
+     * Metrics of the font.
+     */
+    private final FontMetrics metrics;
+
+    /**
+     * Widths of characters by pages, a page is null until it is used.
+     */
+    private final int[][] pages = new int[256][];
+
+    /**
+     * Width of a character in an average text.
+     */
+    private final float average;
+
+    /**
+     * Creates widths of given font.
+     * @param metrics metrics of the font
+     */
+    private GlyphWidths(FontMetrics metrics) {
+        this.metrics = metrics;
+        this.average = metrics.charWidth('n');
+    }
+
+    /**
+     * Returns widths of the font with given metrics.
+     * @param metrics metrics of the font
+     * @return widths of font's characters
+     */
+    static GlyphWidths of(FontMetrics metrics) {
+        return CACHE.computeIfAbsent(metrics, GlyphWidths::new);
+    }
+
+    /**
+     * Returns width of given character.
+     * @param c character
+     * @return width of the character
+     */
+    int width(char c) {
+        int[] page = pages[c >>> 8];
+        if (page == null) {
+            page = new int[256];
+            char base = (char) (c & 0xff00);
+            for (int i = 0; i < page.length; i++) {
+                page[i] = metrics.charWidth((char) (base + i));
+            }
+            pages[c >>> 8] = page;
+        }
+        return page[c & 0xff];
+    }
+
+    /**
+     * Returns x coordinate after given character. Tabs move to the next tab
+     * stop and line breaks take no space.
+     * @param x x coordinate before the character, relative to the start of
+     * the line
+     * @param c character
+     * @param tabStop width of one tab stop
+     * @return x coordinate after the character
+     */
+    double advance(double x, char c, float tabStop) {
+        if (c == '\t') {
+            return tabStop == 0 ? x : ((long) (x / tabStop) + 1) * tabStop;
+        }
+        return c == '\n' ? x : x + width(c);
+    }
+
+    /**
+     * @return width of a character in an average text, used to estimate
+     * widths of text which wasn't measured
+     */
+    float getAverage() {
+        return average;
+    }
+}
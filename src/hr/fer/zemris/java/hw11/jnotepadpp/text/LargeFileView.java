@@ -0,0 +1,655 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.awt.Component;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.PlainView;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * View for documents with a huge number of lines. Unlike {@link PlainView},
+ * it never measures every line to find the longest one. The preferred width
+ * grows as wider lines get painted, so only the visible lines are ever read,
+ * and the preferred height is just the number of lines times the line
+ * height. Lines of a fixed-pitch font which contain only ASCII characters
+ * are measured by counting characters instead of asking the font. Edits
+ * measure nothing, they only repaint the lines which moved.
+ * <p>
+ * Lines longer than {@link #LONG_LINE} characters are never read as a whole.
+ * Their x coordinates are remembered every {@link #CHECKPOINT} characters,
+ * found lazily from cached {@link GlyphWidths}, so only the visible columns
+ * of such a line are read and drawn, and the caret is placed by measuring
+ * from the nearest remembered coordinate. Until a long line is measured to
+ * its end, its width is estimated from the average character width.
+ * <p>
+ * Visible lines are found by {@link #firstVisibleLine(int, int, int)} and
+ * {@link #lastVisibleLine(int, int, int, int)}, which
+ * {@link LineNumberGutter} uses as well.
+ * @author Luka Kraljević
+ *
+ */
+public class LargeFileView extends PlainView {
+
+    /**
+     * Lines with more characters are drawn and measured only around their
+     * visible part.
+     */
+    static final int LONG_LINE = 4096;
+
+    /**
+     * Number of characters between two remembered x coordinates of a long
+     * line.
+     */
+    private static final int CHECKPOINT = 4096;
+
+    /**
+     * Number of long lines whose x coordinates are remembered.
+     */
+    private static final int CHECKPOINT_LINES = 16;
+
+    /**
+     * Largest width of a line, so that coordinates of a line don't overflow.
+     */
+    private static final int MAX_WIDTH = Integer.MAX_VALUE / 2;
+
+    /**
+     * Widest line measured so far.
+     */
+    private int widest;
+
+    /**
+     * Width of one tab stop.
+     */
+    private float tabStop;
+
+    /**
+     * X coordinate where tab stops start.
+     */
+    private int tabOrigin;
+
+    /**
+     * Width of every character of the font if the font has a fixed pitch,
+     * otherwise 0.
+     */
+    private int fixedWidth;
+
+    /**
+     * Buffer for reading visible lines.
+     */
+    private final Segment line = new Segment();
+
+    /**
+     * Buffer for reading parts of long lines.
+     */
+    private final Segment chunk = new Segment();
+
+    /**
+     * Widths of characters of the font.
+     */
+    private GlyphWidths widths;
+
+    /**
+     * Remembered x coordinates of the most recently used long lines, by
+     * index of the line.
+     */
+    private final Map<Integer, Checkpoints> checkpoints =
+            new LinkedHashMap<Integer, Checkpoints>(16, 0.75f, true) {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Checkpoints> eldest) {
+            return size() > CHECKPOINT_LINES;
+        }
+    };
+
+    /**
+     * Creates view for given element.
+     * @param elem root element of the document
+     */
+    public LargeFileView(Element elem) {
+        super(elem);
+        chunk.setPartialReturn(true);
+    }
+
+    @Override
+    protected void updateMetrics() {
+        Component host = getContainer();
+        FontMetrics current = host.getFontMetrics(host.getFont());
+        if (current != metrics) {
+            checkpoints.clear();
+        }
+        metrics = current;
+        widths = GlyphWidths.of(metrics);
+        tabStop = getTabSize() * metrics.charWidth('m');
+        int width = metrics.charWidth('m');
+        fixedWidth = metrics.charWidth('i') == width && metrics.charWidth('W') == width
+                && metrics.charWidth(' ') == width ? width : 0;
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == X_AXIS) {
+            return widest;
+        }
+        return (float) getElement().getElementCount() * metrics.getHeight();
+    }
+
+    /**
+     * Returns index of the first line which is at least partly below given
+     * y coordinate.
+     * @param y y coordinate, as the top of a clip
+     * @param top y coordinate of the first line
+     * @param height height of a line
+     * @return index of the line, never negative
+     */
+    static int firstVisibleLine(int y, int top, int height) {
+        return Math.max(0, (y - top) / height);
+    }
+
+    /**
+     * Returns index of the last line which is at least partly above given
+     * y coordinate.
+     * @param y y coordinate, as the bottom of a clip
+     * @param top y coordinate of the first line
+     * @param height height of a line
+     * @param count number of lines
+     * @return index of the line, -1 if there are no lines
+     */
+    static int lastVisibleLine(int y, int top, int height, int count) {
+        return Math.min(count - 1, Math.max(0, y - top) / height);
+    }
+
+    @Override
+    protected void updateDamage(DocumentEvent changes, Shape a, ViewFactory f) {
+        updateMetrics();
+        Element map = getElement();
+        int line = map.getElementIndex(changes.getOffset());
+        DocumentEvent.ElementChange change = changes.getChange(map);
+        LineIndex index = ((LineIndexedDocument) getDocument()).getLineIndex();
+        forget(checkpoints, line, changes.getOffset() - index.getLineStart(line), change);
+        if (change != null) {
+            // lines below the change moved, the width is found by painting
+            preferenceChanged(null, false, true);
+            damageLineRange(line, Math.max(line, map.getElementCount() - 1), a, getContainer());
+        } else {
+            damageLineRange(line, line, a, getContainer());
+        }
+    }
+
+    /**
+     * Forgets what was remembered about lines changed by a document change,
+     * and moves what is remembered about the lines below it if lines were
+     * added or removed. What is remembered about the first changed line is
+     * truncated to the part before the change.
+     * @param <T> type of what is remembered about a line
+     * @param lines what is remembered, by index of the line
+     * @param line index of the first changed line
+     * @param offset offset of the change in the first changed line
+     * @param change change of the lines, or null if no lines were added or
+     * removed
+     */
+    static <T extends Truncatable> void forget(Map<Integer, T> lines, int line, int offset,
+            DocumentEvent.ElementChange change) {
+        T first = lines.get(line);
+        if (first != null && !first.truncate(offset)) {
+            lines.remove(line);
+        }
+        if (change == null) {
+            return;
+        }
+        int removed = change.getChildrenRemoved().length;
+        int shift = change.getChildrenAdded().length - removed;
+        List<Map.Entry<Integer, T>> entries = new ArrayList<>(lines.entrySet());
+        lines.clear();
+        for (Map.Entry<Integer, T> e : entries) {
+            int index = e.getKey();
+            if (index <= line) {
+                lines.put(index, e.getValue());
+            } else if (index >= line + removed) {
+                lines.put(index + shift, e.getValue());
+            }
+        }
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabStop == 0) {
+            return x;
+        }
+        int ntabs = (int) ((x - (double) tabOrigin) / tabStop);
+        return (float) (tabOrigin + (ntabs + 1) * (double) tabStop);
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        Rectangle alloc = a.getBounds();
+        tabOrigin = alloc.x;
+        super.paint(g, a);
+
+        Rectangle clip = g.getClipBounds();
+        if (clip == null || metrics == null) {
+            return;
+        }
+        int height = metrics.getHeight();
+        Element map = getElement();
+        int first = firstVisibleLine(clip.y, alloc.y, height);
+        int last = lastVisibleLine(clip.y + clip.height, alloc.y, height, map.getElementCount());
+
+        int max = widest;
+        Document doc = getDocument();
+        LineIndex index = ((LineIndexedDocument) doc).getLineIndex();
+        for (int i = first; i <= last; i++) {
+            int p0 = index.getLineStart(i);
+            int length = lineLength((LineIndexedDocument) doc, i);
+            if (length > LONG_LINE) {
+                max = Math.max(max, estimateWidth(i, length));
+                continue;
+            }
+            try {
+                doc.getText(p0, length, line);
+            } catch (BadLocationException ex) {
+                continue;
+            }
+            max = Math.max(max, measure(p0));
+        }
+
+        if (max > widest) {
+            widest = max;
+            preferenceChanged(null, true, false);
+        }
+    }
+
+    /**
+     * Measures the line in the line buffer. Lines of a fixed-pitch font with
+     * only ASCII characters are measured by counting their characters.
+     * @param p0 offset of the line's start
+     * @return width of the line
+     */
+    private int measure(int p0) {
+        if (fixedWidth == 0) {
+            return tabbedWidth(p0);
+        }
+        char[] array = line.array;
+        float x = tabOrigin;
+        for (int i = line.offset, end = i + line.count; i < end; i++) {
+            char c = array[i];
+            if (c >= 0x80) {
+                return tabbedWidth(p0);
+            } else if (c == '\t') {
+                x = nextTabStop(x, 0);
+            } else if (c != '\n') {
+                x += fixedWidth;
+            }
+        }
+        return (int) x - tabOrigin;
+    }
+
+    /**
+     * Measures the line in the line buffer with the font's widths of its
+     * characters.
+     * @param p0 offset of the line's start
+     * @return width of the line, rounded up
+     */
+    private int tabbedWidth(int p0) {
+        float width = Utilities.getTabbedTextWidth(line, metrics, (float) tabOrigin, this, p0);
+        return (int) Math.ceil(width);
+    }
+
+    /**
+     * Draws only the visible part of a long line, splitting it by the
+     * selection the same way {@link PlainView} does.
+     */
+    @Override
+    protected void drawLine(int lineIndex, Graphics2D g, float x, float y) {
+        LineIndexedDocument doc = (LineIndexedDocument) getDocument();
+        int length = lineLength(doc, lineIndex);
+        Rectangle clip = g.getClipBounds();
+        if (length <= LONG_LINE || clip == null) {
+            super.drawLine(lineIndex, g, x, y);
+            return;
+        }
+
+        int start = doc.getLineIndex().getLineStart(lineIndex);
+        int p0 = start + offsetAt(lineIndex, start, length, clip.x - x, false);
+        int p1 = start + Math.min(length,
+                offsetAt(lineIndex, start, length, clip.x + clip.width - x, false) + 1);
+        JTextComponent host = (JTextComponent) getContainer();
+        int sel0 = Math.max(p0, Math.min(p1, host.getSelectionStart()));
+        int sel1 = Math.max(p0, Math.min(p1, host.getSelectionEnd()));
+        // floats are too coarse far into the line, so the whole pixels are
+        // moved into the graphics and the text is drawn near its origin
+        double left = x + Math.min(MAX_WIDTH, xOf(lineIndex, start, p0 - start));
+        int shift = (int) left;
+        int origin = tabOrigin;
+        g.translate(shift, 0);
+        tabOrigin -= shift;
+        try {
+            float px = (float) (left - shift);
+            if (p0 < sel0) {
+                px = drawUnselectedText(g, px, y, p0, sel0);
+            }
+            if (sel0 < sel1) {
+                px = drawSelectedText(g, px, y, sel0, sel1);
+            }
+            if (sel1 < p1) {
+                drawUnselectedText(g, px, y, sel1, p1);
+            }
+        } catch (BadLocationException ex) {
+            // the line is painted again after the change which moved it
+        } finally {
+            tabOrigin = origin;
+            g.translate(-shift, 0);
+        }
+    }
+
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        Rectangle alloc = a.getBounds();
+        tabOrigin = alloc.x;
+        Document doc = getDocument();
+        LineIndex index = ((LineIndexedDocument) doc).getLineIndex();
+        int lineIndex = getElement().getElementIndex(pos);
+        int length = lineLength((LineIndexedDocument) doc, lineIndex);
+        if (length <= LONG_LINE) {
+            return super.modelToView(pos, a, b);
+        }
+        if (pos < 0 || pos > doc.getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+
+        updateMetrics();
+        int start = index.getLineStart(lineIndex);
+        int x = alloc.x + (int) Math.min(MAX_WIDTH, xOf(lineIndex, start, Math.min(pos - start, length)));
+        int height = metrics.getHeight();
+        return new Rectangle(x, alloc.y + lineIndex * height, 1, height);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        Rectangle alloc = a.getBounds();
+        tabOrigin = alloc.x;
+        updateMetrics();
+        int lineIndex = (int) (fy - alloc.y) / metrics.getHeight();
+        if (fy < alloc.y || lineIndex >= getElement().getElementCount()) {
+            return super.viewToModel(fx, fy, a, bias);
+        }
+        LineIndexedDocument doc = (LineIndexedDocument) getDocument();
+        int length = lineLength(doc, lineIndex);
+        if (length <= LONG_LINE) {
+            return super.viewToModel(fx, fy, a, bias);
+        }
+
+        bias[0] = Position.Bias.Forward;
+        int start = doc.getLineIndex().getLineStart(lineIndex);
+        return start + offsetAt(lineIndex, start, length, fx - alloc.x, true);
+    }
+
+    /**
+     * Moves up and down by rows, keeping the x coordinate of the caret,
+     * instead of measuring every position of the row as
+     * {@link View#getNextVisualPositionFrom} does, which would take forever
+     * on a long line.
+     */
+    @Override
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction,
+            Position.Bias[] biasRet) throws BadLocationException {
+        if (pos == -1 || (direction != NORTH && direction != SOUTH)) {
+            return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+        }
+        return nextRowPosition(this, pos, b, a, direction, biasRet);
+    }
+
+    /**
+     * Finds position in the row above or below given position, closest to
+     * the x coordinate of the caret.
+     * @param view view which places the positions
+     * @param pos current position
+     * @param b bias of the current position
+     * @param a allocation of the view
+     * @param direction {@link View#NORTH} or {@link View#SOUTH}
+     * @param biasRet receives bias of the found position
+     * @return the found position, -1 above the first row, or the current
+     * position below the last row
+     * @throws BadLocationException if the position isn't in the document
+     */
+    static int nextRowPosition(View view, int pos, Position.Bias b, Shape a, int direction,
+            Position.Bias[] biasRet) throws BadLocationException {
+        biasRet[0] = Position.Bias.Forward;
+        Rectangle alloc = a.getBounds();
+        Rectangle r = view.modelToView(pos, a, b == null ? Position.Bias.Forward : b).getBounds();
+        JTextComponent target = (JTextComponent) view.getContainer();
+        Point magic = target.getCaret().getMagicCaretPosition();
+        int x = magic == null ? r.x : magic.x;
+        int y = direction == NORTH ? r.y - 1 : r.y + r.height;
+        if (y < alloc.y) {
+            return -1;
+        }
+        if (y >= alloc.y + view.getPreferredSpan(Y_AXIS)) {
+            return pos;
+        }
+        // the middle of the row, as a float y loses pixels in a long document
+        y += direction == NORTH ? 1 - r.height / 2 : r.height / 2;
+        return view.viewToModel(x, y, a, biasRet);
+    }
+
+    /**
+     * Returns number of characters of a line, without its line break.
+     * @param doc document
+     * @param lineIndex index of the line
+     * @return number of characters of the line
+     */
+    static int lineLength(LineIndexedDocument doc, int lineIndex) {
+        LineIndex index = doc.getLineIndex();
+        int start = index.getLineStart(lineIndex);
+        return lineIndex + 1 < index.getLineCount()
+                ? index.getLineStart(lineIndex + 1) - 1 - start
+                : doc.getLength() - start;
+    }
+
+    /**
+     * Estimates width of a long line from the part measured so far and the
+     * average character width.
+     * @param lineIndex index of the line
+     * @param length number of characters of the line
+     * @return estimated width of the line
+     */
+    private int estimateWidth(int lineIndex, int length) {
+        Checkpoints known = checkpoints.get(lineIndex);
+        double width;
+        if (known == null) {
+            width = (double) length * widths.getAverage();
+        } else if (known.end >= 0) {
+            width = known.end;
+        } else {
+            int last = known.count - 1;
+            width = known.x[last] + (double) (length - last * CHECKPOINT) * widths.getAverage();
+        }
+        return (int) Math.min(MAX_WIDTH, width);
+    }
+
+    /**
+     * Returns remembered x coordinates of a long line, measuring the line
+     * until the coordinate of given checkpoint is known.
+     * @param lineIndex index of the line
+     * @param start offset of the line's start
+     * @param last index of the checkpoint which has to be known
+     * @return remembered x coordinates of the line
+     */
+    private Checkpoints checkpoints(int lineIndex, int start, int last) {
+        Checkpoints known = checkpoints.computeIfAbsent(lineIndex, k -> new Checkpoints());
+        while (known.count <= last) {
+            int pos = (known.count - 1) * CHECKPOINT;
+            known.add(advance(start + pos, start + pos + CHECKPOINT, known.x[known.count - 1]));
+        }
+        return known;
+    }
+
+    /**
+     * Returns x coordinate of given offset of a long line.
+     * @param lineIndex index of the line
+     * @param start offset of the line's start
+     * @param offset offset in the line
+     * @return x coordinate relative to the line's start
+     */
+    private double xOf(int lineIndex, int start, int offset) {
+        int last = offset / CHECKPOINT;
+        Checkpoints known = checkpoints(lineIndex, start, last);
+        return advance(start + last * CHECKPOINT, start + offset, known.x[last]);
+    }
+
+    /**
+     * Returns offset of the character of a long line at given x coordinate.
+     * @param lineIndex index of the line
+     * @param start offset of the line's start
+     * @param length number of characters of the line
+     * @param x x coordinate relative to the line's start
+     * @param nearest true for the character boundary nearest to the
+     * coordinate, false for the character which contains it
+     * @return offset in the line
+     */
+    private int offsetAt(int lineIndex, int start, int length, double x, boolean nearest) {
+        if (x <= 0) {
+            return 0;
+        }
+        Checkpoints known = checkpoints(lineIndex, start, 0);
+        while (known.x[known.count - 1] <= x && known.count * CHECKPOINT <= length) {
+            checkpoints(lineIndex, start, known.count);
+        }
+        int low = 0;
+        int last = known.count - 1;
+        while (low < last) {
+            int middle = (low + last + 1) >>> 1;
+            if (known.x[middle] <= x) {
+                low = middle;
+            } else {
+                last = middle - 1;
+            }
+        }
+
+        int pos = last * CHECKPOINT;
+        double px = known.x[last];
+        Document doc = getDocument();
+        try {
+            while (pos < length) {
+                doc.getText(start + pos, length - pos, chunk);
+                for (int i = chunk.offset, end = i + chunk.count; i < end; i++, pos++) {
+                    double next = widths.advance(px, chunk.array[i], tabStop);
+                    if (next > x) {
+                        return nearest && next - x < x - px ? pos + 1 : pos;
+                    }
+                    px = next;
+                }
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        known.end = px;
+        return length;
+    }
+
+    /**
+     * Measures given range of the document.
+     * @param p0 offset of the range's start
+     * @param p1 offset of the range's end
+     * @param x x coordinate of the range's start, relative to the line's
+     * start
+     * @return x coordinate of the range's end
+     */
+    private double advance(int p0, int p1, double x) {
+        Document doc = getDocument();
+        try {
+            while (p0 < p1) {
+                doc.getText(p0, p1 - p0, chunk);
+                for (int i = chunk.offset, end = i + chunk.count; i < end; i++) {
+                    x = widths.advance(x, chunk.array[i], tabStop);
+                }
+                p0 += chunk.count;
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return x;
+    }
+
+    /**
+     * Something remembered about a line, which can be cut to the part before
+     * a change of the line.
+     * @author Luka Kraljević
+     *
+     */
+    interface Truncatable {
+
+        /**
+         * Forgets what depends on the text at or after given offset.
+         * @param offset offset of the change in the line
+         * @return false if nothing is left
+         */
+        boolean truncate(int offset);
+    }
+
+    /**
+     * X coordinates of a long line, every {@link #CHECKPOINT} characters.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Checkpoints implements Truncatable {
+
+        /**
+         * Known x coordinates, x[i] is the coordinate after the first
+         * i * CHECKPOINT characters.
+         */
+        private double[] x = new double[8];
+
+        /**
+         * Number of known x coordinates.
+         */
+        private int count = 1;
+
+        /**
+         * Width of the whole line, or -1 while it isn't known.
+         */
+        private double end = -1;
+
+        /**
+         * Remembers coordinate of the next checkpoint.
+         * @param next the coordinate
+         */
+        void add(double next) {
+            if (count == x.length) {
+                x = Arrays.copyOf(x, 2 * count);
+            }
+            x[count++] = next;
+        }
+
+        @Override
+        public boolean truncate(int offset) {
+            count = Math.max(1, Math.min(count, offset / CHECKPOINT + 1));
+            end = -1;
+            return true;
+        }
+    }
+}
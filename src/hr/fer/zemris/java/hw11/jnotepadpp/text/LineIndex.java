@@ -0,0 +1,32 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+/**
+ * Source of line structure of a document. It replaces the tree of per-line
+ * {@link javax.swing.text.Element} objects which {@link javax.swing.text.PlainDocument}
+ * keeps, so documents with millions of lines don't need millions of objects.
+ * @author Luka Kraljević
+ *
+ */
+public interface LineIndex {
+
+    /**
+     * Returns number of lines in the document. Empty document has one line.
+     * @return number of lines
+     */
+    public int getLineCount();
+
+    /**
+     * Returns offset of the first character of given line.
+     * @param line index of the line, starting from 0
+     * @return offset where the line starts
+     */
+    public int getLineStart(int line);
+
+    /**
+     * Returns index of the line which contains given offset.
+     * @param offset offset in the document
+     * @return index of the line, starting from 0
+     */
+    public int getLineOfOffset(int offset);
+
+}
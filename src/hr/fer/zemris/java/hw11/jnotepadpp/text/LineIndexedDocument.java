@@ -0,0 +1,407 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Plain text document whose lines are described by a {@link LineIndex}.
+ * Elements which represent lines are created only when somebody asks for
+ * them, so the document doesn't hold an object for every line like
+ * {@link PlainDocument} does.
+ * @author Luka Kraljević
+ *
+ */
+public class LineIndexedDocument extends AbstractDocument {
+
+    /**
+     * Default serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Index which describes lines of this document.
+     */
+    private final LineIndex lines;
+
+    /**
+     * Root element whose children are lines of the document.
+     */
+    private final Element root;
+
+    /**
+     * Creates the document over given content and its line index.
+     * @param content content of the document
+     * @param lines index of lines in given content
+     */
+    public LineIndexedDocument(Content content, LineIndex lines) {
+        super(content);
+        this.lines = lines;
+        root = new RootElement();
+        putProperty(PlainDocument.tabSizeAttribute, 8);
+    }
+
+    /**
+     * Returns index of lines of this document.
+     * @return the line index
+     */
+    public LineIndex getLineIndex() {
+        return lines;
+    }
+
+    /**
+     * Checks if the content of this document can't be changed at all.
+     * @return true if the document is backed by a read-only content
+     */
+    public boolean isReadOnly() {
+        return getContent() instanceof MappedContent;
+    }
+
+    /**
+     * Estimates number of heap bytes taken by the text of this document and
+     * its line index. Text kept outside of the heap or mapped from a file
+     * isn't counted.
+     * @return estimated size in bytes
+     */
+    public long getHeapSize() {
+        Content content = getContent();
+        long index = 4L * lines.getLineCount();
+        if (content instanceof CompactContent) {
+            CompactContent compact = (CompactContent) content;
+            return (compact.isOffHeap() ? 0 : compact.getStorageSize()) + index;
+        }
+        if (content instanceof PieceTableContent) {
+            return ((PieceTableContent) content).getHeapSize();
+        }
+        if (content instanceof MappedContent) {
+            return index;
+        }
+        return 2L * getLength() + index;
+    }
+
+    /**
+     * Inserts characters from given array. A compact content takes them
+     * straight from the array, so large amounts of text aren't copied into a
+     * string first. Listeners are notified the same way as by
+     * {@link #insertString(int, String, AttributeSet)}.
+     * @param offset offset of the insert
+     * @param text array with the inserted characters
+     * @param from index of the first inserted character
+     * @param to index after the last inserted character
+     * @throws BadLocationException if the offset isn't in the document
+     */
+    public void insertChars(int offset, char[] text, int from, int to)
+            throws BadLocationException {
+        Content content = getContent();
+        if (!(content instanceof CompactContent) || getDocumentFilter() != null) {
+            insertString(offset, new String(text, from, to - from), null);
+            return;
+        }
+        if (from == to) {
+            return;
+        }
+
+        writeLock();
+        try {
+            UndoableEdit edit = ((CompactContent) content).insertChars(offset, text, from, to);
+            DefaultDocumentEvent chng = new DefaultDocumentEvent(
+                    offset, to - from, DocumentEvent.EventType.INSERT);
+            if (edit != null) {
+                chng.addEdit(edit);
+            }
+            insertUpdate(chng, null);
+            chng.end();
+            fireInsertUpdate(chng);
+            if (edit != null) {
+                fireUndoableEditUpdate(new UndoableEditEvent(this, chng));
+            }
+        } finally {
+            writeUnlock();
+        }
+    }
+
+    /**
+     * Takes snapshot of the text, if the content of this document can take
+     * one without copying the whole text. Must be called on the Event
+     * Dispatch Thread.
+     * @return content with the current text, or null if the content can't
+     * take snapshots
+     */
+    public Content snapshot() {
+        Content content = getContent();
+        if (content instanceof SnapshotContent) {
+            return ((SnapshotContent) content).snapshot();
+        }
+        return null;
+    }
+
+    /**
+     * Reports lines created by the insert as a change of the root element,
+     * which tells the views that the number of lines changed.
+     */
+    @Override
+    protected void insertUpdate(DefaultDocumentEvent chng, AttributeSet attr) {
+        int first = lines.getLineOfOffset(chng.getOffset());
+        int last = lines.getLineOfOffset(chng.getOffset() + chng.getLength());
+        if (last > first) {
+            chng.addEdit(new LineChange(first, 1, last - first + 1));
+        }
+        super.insertUpdate(chng, attr);
+    }
+
+    /**
+     * Reports lines joined by the remove as a change of the root element,
+     * which tells the views that the number of lines changed.
+     */
+    @Override
+    protected void removeUpdate(DefaultDocumentEvent chng) {
+        int first = lines.getLineOfOffset(chng.getOffset());
+        int last = lines.getLineOfOffset(chng.getOffset() + chng.getLength());
+        if (last > first) {
+            chng.addEdit(new LineChange(first, last - first + 1, 1));
+        }
+        super.removeUpdate(chng);
+    }
+
+    /**
+     * Creates elements of given range of lines.
+     * @param first index of the first line
+     * @param last index of the last line, inclusive
+     * @return elements of the lines
+     */
+    private Element[] lineElements(int first, int last) {
+        Element[] elements = new Element[last - first + 1];
+        for (int i = 0; i < elements.length; i++) {
+            elements[i] = new LineElement(root, first + i);
+        }
+        return elements;
+    }
+
+    @Override
+    public Element getDefaultRootElement() {
+        return root;
+    }
+
+    @Override
+    public Element getParagraphElement(int pos) {
+        return root.getElement(root.getElementIndex(pos));
+    }
+
+    /**
+     * Change of the lines of the root element. Lines are always read from
+     * the line index, so undoing or redoing the change has nothing to
+     * restore. Only the numbers of lines are kept and their elements are
+     * created when asked for, since the change is kept by the undo history
+     * and may cover millions of lines.
+     * @author Luka Kraljević
+     *
+     */
+    private class LineChange extends AbstractUndoableEdit implements DocumentEvent.ElementChange {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Index of the first changed line.
+         */
+        private final int index;
+
+        /**
+         * Number of lines before the change.
+         */
+        private final int removed;
+
+        /**
+         * Number of lines after the change.
+         */
+        private final int added;
+
+        /**
+         * Creates the change.
+         * @param index index of the first changed line
+         * @param removed number of lines before the change
+         * @param added number of lines after the change
+         */
+        LineChange(int index, int removed, int added) {
+            this.index = index;
+            this.removed = removed;
+            this.added = added;
+        }
+
+        @Override
+        public Element getElement() {
+            return root;
+        }
+
+        @Override
+        public int getIndex() {
+            return index;
+        }
+
+        @Override
+        public Element[] getChildrenRemoved() {
+            return lineElements(index, index + removed - 1);
+        }
+
+        @Override
+        public Element[] getChildrenAdded() {
+            return lineElements(index, index + added - 1);
+        }
+    }
+
+    /**
+     * Root element of the document which creates line elements on demand.
+     * @author Luka Kraljević
+     *
+     */
+    private class RootElement implements Element {
+
+        @Override
+        public Document getDocument() {
+            return LineIndexedDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return null;
+        }
+
+        @Override
+        public String getName() {
+            return ParagraphElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return 0;
+        }
+
+        @Override
+        public int getEndOffset() {
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            if (offset <= 0) {
+                return 0;
+            }
+            return lines.getLineOfOffset(Math.min(offset, getLength()));
+        }
+
+        @Override
+        public int getElementCount() {
+            return lines.getLineCount();
+        }
+
+        @Override
+        public Element getElement(int index) {
+            if (index < 0 || index >= lines.getLineCount()) {
+                return null;
+            }
+            return new LineElement(this, index);
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return false;
+        }
+    }
+
+    /**
+     * Element which represents one line. Its offsets are always read from the
+     * index, so it describes the line with the same number after any change.
+     * @author Luka Kraljević
+     *
+     */
+    private class LineElement implements Element {
+
+        /**
+         * Parent of this element.
+         */
+        private final Element parent;
+
+        /**
+         * Index of the line.
+         */
+        private final int line;
+
+        /**
+         * Creates element for given line.
+         * @param parent parent of this element
+         * @param line index of the line
+         */
+        LineElement(Element parent, int line) {
+            this.parent = parent;
+            this.line = line;
+        }
+
+        @Override
+        public Document getDocument() {
+            return LineIndexedDocument.this;
+        }
+
+        @Override
+        public Element getParentElement() {
+            return parent;
+        }
+
+        @Override
+        public String getName() {
+            return ContentElementName;
+        }
+
+        @Override
+        public AttributeSet getAttributes() {
+            return SimpleAttributeSet.EMPTY;
+        }
+
+        @Override
+        public int getStartOffset() {
+            return lines.getLineStart(Math.min(line, lines.getLineCount() - 1));
+        }
+
+        @Override
+        public int getEndOffset() {
+            if (line + 1 < lines.getLineCount()) {
+                return lines.getLineStart(line + 1);
+            }
+            return getLength() + 1;
+        }
+
+        @Override
+        public int getElementIndex(int offset) {
+            return -1;
+        }
+
+        @Override
+        public int getElementCount() {
+            return 0;
+        }
+
+        @Override
+        public Element getElement(int index) {
+            return null;
+        }
+
+        @Override
+        public boolean isLeaf() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.geom.Rectangle2D;
+
+import javax.swing.JComponent;
+import javax.swing.JTextArea;
+import javax.swing.UIManager;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.JTextComponent;
+
+/**
+ * Column with line numbers, shown as the row header of a text component's
+ * scroll pane. Only the numbers of the visible lines are painted, found the
+ * same way as {@link LargeFileView} finds the lines it paints, so the gutter
+ * costs the same for a document with millions of lines as for a short one.
+ * When the text area wraps lines, the number is painted next to the first
+ * row of its line, and the lines are placed by the text component's view.
+ * Lines are numbered from 0, as in the status bar.
+ * @author Luka Kraljević
+ *
+ */
+public class LineNumberGutter extends JComponent {
+
+    /**
+     * Default serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Space left and right of the numbers.
+     */
+    private static final int PADDING = 4;
+
+    /**
+     * Text component whose lines are numbered.
+     */
+    private final JTextComponent editor;
+
+    /**
+     * Document whose lines are numbered.
+     */
+    private Document doc;
+
+    /**
+     * Number of digits of the largest line number.
+     */
+    private int digits;
+
+    /**
+     * Buffer for digits of a painted number.
+     */
+    private final char[] number = new char[10];
+
+    /**
+     * Listener which repaints the numbers when lines are added or removed.
+     */
+    private final DocumentListener listener = new DocumentListener() {
+
+        @Override
+        public void insertUpdate(DocumentEvent e) {
+            linesChanged(e);
+        }
+
+        @Override
+        public void removeUpdate(DocumentEvent e) {
+            linesChanged(e);
+        }
+
+        @Override
+        public void changedUpdate(DocumentEvent e) {
+        }
+    };
+
+    /**
+     * Creates gutter of given text component.
+     * @param editor text component whose lines are numbered
+     */
+    public LineNumberGutter(JTextComponent editor) {
+        this.editor = editor;
+        setOpaque(true);
+        setBackground(UIManager.getColor("Panel.background"));
+        setForeground(Color.GRAY);
+        listen(editor.getDocument());
+        editor.addPropertyChangeListener("document", e -> listen(editor.getDocument()));
+        editor.addPropertyChangeListener("font", e -> {
+            revalidate();
+            repaint();
+        });
+        editor.addPropertyChangeListener("lineWrap", e -> repaint());
+        editor.addComponentListener(new ComponentAdapter() {
+
+            @Override
+            public void componentResized(ComponentEvent e) {
+                revalidate();
+                if (isWrapped()) {
+                    repaint();
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts numbering lines of given document.
+     * @param doc document of the text component
+     */
+    private void listen(Document doc) {
+        if (this.doc != null) {
+            this.doc.removeDocumentListener(listener);
+        }
+        this.doc = doc;
+        doc.addDocumentListener(listener);
+        digits = countDigits();
+        revalidate();
+        repaint();
+    }
+
+    /**
+     * Repaints the numbers below a change which added or removed lines, and
+     * makes the gutter wider or narrower if the largest number got another
+     * number of digits.
+     * @param e change of the document
+     */
+    private void linesChanged(DocumentEvent e) {
+        Element root = doc.getDefaultRootElement();
+        if (e.getChange(root) == null) {
+            if (isWrapped()) {
+                repaint();
+            }
+            return;
+        }
+        int count = countDigits();
+        if (count != digits) {
+            digits = count;
+            revalidate();
+        }
+        if (isWrapped()) {
+            repaint();
+            return;
+        }
+        FontMetrics fm = getFontMetrics(editor.getFont());
+        int y = editor.getInsets().top + root.getElementIndex(e.getOffset()) * fm.getHeight();
+        repaint(0, y, getWidth(), Math.max(0, getHeight() - y));
+    }
+
+    /**
+     * @return true if the text component wraps lines, so a line may take
+     * more than one row
+     */
+    private boolean isWrapped() {
+        return editor instanceof JTextArea && ((JTextArea) editor).getLineWrap();
+    }
+
+    /**
+     * @return number of digits of the largest line number
+     */
+    private int countDigits() {
+        int last = Math.max(0, doc.getDefaultRootElement().getElementCount() - 1);
+        int count = 1;
+        while (last >= 10) {
+            last /= 10;
+            count++;
+        }
+        return count;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        FontMetrics fm = getFontMetrics(editor.getFont());
+        return new Dimension(2 * PADDING + digits * fm.charWidth('0'), editor.getHeight());
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        Rectangle clip = g.getClipBounds();
+        if (isOpaque()) {
+            g.setColor(getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+        }
+        g.setColor(getForeground());
+        g.setFont(editor.getFont());
+        FontMetrics fm = g.getFontMetrics();
+        int height = fm.getHeight();
+        int top = editor.getInsets().top;
+        Element root = doc.getDefaultRootElement();
+        int count = root.getElementCount();
+        if (isWrapped()) {
+            try {
+                int i = root.getElementIndex(editor.viewToModel2D(new Point(0, clip.y)));
+                for (; i < count; i++) {
+                    Rectangle2D r = editor.modelToView2D(root.getElement(i).getStartOffset());
+                    if (r == null || r.getY() >= clip.y + clip.height) {
+                        break;
+                    }
+                    paintNumber(g, fm, i, (int) r.getY() + fm.getAscent());
+                }
+            } catch (BadLocationException ex) {
+                // the numbers are painted again after the change
+            }
+            return;
+        }
+        int first = LargeFileView.firstVisibleLine(clip.y, top, height);
+        int last = LargeFileView.lastVisibleLine(clip.y + clip.height, top, height, count);
+
+        for (int i = first; i <= last; i++) {
+            paintNumber(g, fm, i, top + i * height + fm.getAscent());
+        }
+    }
+
+    /**
+     * Paints number of a line, aligned to the right.
+     * @param g graphics used for painting
+     * @param fm metrics of the font
+     * @param i index of the line
+     * @param y y coordinate of the baseline
+     */
+    private void paintNumber(Graphics g, FontMetrics fm, int i, int y) {
+        int start = number.length;
+        int value = i;
+        do {
+            number[--start] = (char) ('0' + value % 10);
+            value /= 10;
+        } while (value > 0);
+        int length = number.length - start;
+        int x = getWidth() - PADDING - fm.charsWidth(number, start, length);
+        g.drawChars(number, start, length, x, y);
+    }
+}
@@ -0,0 +1,322 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.util.Arrays;
+
+/**
+ * Index of the offsets where lines start, kept in primitive arrays. Starts are
+ * split into blocks of at most {@link #BLOCK_SIZE} lines, each stored
+ * relative to the start of its first line, so a change only rewrites the
+ * blocks it touches and moves the start of each following block. Lines and
+ * offsets are found by binary search over the blocks and then within one
+ * block.
+ * <p>
+ * The index doesn't read the text, it has to be told about every change with
+ * {@link #inserted(int, char[])} and {@link #removed(int, int)}. Snapshots
+ * share the blocks, which are copied before they are changed in place.
+ * @author Luka Kraljević
+ *
+ */
+public class LineStartIndex implements LineIndex {
+
+    /**
+     * Maximum number of lines in a block.
+     */
+    private static final int BLOCK_SIZE = 4096;
+
+    /**
+     * Starts of the lines in each block, relative to the first one.
+     */
+    private int[][] blocks = new int[16][];
+
+    /**
+     * Number of lines in each block.
+     */
+    private int[] sizes = new int[16];
+
+    /**
+     * Flags of the blocks which are shared with a snapshot.
+     */
+    private boolean[] shared = new boolean[16];
+
+    /**
+     * Offset where the first line of each block starts.
+     */
+    private int[] bases = new int[16];
+
+    /**
+     * Index of the first line of each block.
+     */
+    private int[] firstLines = new int[16];
+
+    /**
+     * Number of blocks.
+     */
+    private int count;
+
+    /**
+     * Number of lines.
+     */
+    private int lineCount;
+
+    /**
+     * Creates index of an empty text, which has one line.
+     */
+    public LineStartIndex() {
+        blocks[0] = new int[] { 0 };
+        sizes[0] = 1;
+        count = 1;
+        lineCount = 1;
+    }
+
+    /**
+     * Creates snapshot of another index, which shares its blocks.
+     * @param other index whose lines are copied
+     */
+    private LineStartIndex(LineStartIndex other) {
+        blocks = Arrays.copyOf(other.blocks, other.count);
+        sizes = Arrays.copyOf(other.sizes, other.count);
+        bases = Arrays.copyOf(other.bases, other.count);
+        firstLines = Arrays.copyOf(other.firstLines, other.count);
+        shared = new boolean[other.count];
+        count = other.count;
+        lineCount = other.lineCount;
+    }
+
+    /**
+     * Takes snapshot of the index. The snapshot must not be changed.
+     * @return index with the current lines
+     */
+    public LineStartIndex snapshot() {
+        Arrays.fill(shared, 0, count, true);
+        return new LineStartIndex(this);
+    }
+
+    @Override
+    public int getLineCount() {
+        return lineCount;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        int block = search(firstLines, line);
+        return bases[block] + blocks[block][line - firstLines[block]];
+    }
+
+    @Override
+    public int getLineOfOffset(int offset) {
+        int block = search(bases, offset);
+        int[] starts = blocks[block];
+        int relative = offset - bases[block];
+        int low = 0;
+        int high = sizes[block] - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (starts[middle] <= relative) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return firstLines[block] + low;
+    }
+
+    /**
+     * Updates the index after text was inserted.
+     * @param where offset of the insert
+     * @param text inserted characters
+     */
+    public void inserted(int where, char[] text) {
+        inserted(where, text, 0, text.length);
+    }
+
+    /**
+     * Updates the index after text was inserted.
+     * @param where offset of the insert
+     * @param text array with the inserted characters
+     * @param from index of the first inserted character
+     * @param to index after the last inserted character
+     */
+    public void inserted(int where, char[] text, int from, int to) {
+        int n = to - from;
+        int newLines = 0;
+        for (int i = from; i < to; i++) {
+            if (text[i] == '\n') {
+                newLines++;
+            }
+        }
+
+        int block = search(bases, where);
+        int[] starts = blocks[block];
+        int size = sizes[block];
+        int relative = where - bases[block];
+        int split = upperBound(starts, size, relative);
+        int following = block + 1;
+        if (newLines == 0) {
+            if (shared[block] && split < size) {
+                starts = starts.clone();
+                blocks[block] = starts;
+                shared[block] = false;
+            }
+            for (int i = split; i < size; i++) {
+                starts[i] += n;
+            }
+        } else {
+            int[] merged = new int[size + newLines];
+            System.arraycopy(starts, 0, merged, 0, split);
+            int at = split;
+            for (int i = 0; i < n; i++) {
+                if (text[from + i] == '\n') {
+                    merged[at++] = relative + i + 1;
+                }
+            }
+            for (int i = split; i < size; i++) {
+                merged[at++] = starts[i] + n;
+            }
+            following = block + rebuild(block, block, bases[block], merged, merged.length);
+        }
+        for (int i = following; i < count; i++) {
+            bases[i] += n;
+        }
+        updateLines(block);
+    }
+
+    /**
+     * Updates the index after text was removed.
+     * @param where offset of the remove
+     * @param length number of removed characters
+     */
+    public void removed(int where, int length) {
+        int end = where + length;
+        int first = search(bases, where);
+        int last = search(bases, end);
+        if (last + 1 < count && sizes[first] + sizes[last + 1] <= BLOCK_SIZE / 2) {
+            last++;
+        }
+
+        int base = bases[first];
+        int total = 0;
+        for (int i = first; i <= last; i++) {
+            total += sizes[i];
+        }
+        int[] kept = new int[total];
+        int size = 0;
+        for (int i = first; i <= last; i++) {
+            int[] starts = blocks[i];
+            int shift = bases[i] - base;
+            for (int j = 0; j < sizes[i]; j++) {
+                int start = starts[j] + shift;
+                if (start + base <= where) {
+                    kept[size++] = start;
+                } else if (start + base > end) {
+                    kept[size++] = start - length;
+                }
+            }
+        }
+        int following = first + rebuild(first, last, base, kept, size);
+        for (int i = following; i < count; i++) {
+            bases[i] -= length;
+        }
+        updateLines(first);
+    }
+
+    /**
+     * Replaces a range of blocks with blocks holding given starts, which are
+     * split evenly if there are too many of them for one block.
+     * @param first index of the first replaced block
+     * @param last index of the last replaced block
+     * @param base offset the starts are relative to
+     * @param starts relative starts of the lines, the first one being 0
+     * @param size number of starts
+     * @return number of new blocks
+     */
+    private int rebuild(int first, int last, int base, int[] starts, int size) {
+        int pieces = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        int newCount = count - (last - first + 1) + pieces;
+        if (newCount > blocks.length) {
+            int capacity = Math.max(newCount, blocks.length * 2);
+            blocks = Arrays.copyOf(blocks, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            bases = Arrays.copyOf(bases, capacity);
+            firstLines = Arrays.copyOf(firstLines, capacity);
+            shared = Arrays.copyOf(shared, capacity);
+        }
+        int moved = count - last - 1;
+        System.arraycopy(blocks, last + 1, blocks, first + pieces, moved);
+        System.arraycopy(sizes, last + 1, sizes, first + pieces, moved);
+        System.arraycopy(bases, last + 1, bases, first + pieces, moved);
+        System.arraycopy(shared, last + 1, shared, first + pieces, moved);
+        for (int i = newCount; i < count; i++) {
+            blocks[i] = null;
+        }
+
+        for (int i = 0; i < pieces; i++) {
+            int from = (int) ((long) size * i / pieces);
+            int to = (int) ((long) size * (i + 1) / pieces);
+            int[] block = new int[to - from];
+            int shift = starts[from];
+            for (int j = from; j < to; j++) {
+                block[j - from] = starts[j] - shift;
+            }
+            blocks[first + i] = block;
+            sizes[first + i] = block.length;
+            bases[first + i] = base + shift;
+            shared[first + i] = false;
+        }
+        count = newCount;
+        return pieces;
+    }
+
+    /**
+     * Recomputes indexes of the first lines of the blocks after given one,
+     * and the number of lines.
+     * @param block index of the last block whose first line is correct
+     */
+    private void updateLines(int block) {
+        firstLines[0] = 0;
+        for (int i = block + 1; i < count; i++) {
+            firstLines[i] = firstLines[i - 1] + sizes[i - 1];
+        }
+        lineCount = firstLines[count - 1] + sizes[count - 1];
+    }
+
+    /**
+     * Finds the last block whose value in given array is at most given key.
+     * @param values ascending values of the blocks
+     * @param key searched key
+     * @return index of the block
+     */
+    private int search(int[] values, int key) {
+        int low = 0;
+        int high = count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (values[middle] <= key) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Finds the number of starts which are at most given value.
+     * @param starts ascending starts
+     * @param size number of starts
+     * @param value compared value
+     * @return index of the first start greater than the value
+     */
+    private static int upperBound(int[] starts, int size, int value) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (starts[middle] <= value) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,513 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Read-only content of a UTF-8 or single-byte encoded file which is mapped
+ * into memory with {@link FileChannel#map}. The file is split into pages
+ * which start on code point boundaries and only the pages that are actually
+ * read are decoded, so the heap usage depends on what is shown on the screen
+ * and not on the size of the file. While opening, only the number of
+ * characters and lines of each page is remembered.
+ * @author Luka Kraljević
+ *
+ */
+public class MappedContent implements SnapshotContent, LineIndex {
+
+    /**
+     * Approximate size of one page in bytes.
+     */
+    private static final int PAGE_SIZE = 1 << 16;
+
+    /**
+     * Size of one mapped region. Single mapping can't be larger than 2 GB.
+     */
+    private static final long REGION_SIZE = 1L << 30;
+
+    /**
+     * Number of decoded pages which are kept in memory.
+     */
+    private static final int CACHED_PAGES = 32;
+
+    /**
+     * Path of the mapped file.
+     */
+    private final Path path;
+
+    /**
+     * Mapped regions of the file. Every region overlaps the next one for a
+     * little more than a page so every page fits into the region it starts in.
+     */
+    private final MappedByteBuffer[] regions;
+
+    /**
+     * Number of pages.
+     */
+    private int pageCount;
+
+    /**
+     * Byte offset where each page starts, with the size of file at the end.
+     */
+    private long[] pageBytes;
+
+    /**
+     * Character offset where each page starts, with the number of characters
+     * at the end.
+     */
+    private int[] pageChars;
+
+    /**
+     * Number of line breaks before each page, with the total number of line
+     * breaks at the end.
+     */
+    private int[] pageLines;
+
+    /**
+     * Decoder used for decoding the pages.
+     */
+    private final CharsetDecoder decoder;
+
+    /**
+     * Flag which indicates that the file is UTF-8. Otherwise each byte is one
+     * character.
+     */
+    private final boolean utf8;
+
+    /**
+     * Recently decoded pages, the least recently used one is evicted first.
+     */
+    private final Map<Integer, Page> cache;
+
+    /**
+     * Maps the file and prepares the content.
+     * @param path path of the file
+     * @param regions mapped regions of the file
+     * @param charset charset of the file
+     */
+    private MappedContent(Path path, MappedByteBuffer[] regions, Charset charset) {
+        this.path = path;
+        this.regions = regions;
+        utf8 = charset.equals(StandardCharsets.UTF_8);
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        cache = new LinkedHashMap<Integer, Page>(CACHED_PAGES, 0.75f, true) {
+
+            /**
+             * Default serial version.
+             */
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest) {
+                return size() > CACHED_PAGES;
+            }
+        };
+    }
+
+    /**
+     * Maps the UTF-8 file from given path and builds the page index.
+     * @param path path of the UTF-8 file
+     * @param progress receives percentage of the file indexed so far
+     * @return content of the file
+     * @throws IOException if the file can't be mapped or is too large to be
+     * shown in a text component
+     * @throws InterruptedIOException if the thread is interrupted while
+     * indexing
+     */
+    public static MappedContent open(Path path, IntConsumer progress) throws IOException {
+        return open(path, StandardCharsets.UTF_8, 0, progress);
+    }
+
+    /**
+     * Checks if files in given charset can be mapped. Supported are UTF-8 and
+     * single-byte charsets which encode ASCII characters as ASCII does.
+     * @param charset charset of the file
+     * @return true if the file can be mapped
+     */
+    public static boolean supports(Charset charset) {
+        if (charset.equals(StandardCharsets.UTF_8)) {
+            return true;
+        }
+        if (!charset.canEncode() || charset.newEncoder().maxBytesPerChar() != 1) {
+            return false;
+        }
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        return new String(ascii, charset).equals(new String(ascii, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Maps the file from given path and builds the page index.
+     * @param path path of the file
+     * @param charset charset of the file, which must be supported
+     * @param offset number of bytes at the beginning of the file which are
+     * skipped, such as the byte order mark
+     * @param progress receives percentage of the file indexed so far
+     * @return content of the file
+     * @throws IOException if the file can't be mapped or is too large to be
+     * shown in a text component
+     * @throws InterruptedIOException if the thread is interrupted while
+     * indexing
+     */
+    public static MappedContent open(Path path, Charset charset, long offset,
+            IntConsumer progress) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            int count = (int) ((size + REGION_SIZE - 1) / REGION_SIZE);
+            MappedByteBuffer[] regions = new MappedByteBuffer[count];
+            for (int i = 0; i < count; i++) {
+                long start = i * REGION_SIZE;
+                long len = Math.min(size - start, REGION_SIZE + PAGE_SIZE + 4);
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, len);
+            }
+
+            MappedContent content = new MappedContent(path, regions, charset);
+            content.buildIndex(size, offset, progress);
+            return content;
+        }
+    }
+
+    /**
+     * Splits the file into pages and counts characters and lines in each of
+     * them. Pages which contain only ASCII characters and pages of single-byte
+     * files are never decoded.
+     * @param size size of the file in bytes
+     * @param offset offset of the first byte of the text
+     * @param progress receives percentage of the file indexed so far
+     * @throws IOException if the file has more characters than a document can
+     * hold
+     * @throws InterruptedIOException if the thread is interrupted
+     */
+    private void buildIndex(long size, long offset, IntConsumer progress) throws IOException {
+        int capacity = (int) (size / PAGE_SIZE) + 2;
+        pageBytes = new long[capacity];
+        pageChars = new int[capacity];
+        pageLines = new int[capacity];
+
+        CharBuffer out = CharBuffer.allocate(PAGE_SIZE + 4);
+        long start = offset;
+        long chars = 0;
+        long lines = 0;
+        int p = 0;
+
+        while (start < size) {
+            long end = Math.min(start + PAGE_SIZE, size);
+            while (utf8 && end < size && isContinuation(byteAt(start, end))) {
+                end++;
+            }
+
+            pageBytes[p] = start;
+            pageChars[p] = (int) chars;
+            pageLines[p] = (int) lines;
+            pageBytes[p + 1] = end;
+            p++;
+
+            if ((p & 0xFF) == 0) {
+                if (Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Opening of " + path + " was interrupted.");
+                }
+                progress.accept((int) (start * 100 / size));
+            }
+
+            ByteBuffer in = slice(start, end);
+            boolean ascii = true;
+            int newLines = 0;
+            for (int i = in.position(), n = in.limit(); i < n; i++) {
+                byte b = in.get(i);
+                if (b < 0 && utf8) {
+                    ascii = false;
+                    break;
+                } else if (b == '\n') {
+                    newLines++;
+                }
+            }
+
+            if (ascii) {
+                chars += end - start;
+            } else {
+                decode(in, out);
+                newLines = 0;
+                for (int i = 0, n = out.limit(); i < n; i++) {
+                    if (out.get(i) == '\n') {
+                        newLines++;
+                    }
+                }
+                chars += out.limit();
+            }
+            lines += newLines;
+
+            if (chars >= Integer.MAX_VALUE) {
+                throw new IOException("File " + path + " is too large to be opened.");
+            }
+            start = end;
+        }
+
+        pageCount = p;
+        pageBytes[p] = size;
+        pageChars[p] = (int) chars;
+        pageLines[p] = (int) lines;
+    }
+
+    /**
+     * Checks if given byte continues a multi-byte UTF-8 sequence.
+     * @param b byte to be checked
+     * @return true if the byte is not the first byte of a code point
+     */
+    private static boolean isContinuation(byte b) {
+        return (b & 0xC0) == 0x80;
+    }
+
+    /**
+     * Reads a byte of the page which starts at given offset.
+     * @param pageStart offset of the page the byte belongs to
+     * @param pos offset of the byte
+     * @return byte at given offset
+     */
+    private byte byteAt(long pageStart, long pos) {
+        int r = (int) (pageStart / REGION_SIZE);
+        return regions[r].get((int) (pos - r * REGION_SIZE));
+    }
+
+    /**
+     * Returns buffer which views given bytes of the file without copying them.
+     * @param start first byte of the page
+     * @param end first byte after the page
+     * @return view of the page
+     */
+    private ByteBuffer slice(long start, long end) {
+        int r = (int) (start / REGION_SIZE);
+        ByteBuffer buffer = regions[r].duplicate();
+        buffer.limit((int) (end - r * REGION_SIZE));
+        buffer.position((int) (start - r * REGION_SIZE));
+        return buffer;
+    }
+
+    /**
+     * Decodes given bytes into given buffer, which is flipped afterwards.
+     * @param in bytes of one page
+     * @param out buffer which will hold characters of the page
+     */
+    private void decode(ByteBuffer in, CharBuffer out) {
+        out.clear();
+        decoder.reset();
+        decoder.decode(in, out, true);
+        decoder.flush(out);
+        out.flip();
+    }
+
+    /**
+     * Returns decoded page, decoding it if it isn't cached.
+     * @param p index of the page
+     * @return decoded page
+     */
+    private synchronized Page getPage(int p) {
+        Page page = cache.get(p);
+        if (page != null) {
+            return page;
+        }
+
+        CharBuffer out = CharBuffer.allocate(pageChars[p + 1] - pageChars[p]);
+        decode(slice(pageBytes[p], pageBytes[p + 1]), out);
+        page = new Page(out.array());
+        cache.put(p, page);
+        return page;
+    }
+
+    /**
+     * Returns index of the last element of given sorted array, among first
+     * <code>n</code> elements, which is not larger than given key.
+     * @param array sorted array
+     * @param n number of elements which are searched
+     * @param key searched value
+     * @return index of the found element or -1 if all elements are larger
+     */
+    static int floor(int[] array, int n, int key) {
+        int lo = 0;
+        int hi = n - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (array[mid] <= key) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return hi;
+    }
+
+    /**
+     * Returns path of the mapped file.
+     * @return the path
+     */
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Returns this content, because it never changes.
+     */
+    @Override
+    public MappedContent snapshot() {
+        return this;
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        return () -> offset;
+    }
+
+    @Override
+    public int length() {
+        return pageChars[pageCount] + 1;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str)
+            throws BadLocationException {
+        throw new BadLocationException("Content is read-only", where);
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems)
+            throws BadLocationException {
+        throw new BadLocationException("Content is read-only", where);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return new String(s.array, s.offset, s.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        if (where < 0 || len < 0 || where + len > length()) {
+            throw new BadLocationException("Invalid range", where);
+        }
+
+        int chars = pageChars[pageCount];
+        if (txt.isPartialReturn() && where < chars) {
+            int p = floor(pageChars, pageCount, where);
+            int local = where - pageChars[p];
+            Page page = getPage(p);
+            txt.array = page.chars;
+            txt.offset = local;
+            txt.count = Math.min(len, page.chars.length - local);
+            return;
+        }
+
+        char[] buffer = new char[len];
+        int done = 0;
+        while (done < len) {
+            int pos = where + done;
+            if (pos == chars) {
+                buffer[done++] = '\n';
+                continue;
+            }
+            int p = floor(pageChars, pageCount, pos);
+            Page page = getPage(p);
+            int local = pos - pageChars[p];
+            int n = Math.min(len - done, page.chars.length - local);
+            System.arraycopy(page.chars, local, buffer, done, n);
+            done += n;
+        }
+        txt.array = buffer;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public int getLineCount() {
+        return pageLines[pageCount] + 1;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line <= 0) {
+            return 0;
+        }
+        int k = Math.min(line, pageLines[pageCount]) - 1;
+        int p = floor(pageLines, pageCount, k);
+        return pageChars[p] + getPage(p).newLines[k - pageLines[p]] + 1;
+    }
+
+    @Override
+    public int getLineOfOffset(int offset) {
+        if (pageCount == 0 || offset <= 0) {
+            return 0;
+        }
+        int chars = pageChars[pageCount];
+        if (offset >= chars) {
+            return pageLines[pageCount];
+        }
+        int p = floor(pageChars, pageCount, offset);
+        int[] newLines = getPage(p).newLines;
+        int before = floor(newLines, newLines.length, offset - pageChars[p] - 1) + 1;
+        return pageLines[p] + before;
+    }
+
+    /**
+     * Decoded page of the file.
+     * @author Luka Kraljević
+     *
+     */
+    private static class Page {
+
+        /**
+         * Characters of the page.
+         */
+        final char[] chars;
+
+        /**
+         * Offsets of line breaks inside the page.
+         */
+        final int[] newLines;
+
+        /**
+         * Creates the page and finds its line breaks.
+         * @param chars characters of the page
+         */
+        Page(char[] chars) {
+            this.chars = chars;
+            int count = 0;
+            for (char c : chars) {
+                if (c == '\n') {
+                    count++;
+                }
+            }
+            newLines = new int[count];
+            for (int i = 0, j = 0; i < chars.length; i++) {
+                if (chars[i] == '\n') {
+                    newLines[j++] = i;
+                }
+            }
+        }
+    }
+}
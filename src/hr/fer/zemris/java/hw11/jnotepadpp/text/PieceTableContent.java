@@ -0,0 +1,963 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import javax.swing.text.AbstractDocument;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.undo.AbstractUndoableEdit;
+import javax.swing.undo.CannotRedoException;
+import javax.swing.undo.CannotUndoException;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Content which is described by a piece table. The original text is never
+ * changed and inserted text is only ever appended to a separate buffer, so
+ * the text of the document is a sequence of pieces of these two buffers.
+ * Pieces are kept in a balanced tree (a treap) together with the number of
+ * characters and line breaks of every subtree, so inserting, removing and
+ * finding lines take logarithmic time anywhere in the document. The original
+ * buffer can be a file mapped by {@link MappedContent}, which makes even the
+ * largest files editable.
+ * <p>
+ * Removed pieces are kept by the returned undoable edits, so undoing a change
+ * never copies the text.
+ * @author Luka Kraljević
+ *
+ */
+public class PieceTableContent implements SnapshotContent, LineIndex {
+
+    /**
+     * Buffer with the original text.
+     */
+    private final Buffer original;
+
+    /**
+     * Buffer which inserted text is appended to.
+     */
+    private final ArrayBuffer added;
+
+    /**
+     * Root of the tree of pieces, or null if the document is empty.
+     */
+    private Node root;
+
+    /**
+     * Source of priorities of the tree's nodes.
+     */
+    private final Random random = new Random();
+
+    /**
+     * Positions which follow the changes of the text.
+     */
+    private final List<WeakReference<Mark>> marks = new ArrayList<>();
+
+    /**
+     * Creates content with given original text.
+     * @param text original text
+     */
+    public PieceTableContent(String text) {
+        this(new ArrayBuffer(text.toCharArray(), text.length()));
+    }
+
+    /**
+     * Creates content whose original text is read from given mapped file.
+     * @param mapped content of the mapped file
+     */
+    public PieceTableContent(MappedContent mapped) {
+        this(new MappedBuffer(mapped));
+    }
+
+    /**
+     * Creates content with given original buffer.
+     * @param original buffer with the original text
+     */
+    private PieceTableContent(Buffer original) {
+        this.original = original;
+        this.added = new ArrayBuffer(new char[16], 0);
+        if (original.length() > 0) {
+            root = new Node(original, 0, original.length(), random.nextInt());
+        }
+    }
+
+    /**
+     * Creates content which shares buffers with another one.
+     * @param original buffer with the original text
+     * @param added buffer which inserted text is appended to
+     * @param root root of the tree of pieces
+     */
+    private PieceTableContent(Buffer original, ArrayBuffer added, Node root) {
+        this.original = original;
+        this.added = added;
+        this.root = root;
+    }
+
+    /**
+     * Takes snapshot of the text in constant time. Nodes of the tree never
+     * change, every change copies only the nodes on its path from the root,
+     * so the snapshot shares the current tree and both buffers, whose
+     * characters never change either. The snapshot may be read from any
+     * thread while this content keeps changing, but it must not be changed
+     * itself.
+     * @return content with the current text
+     */
+    @Override
+    public PieceTableContent snapshot() {
+        return new PieceTableContent(original, added, root);
+    }
+
+    /**
+     * Checks if the original text is read from a mapped file.
+     * @return true if the original buffer is mapped
+     */
+    public boolean isMapped() {
+        return original instanceof MappedBuffer;
+    }
+
+    /**
+     * Estimates number of heap bytes taken by the buffers and the pieces.
+     * A mapped original buffer isn't counted.
+     * @return estimated size in bytes
+     */
+    public long getHeapSize() {
+        return original.getHeapSize() + added.getHeapSize() + 48L * getPieceCount();
+    }
+
+    /**
+     * Returns number of pieces the text currently consists of.
+     * @return number of pieces
+     */
+    public int getPieceCount() {
+        return count(root);
+    }
+
+    /**
+     * Returns number of text characters, without the implied line break at
+     * the end.
+     * @return number of characters
+     */
+    private int textLength() {
+        return size(root);
+    }
+
+    @Override
+    public Position createPosition(int offset) throws BadLocationException {
+        if (offset < 0 || offset > length()) {
+            throw new BadLocationException("Invalid position", offset);
+        }
+        Mark mark = new Mark(offset);
+        marks.add(new WeakReference<>(mark));
+        return mark;
+    }
+
+    @Override
+    public int length() {
+        return textLength() + 1;
+    }
+
+    @Override
+    public UndoableEdit insertString(int where, String str) throws BadLocationException {
+        if (where < 0 || where > textLength()) {
+            throw new BadLocationException("Invalid insert", where);
+        }
+        if (str.isEmpty()) {
+            return null;
+        }
+
+        int start = added.length();
+        added.append(str);
+        Node[] parts = split(root, where);
+        Node last = rightmost(parts[0]);
+        if (last != null && last.buffer == added && last.start + last.length == start) {
+            Node grown = grow(parts[0], str.length(), added.newlines(start, start + str.length()));
+            root = merge(grown, parts[1]);
+        } else {
+            Node piece = new Node(added, start, str.length(), random.nextInt());
+            root = merge(merge(parts[0], piece), parts[1]);
+        }
+        inserted(where, str.length());
+        return new InsertEdit(where, str.length());
+    }
+
+    @Override
+    public UndoableEdit remove(int where, int nitems) throws BadLocationException {
+        if (where < 0 || nitems < 0 || where + nitems > textLength()) {
+            throw new BadLocationException("Invalid remove", where);
+        }
+        if (nitems == 0) {
+            return null;
+        }
+
+        Node pieces = cut(where, nitems);
+        return new RemoveEdit(where, nitems, pieces);
+    }
+
+    @Override
+    public String getString(int where, int len) throws BadLocationException {
+        Segment s = new Segment();
+        getChars(where, len, s);
+        return new String(s.array, s.offset, s.count);
+    }
+
+    @Override
+    public void getChars(int where, int len, Segment txt) throws BadLocationException {
+        int chars = textLength();
+        if (where < 0 || len < 0 || where + len > chars + 1) {
+            throw new BadLocationException("Invalid range", where);
+        }
+
+        if (txt.isPartialReturn() && where < chars) {
+            Node node = root;
+            int base = 0;
+            while (true) {
+                int left = size(node.left);
+                if (where < base + left) {
+                    node = node.left;
+                } else if (where < base + left + node.length) {
+                    break;
+                } else {
+                    base += left + node.length;
+                    node = node.right;
+                }
+            }
+            int local = where - base - size(node.left);
+            if (node.buffer instanceof ArrayBuffer) {
+                txt.array = ((ArrayBuffer) node.buffer).chars;
+                txt.offset = node.start + local;
+                txt.count = Math.min(len, node.length - local);
+                return;
+            }
+            if (node.buffer instanceof MappedBuffer) {
+                ((MappedBuffer) node.buffer).getChars(node.start + local,
+                        Math.min(len, node.length - local), txt);
+                return;
+            }
+        }
+
+        char[] buffer = new char[len];
+        int end = Math.min(where + len, chars);
+        copy(root, 0, where, end, buffer, where);
+        if (where + len > chars) {
+            buffer[len - 1] = '\n';
+        }
+        txt.array = buffer;
+        txt.offset = 0;
+        txt.count = len;
+    }
+
+    @Override
+    public int getLineCount() {
+        return lines(root) + 1;
+    }
+
+    @Override
+    public int getLineStart(int line) {
+        if (line <= 0 || lines(root) == 0) {
+            return 0;
+        }
+        int k = Math.min(line, lines(root)) - 1;
+        Node node = root;
+        int base = 0;
+        while (true) {
+            int leftLines = lines(node.left);
+            if (k < leftLines) {
+                node = node.left;
+            } else if (k < leftLines + node.lines) {
+                int start = base + size(node.left);
+                return start + node.buffer.newlineAt(node.start, k - leftLines) - node.start + 1;
+            } else {
+                k -= leftLines + node.lines;
+                base += size(node.left) + node.length;
+                node = node.right;
+            }
+        }
+    }
+
+    @Override
+    public int getLineOfOffset(int offset) {
+        if (offset <= 0) {
+            return 0;
+        }
+        if (offset >= textLength()) {
+            return lines(root);
+        }
+        Node node = root;
+        int base = 0;
+        int before = 0;
+        while (node != null) {
+            int left = size(node.left);
+            if (offset < base + left) {
+                node = node.left;
+            } else if (offset < base + left + node.length) {
+                int local = offset - base - left;
+                return before + lines(node.left) + node.buffer.newlines(node.start, node.start + local);
+            } else {
+                before += lines(node.left) + node.lines;
+                base += left + node.length;
+                node = node.right;
+            }
+        }
+        return before;
+    }
+
+    /**
+     * Removes given range of the text from the tree.
+     * @param where offset where the range starts
+     * @param length length of the range
+     * @return tree of the removed pieces
+     */
+    private Node cut(int where, int length) {
+        Node[] first = split(root, where);
+        Node[] second = split(first[1], length);
+        root = merge(first[0], second[1]);
+        removed(where, length);
+        return second[0];
+    }
+
+    /**
+     * Puts given tree of pieces back into the text.
+     * @param where offset where the pieces are inserted
+     * @param pieces tree of the pieces
+     */
+    private void paste(int where, Node pieces) {
+        Node[] parts = split(root, where);
+        root = merge(merge(parts[0], pieces), parts[1]);
+        inserted(where, size(pieces));
+    }
+
+    /**
+     * Moves positions after an insert.
+     * @param where offset of the insert
+     * @param length number of inserted characters
+     */
+    private void inserted(int where, int length) {
+        Iterator<WeakReference<Mark>> it = marks.iterator();
+        while (it.hasNext()) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset > where || mark.offset == where && where != 0) {
+                mark.offset += length;
+            }
+        }
+    }
+
+    /**
+     * Moves positions after a remove.
+     * @param where offset of the remove
+     * @param length number of removed characters
+     */
+    private void removed(int where, int length) {
+        Iterator<WeakReference<Mark>> it = marks.iterator();
+        while (it.hasNext()) {
+            Mark mark = it.next().get();
+            if (mark == null) {
+                it.remove();
+            } else if (mark.offset >= where + length) {
+                mark.offset -= length;
+            } else if (mark.offset > where) {
+                mark.offset = where;
+            }
+        }
+    }
+
+    /**
+     * Splits the tree so the first part has given number of characters. A
+     * piece which crosses the offset is split in two. The tree itself is not
+     * changed, nodes on the path of the split are copied.
+     * @param node root of the tree
+     * @param offset number of characters of the first part
+     * @return roots of both parts
+     */
+    private Node[] split(Node node, int offset) {
+        if (node == null) {
+            return new Node[2];
+        }
+        int left = size(node.left);
+        if (offset <= left) {
+            Node[] parts = split(node.left, offset);
+            parts[1] = node.with(parts[1], node.right);
+            return parts;
+        }
+        if (offset >= left + node.length) {
+            Node[] parts = split(node.right, offset - left - node.length);
+            parts[0] = node.with(node.left, parts[0]);
+            return parts;
+        }
+
+        int local = offset - left;
+        int lines = node.buffer.newlines(node.start, node.start + local);
+        Node head = new Node(node.buffer, node.start, local, lines, node.priority,
+                node.left, null);
+        Node tail = new Node(node.buffer, node.start + local, node.length - local,
+                node.lines - lines, random.nextInt(), null, null);
+        return new Node[] { head, merge(tail, node.right) };
+    }
+
+    /**
+     * Joins two trees, all characters of the first one coming before the
+     * characters of the second one. Neither tree is changed, nodes on the
+     * path of the join are copied.
+     * @param a first tree
+     * @param b second tree
+     * @return root of the joined tree
+     */
+    private static Node merge(Node a, Node b) {
+        if (a == null) {
+            return b;
+        }
+        if (b == null) {
+            return a;
+        }
+        if (a.priority > b.priority) {
+            return a.with(a.left, merge(a.right, b));
+        }
+        return b.with(merge(a, b.left), b.right);
+    }
+
+    /**
+     * Returns the last piece of the tree.
+     * @param node root of the tree
+     * @return the last piece, or null if the tree is empty
+     */
+    private static Node rightmost(Node node) {
+        if (node == null) {
+            return null;
+        }
+        while (node.right != null) {
+            node = node.right;
+        }
+        return node;
+    }
+
+    /**
+     * Makes the last piece of the tree longer, because the inserted text
+     * directly follows it in the append buffer. Nodes on the path to the
+     * last piece are copied.
+     * @param node root of the tree
+     * @param length number of added characters
+     * @param lines number of added line breaks
+     * @return root of the changed copy of the tree
+     */
+    private static Node grow(Node node, int length, int lines) {
+        if (node.right != null) {
+            return node.with(node.left, grow(node.right, length, lines));
+        }
+        return new Node(node.buffer, node.start, node.length + length, node.lines + lines,
+                node.priority, node.left, null);
+    }
+
+    /**
+     * Copies the characters of a range which belong to the tree.
+     * @param node root of the tree
+     * @param base offset of the tree's first character
+     * @param from offset where the range starts
+     * @param to offset where the range ends
+     * @param dst array which receives the characters
+     * @param dstBase offset in the text of the array's first character
+     */
+    private static void copy(Node node, int base, int from, int to, char[] dst, int dstBase) {
+        if (node == null || to <= base || from >= base + node.size) {
+            return;
+        }
+        copy(node.left, base, from, to, dst, dstBase);
+        int start = base + size(node.left);
+        int end = start + node.length;
+        int s = Math.max(from, start);
+        int e = Math.min(to, end);
+        if (s < e) {
+            node.buffer.getChars(node.start + s - start, e - s, dst, s - dstBase);
+        }
+        copy(node.right, end, from, to, dst, dstBase);
+    }
+
+    /**
+     * @param node root of a tree or null
+     * @return number of characters of the tree
+     */
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    /**
+     * @param node root of a tree or null
+     * @return number of line breaks of the tree
+     */
+    private static int lines(Node node) {
+        return node == null ? 0 : node.lineSum;
+    }
+
+    /**
+     * @param node root of a tree or null
+     * @return number of pieces of the tree
+     */
+    private static int count(Node node) {
+        return node == null ? 0 : 1 + count(node.left) + count(node.right);
+    }
+
+    /**
+     * Piece of one of the buffers, which is also a node of the tree. Nodes
+     * never change once they are created, so trees may share them.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Node {
+
+        /**
+         * Buffer the piece belongs to.
+         */
+        final Buffer buffer;
+
+        /**
+         * Offset in the buffer where the piece starts.
+         */
+        final int start;
+
+        /**
+         * Number of characters of the piece.
+         */
+        final int length;
+
+        /**
+         * Number of line breaks in the piece.
+         */
+        final int lines;
+
+        /**
+         * Priority of the node, parents have higher priority than children.
+         */
+        final int priority;
+
+        /**
+         * Pieces before this one.
+         */
+        final Node left;
+
+        /**
+         * Pieces after this one.
+         */
+        final Node right;
+
+        /**
+         * Number of characters of the subtree.
+         */
+        final int size;
+
+        /**
+         * Number of line breaks of the subtree.
+         */
+        final int lineSum;
+
+        /**
+         * Creates the piece.
+         * @param buffer buffer the piece belongs to
+         * @param start offset in the buffer where the piece starts
+         * @param length number of characters of the piece
+         * @param priority priority of the node
+         */
+        Node(Buffer buffer, int start, int length, int priority) {
+            this(buffer, start, length, buffer.newlines(start, start + length), priority,
+                    null, null);
+        }
+
+        /**
+         * Creates the node.
+         * @param buffer buffer the piece belongs to
+         * @param start offset in the buffer where the piece starts
+         * @param length number of characters of the piece
+         * @param lines number of line breaks in the piece
+         * @param priority priority of the node
+         * @param left pieces before this one
+         * @param right pieces after this one
+         */
+        Node(Buffer buffer, int start, int length, int lines, int priority, Node left,
+                Node right) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.lines = lines;
+            this.priority = priority;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+            this.lineSum = lines(left) + lines + lines(right);
+        }
+
+        /**
+         * Creates a copy of this node with other children.
+         * @param left pieces before this one
+         * @param right pieces after this one
+         * @return the copy
+         */
+        Node with(Node left, Node right) {
+            return new Node(buffer, start, length, lines, priority, left, right);
+        }
+    }
+
+    /**
+     * Buffer of characters which knows where its line breaks are.
+     * @author Luka Kraljević
+     *
+     */
+    private interface Buffer {
+
+        /**
+         * @return number of characters in the buffer
+         */
+        int length();
+
+        /**
+         * Copies characters of the buffer.
+         * @param start offset of the first copied character
+         * @param length number of copied characters
+         * @param dst array which receives the characters
+         * @param dstOffset offset in the array
+         */
+        void getChars(int start, int length, char[] dst, int dstOffset);
+
+        /**
+         * Counts line breaks in a range of the buffer.
+         * @param start offset where the range starts
+         * @param end offset where the range ends
+         * @return number of line breaks in the range
+         */
+        int newlines(int start, int end);
+
+        /**
+         * Finds a line break.
+         * @param start offset where counting starts
+         * @param k number of line breaks to skip
+         * @return offset of the line break
+         */
+        int newlineAt(int start, int k);
+
+        /**
+         * @return number of heap bytes taken by the buffer
+         */
+        long getHeapSize();
+    }
+
+    /**
+     * Buffer kept in an array, which can grow at its end.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class ArrayBuffer implements Buffer {
+
+        /**
+         * Characters of the buffer. Characters which are already in the
+         * buffer never change, so snapshots may read them from other threads.
+         */
+        volatile char[] chars;
+
+        /**
+         * Number of characters of the buffer.
+         */
+        private int length;
+
+        /**
+         * Offsets of the line breaks.
+         */
+        private int[] breaks = new int[16];
+
+        /**
+         * Number of the line breaks.
+         */
+        private int breakCount;
+
+        /**
+         * Creates the buffer with given characters.
+         * @param chars array of the characters
+         * @param length number of the characters
+         */
+        ArrayBuffer(char[] chars, int length) {
+            this.chars = chars;
+            this.length = 0;
+            scan(length);
+        }
+
+        /**
+         * Appends text to the buffer.
+         * @param text appended text
+         */
+        void append(String text) {
+            char[] array = chars;
+            if (length + text.length() > array.length) {
+                array = Arrays.copyOf(array, Math.max(array.length * 2, length + text.length()));
+            }
+            text.getChars(0, text.length(), array, length);
+            chars = array;
+            scan(length + text.length());
+        }
+
+        /**
+         * Finds line breaks of the characters added to the array.
+         * @param newLength new number of characters
+         */
+        private void scan(int newLength) {
+            char[] array = chars;
+            for (int i = length; i < newLength; i++) {
+                if (array[i] == '\n') {
+                    if (breakCount == breaks.length) {
+                        breaks = Arrays.copyOf(breaks, breaks.length * 2);
+                    }
+                    breaks[breakCount++] = i;
+                }
+            }
+            length = newLength;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public void getChars(int start, int count, char[] dst, int dstOffset) {
+            System.arraycopy(chars, start, dst, dstOffset, count);
+        }
+
+        @Override
+        public int newlines(int start, int end) {
+            return lowerBound(end) - lowerBound(start);
+        }
+
+        @Override
+        public int newlineAt(int start, int k) {
+            return breaks[lowerBound(start) + k];
+        }
+
+        @Override
+        public long getHeapSize() {
+            return 2L * chars.length + 4L * breaks.length;
+        }
+
+        /**
+         * Finds the first line break at or after given offset.
+         * @param offset offset in the buffer
+         * @return index of the line break
+         */
+        private int lowerBound(int offset) {
+            int lo = 0;
+            int hi = breakCount;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (breaks[mid] < offset) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+    }
+
+    /**
+     * Buffer of a mapped file, whose line breaks are already indexed.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class MappedBuffer implements Buffer {
+
+        /**
+         * Content of the mapped file.
+         */
+        private final MappedContent content;
+
+        /**
+         * Creates the buffer.
+         * @param content content of the mapped file
+         */
+        MappedBuffer(MappedContent content) {
+            this.content = content;
+        }
+
+        @Override
+        public int length() {
+            return content.length() - 1;
+        }
+
+        @Override
+        public void getChars(int start, int length, char[] dst, int dstOffset) {
+            // buffers are shared with snapshots read on other threads
+            Segment segment = new Segment();
+            segment.setPartialReturn(true);
+            int done = 0;
+            try {
+                while (done < length) {
+                    content.getChars(start + done, length - done, segment);
+                    System.arraycopy(segment.array, segment.offset, dst, dstOffset + done, segment.count);
+                    done += segment.count;
+                }
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        /**
+         * Returns characters of the buffer in given segment, which may hold
+         * only their first part if it allows partial return.
+         * @param start offset of the first character
+         * @param length number of characters
+         * @param txt segment for the characters
+         */
+        void getChars(int start, int length, Segment txt) {
+            try {
+                content.getChars(start, length, txt);
+            } catch (BadLocationException ex) {
+                throw new IllegalStateException(ex);
+            }
+        }
+
+        @Override
+        public int newlines(int start, int end) {
+            return content.getLineOfOffset(end) - content.getLineOfOffset(start);
+        }
+
+        @Override
+        public long getHeapSize() {
+            return 0;
+        }
+
+        @Override
+        public int newlineAt(int start, int k) {
+            return content.getLineStart(content.getLineOfOffset(start) + k + 1) - 1;
+        }
+    }
+
+    /**
+     * Position which follows the changes of the text.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Mark implements Position {
+
+        /**
+         * Current offset of the position.
+         */
+        int offset;
+
+        /**
+         * Creates the position.
+         * @param offset offset of the position
+         */
+        Mark(int offset) {
+            this.offset = offset;
+        }
+
+        @Override
+        public int getOffset() {
+            return offset;
+        }
+    }
+
+    /**
+     * Undoable insert, which keeps the inserted pieces while it is undone.
+     * @author Luka Kraljević
+     *
+     */
+    private class InsertEdit extends AbstractUndoableEdit {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Offset of the insert.
+         */
+        private final int where;
+
+        /**
+         * Number of inserted characters.
+         */
+        private final int length;
+
+        /**
+         * Inserted pieces while the insert is undone.
+         */
+        private Node pieces;
+
+        /**
+         * Creates the edit.
+         * @param where offset of the insert
+         * @param length number of inserted characters
+         */
+        InsertEdit(int where, int length) {
+            this.where = where;
+            this.length = length;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            pieces = cut(where, length);
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            paste(where, pieces);
+            pieces = null;
+        }
+    }
+
+    /**
+     * Undoable remove, which keeps the removed pieces until it is undone.
+     * @author Luka Kraljević
+     *
+     */
+    private class RemoveEdit extends AbstractUndoableEdit {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        /**
+         * Offset of the remove.
+         */
+        private final int where;
+
+        /**
+         * Number of removed characters.
+         */
+        private final int length;
+
+        /**
+         * Removed pieces while the remove is done.
+         */
+        private Node pieces;
+
+        /**
+         * Creates the edit.
+         * @param where offset of the remove
+         * @param length number of removed characters
+         * @param pieces removed pieces
+         */
+        RemoveEdit(int where, int length, Node pieces) {
+            this.where = where;
+            this.length = length;
+            this.pieces = pieces;
+        }
+
+        @Override
+        public void undo() throws CannotUndoException {
+            super.undo();
+            paste(where, pieces);
+            pieces = null;
+        }
+
+        @Override
+        public void redo() throws CannotRedoException {
+            super.redo();
+            pieces = cut(where, length);
+        }
+    }
+}
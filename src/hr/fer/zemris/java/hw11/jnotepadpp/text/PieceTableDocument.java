@@ -0,0 +1,66 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * Editable plain text document stored in a {@link PieceTableContent}. Its
+ * lines are read from the piece table, so they are found in logarithmic time
+ * and no object is kept for any of them.
+ * @author Luka Kraljević
+ *
+ */
+public class PieceTableDocument extends LineIndexedDocument {
+
+    /**
+     * Default serial version.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates the document over given content.
+     * @param content piece table with the text of the document
+     */
+    public PieceTableDocument(PieceTableContent content) {
+        super(content, content);
+    }
+
+    /**
+     * Creates a piece table document with the same text as given document. A
+     * document mapped from a file keeps the mapped file as the original
+     * buffer, others are copied into memory.
+     * @param doc copied document
+     * @return new document
+     * @throws BadLocationException never
+     */
+    public static PieceTableDocument copyOf(Document doc) throws BadLocationException {
+        PieceTableDocument copy;
+        if (doc instanceof LineIndexedDocument && ((LineIndexedDocument) doc).isReadOnly()) {
+            MappedContent mapped = (MappedContent) ((LineIndexedDocument) doc).getLineIndex();
+            copy = new PieceTableDocument(new PieceTableContent(mapped));
+            copy.putProperty(StreamDescriptionProperty, doc.getProperty(StreamDescriptionProperty));
+        } else {
+            copy = new PieceTableDocument(new PieceTableContent(doc.getText(0, doc.getLength())));
+        }
+        return copy;
+    }
+
+    /**
+     * Takes snapshot of the text, which shares the buffers with this
+     * document. Must be called on the Event Dispatch Thread.
+     * @return content with the current text
+     */
+    @Override
+    public PieceTableContent snapshot() {
+        return ((PieceTableContent) getContent()).snapshot();
+    }
+
+    /**
+     * Checks if the original text of this document is read from a mapped
+     * file, which must not be changed while the document is opened.
+     * @return true if the document is backed by a mapped file
+     */
+    public boolean isMapped() {
+        return ((PieceTableContent) getContent()).isMapped();
+    }
+}
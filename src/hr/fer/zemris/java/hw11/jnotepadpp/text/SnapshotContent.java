@@ -0,0 +1,21 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import javax.swing.text.AbstractDocument;
+
+/**
+ * Content which can take snapshots of its text without copying all of it.
+ * A snapshot never changes, so it can be read from any thread while the
+ * content keeps changing on the Event Dispatch Thread.
+ * @author Luka Kraljević
+ *
+ */
+public interface SnapshotContent extends AbstractDocument.Content {
+
+    /**
+     * Takes snapshot of the text. Must be called on the Event Dispatch
+     * Thread. The snapshot must not be changed.
+     * @return content with the current text
+     */
+    public AbstractDocument.Content snapshot();
+
+}
@@ -0,0 +1,270 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Finds the differences between two versions of a text as a list of edits
+ * which turn the old version into the new one. Common beginning and end of
+ * the texts are skipped first, so a small change of a large text is cheap.
+ * The rest is compared line by line with Myers' algorithm. If the versions
+ * differ in too many lines, the whole changed part is replaced by a single
+ * edit.
+ * @author Luka Kraljević
+ *
+ */
+public class TextDiff {
+
+    /**
+     * Maximum number of inserted and deleted lines the line comparison
+     * searches for.
+     */
+    private static final int MAX_DIFFERENCES = 1024;
+
+    /**
+     * Utility class, no instances.
+     */
+    private TextDiff() {
+    }
+
+    /**
+     * Compares two versions of a text.
+     * @param oldText old version
+     * @param newText new version
+     * @return edits in the order of their offsets, which don't overlap
+     */
+    public static List<Edit> diff(String oldText, String newText) {
+        int oldLength = oldText.length();
+        int newLength = newText.length();
+
+        int prefix = 0;
+        int max = Math.min(oldLength, newLength);
+        while (prefix < max && oldText.charAt(prefix) == newText.charAt(prefix)) {
+            prefix++;
+        }
+        prefix = oldText.lastIndexOf('\n', prefix - 1) + 1;
+
+        int suffix = 0;
+        max -= prefix;
+        while (suffix < max && oldText.charAt(oldLength - 1 - suffix) == newText.charAt(newLength - 1 - suffix)) {
+            suffix++;
+        }
+        int firstBreak = oldText.indexOf('\n', oldLength - suffix);
+        suffix = firstBreak == -1 ? 0 : oldLength - firstBreak - 1;
+
+        List<Edit> edits = new ArrayList<>();
+        if (prefix == oldLength - suffix && prefix == newLength - suffix) {
+            return edits;
+        }
+
+        int[] oldLines = lineStarts(oldText, prefix, oldLength - suffix);
+        int[] newLines = lineStarts(newText, prefix, newLength - suffix);
+        int[][] hunks = compareLines(oldText, oldLines, newText, newLines);
+        if (hunks == null) {
+            edits.add(new Edit(prefix, oldLength - suffix,
+                    newText.substring(prefix, newLength - suffix)));
+            return edits;
+        }
+
+        for (int[] hunk : hunks) {
+            edits.add(new Edit(oldLines[hunk[0]], oldLines[hunk[1]],
+                    newText.substring(newLines[hunk[2]], newLines[hunk[3]])));
+        }
+        return edits;
+    }
+
+    /**
+     * Finds starts of the lines in given part of a text. The part starts at
+     * the beginning of a line and ends at the end of one.
+     * @param text the text
+     * @param start offset where the part starts
+     * @param end offset where the part ends
+     * @return starts of the lines, followed by the end of the part
+     */
+    private static int[] lineStarts(String text, int start, int end) {
+        List<Integer> starts = new ArrayList<>();
+        int offset = start;
+        while (offset < end) {
+            starts.add(offset);
+            int lineBreak = text.indexOf('\n', offset);
+            offset = lineBreak == -1 || lineBreak >= end ? end : lineBreak + 1;
+        }
+        starts.add(end);
+
+        int[] result = new int[starts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = starts.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * Compares lines of two texts with Myers' algorithm.
+     * @param oldText old version
+     * @param oldLines starts of the compared old lines
+     * @param newText new version
+     * @param newLines starts of the compared new lines
+     * @return changed ranges of lines, each as old start, old end, new start
+     * and new end, or null if the texts differ in too many lines
+     */
+    private static int[][] compareLines(String oldText, int[] oldLines, String newText, int[] newLines) {
+        Map<String, Integer> ids = new HashMap<>();
+        int[] a = lineIds(oldText, oldLines, ids);
+        int[] b = lineIds(newText, newLines, ids);
+        int n = a.length;
+        int m = b.length;
+
+        int limit = Math.min(n + m, MAX_DIFFERENCES);
+        int offset = limit + 1;
+        int[] v = new int[2 * limit + 3];
+        List<int[]> trace = new ArrayList<>();
+        int differences = -1;
+        search:
+        for (int d = 0; d <= limit; d++) {
+            trace.add(v.clone());
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || k != d && v[offset + k - 1] < v[offset + k + 1]
+                        ? v[offset + k + 1]
+                        : v[offset + k - 1] + 1;
+                int y = x - k;
+                while (x < n && y < m && a[x] == b[y]) {
+                    x++;
+                    y++;
+                }
+                v[offset + k] = x;
+                if (x >= n && y >= m) {
+                    differences = d;
+                    break search;
+                }
+            }
+        }
+        if (differences == -1) {
+            return null;
+        }
+
+        boolean[] deleted = new boolean[n];
+        boolean[] inserted = new boolean[m];
+        int x = n;
+        int y = m;
+        for (int d = differences; d > 0; d--) {
+            int[] previous = trace.get(d);
+            int k = x - y;
+            int previousK = k == -d || k != d && previous[offset + k - 1] < previous[offset + k + 1]
+                    ? k + 1
+                    : k - 1;
+            int previousX = previous[offset + previousK];
+            int previousY = previousX - previousK;
+            while (x > previousX && y > previousY) {
+                x--;
+                y--;
+            }
+            if (previousK == k + 1) {
+                inserted[previousY] = true;
+            } else {
+                deleted[previousX] = true;
+            }
+            x = previousX;
+            y = previousY;
+        }
+
+        List<int[]> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < n || j < m) {
+            if (i < n && deleted[i] || j < m && inserted[j]) {
+                int oldStart = i;
+                int newStart = j;
+                while (i < n && deleted[i]) {
+                    i++;
+                }
+                while (j < m && inserted[j]) {
+                    j++;
+                }
+                hunks.add(new int[] { oldStart, i, newStart, j });
+            } else {
+                i++;
+                j++;
+            }
+        }
+        return hunks.toArray(new int[hunks.size()][]);
+    }
+
+    /**
+     * Replaces lines by numbers, equal lines getting the same number.
+     * @param text the text
+     * @param lines starts of the lines, followed by the end of the last one
+     * @param ids numbers of the lines seen so far
+     * @return numbers of the lines
+     */
+    private static int[] lineIds(String text, int[] lines, Map<String, Integer> ids) {
+        int[] result = new int[lines.length - 1];
+        for (int i = 0; i < result.length; i++) {
+            String line = text.substring(lines[i], lines[i + 1]);
+            Integer id = ids.get(line);
+            if (id == null) {
+                id = ids.size();
+                ids.put(line, id);
+            }
+            result[i] = id;
+        }
+        return result;
+    }
+
+    /**
+     * Replacement of a range of the old text.
+     * @author Luka Kraljević
+     *
+     */
+    public static final class Edit {
+
+        /**
+         * Offset in the old text where the replaced range starts.
+         */
+        private final int start;
+
+        /**
+         * Offset in the old text where the replaced range ends.
+         */
+        private final int end;
+
+        /**
+         * Text which replaces the range.
+         */
+        private final String text;
+
+        /**
+         * Creates the edit.
+         * @param start offset where the replaced range starts
+         * @param end offset where the replaced range ends
+         * @param text text which replaces the range
+         */
+        public Edit(int start, int end, String text) {
+            this.start = start;
+            this.end = end;
+            this.text = text;
+        }
+
+        /**
+         * @return the start
+         */
+        public int getStart() {
+            return start;
+        }
+
+        /**
+         * @return the end
+         */
+        public int getEnd() {
+            return end;
+        }
+
+        /**
+         * @return the text
+         */
+        public String getText() {
+            return text;
+        }
+    }
+}
@@ -0,0 +1,352 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+import javax.swing.event.ChangeEvent;
+import javax.swing.event.ChangeListener;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+import javax.swing.event.UndoableEditListener;
+import javax.swing.text.Document;
+import javax.swing.text.JTextComponent;
+import javax.swing.undo.CompoundEdit;
+import javax.swing.undo.UndoableEdit;
+
+/**
+ * Undo and redo history of a text component, limited by the memory its
+ * entries take instead of by their number. Edits made between
+ * {@link #begin()} and {@link #end()} form one entry, so an operation which
+ * changes many lines is undone at once. Entries keep only the edits of the
+ * document's content, which remember removed text and just the range of
+ * inserted text, and their size is estimated from the changed lengths. When
+ * the history is larger than its budget the oldest entries are forgotten.
+ * <p>
+ * The history follows the component's document. It is cleared when the
+ * document is replaced or changed while the component isn't editable, as
+ * when a file is loaded or reloaded, because older entries can't be applied
+ * to such a document anymore.
+ * @author Luka Kraljević
+ *
+ */
+public class UndoHistory implements UndoableEditListener {
+
+    /**
+     * Estimated number of bytes an edit takes besides its text.
+     */
+    private static final int EDIT_OVERHEAD = 128;
+
+    /**
+     * Text component whose edits are remembered.
+     */
+    private final JTextComponent editor;
+
+    /**
+     * Document whose edits are currently remembered.
+     */
+    private Document doc;
+
+    /**
+     * Entries which can be undone, newest first.
+     */
+    private final Deque<Entry> undoable = new ArrayDeque<>();
+
+    /**
+     * Entries which can be redone, next one first.
+     */
+    private final Deque<Entry> redoable = new ArrayDeque<>();
+
+    /**
+     * Estimated number of bytes of all entries.
+     */
+    private long size;
+
+    /**
+     * Maximum number of bytes of all entries.
+     */
+    private long budget;
+
+    /**
+     * Number of unfinished {@link #begin()} calls.
+     */
+    private int depth;
+
+    /**
+     * Entry which collects edits until the outermost {@link #end()}.
+     */
+    private Entry open;
+
+    /**
+     * Listeners notified when the history changes.
+     */
+    private final List<ChangeListener> listeners = new ArrayList<>();
+
+    /**
+     * Creates the history.
+     * @param editor text component whose edits are remembered
+     * @param budget maximum number of bytes of all entries
+     */
+    private UndoHistory(JTextComponent editor, long budget) {
+        this.editor = editor;
+        this.budget = budget;
+        follow(editor.getDocument());
+        editor.addPropertyChangeListener("document", e -> follow(editor.getDocument()));
+    }
+
+    /**
+     * Starts remembering edits of given text component.
+     * @param editor text component whose edits are remembered
+     * @param budget maximum number of bytes of all entries
+     * @return history of the component
+     */
+    public static UndoHistory install(JTextComponent editor, long budget) {
+        UndoHistory history = new UndoHistory(editor, budget);
+        editor.putClientProperty(UndoHistory.class, history);
+        return history;
+    }
+
+    /**
+     * Returns history of given text component.
+     * @param editor text component
+     * @return history of the component, or null if it has none
+     */
+    public static UndoHistory of(JTextComponent editor) {
+        return (UndoHistory) editor.getClientProperty(UndoHistory.class);
+    }
+
+    /**
+     * Starts collecting edits into one entry. Calls may be nested, the entry
+     * is finished by the outermost {@link #end()}.
+     */
+    public void begin() {
+        if (depth++ == 0) {
+            open = new Entry();
+        }
+    }
+
+    /**
+     * Finishes the entry started by the matching {@link #begin()}.
+     */
+    public void end() {
+        if (depth == 0 || --depth > 0) {
+            return;
+        }
+        Entry entry = open;
+        open = null;
+        if (entry.count > 0) {
+            entry.edit.end();
+            push(entry);
+        }
+    }
+
+    @Override
+    public void undoableEditHappened(UndoableEditEvent e) {
+        if (!editor.isEditable()) {
+            discardAll();
+            return;
+        }
+
+        UndoableEdit edit = e.getEdit();
+        long bytes = EDIT_OVERHEAD;
+        if (edit instanceof DocumentEvent) {
+            bytes += 2L * ((DocumentEvent) edit).getLength();
+        }
+        if (open != null) {
+            open.edit.addEdit(edit);
+            open.count++;
+            open.size += bytes;
+            return;
+        }
+        Entry entry = new Entry();
+        entry.edit.addEdit(edit);
+        entry.edit.end();
+        entry.count = 1;
+        entry.size = bytes;
+        push(entry);
+    }
+
+    /**
+     * @return true if there is an entry to undo
+     */
+    public boolean canUndo() {
+        return !undoable.isEmpty() && open == null;
+    }
+
+    /**
+     * @return true if there is an entry to redo
+     */
+    public boolean canRedo() {
+        return !redoable.isEmpty() && open == null;
+    }
+
+    /**
+     * Undoes the newest entry.
+     */
+    public void undo() {
+        if (!canUndo()) {
+            return;
+        }
+        Entry entry = undoable.pop();
+        entry.edit.undo();
+        redoable.push(entry);
+        fireChanged();
+    }
+
+    /**
+     * Redoes the entry which was undone last.
+     */
+    public void redo() {
+        if (!canRedo()) {
+            return;
+        }
+        Entry entry = redoable.pop();
+        entry.edit.redo();
+        undoable.push(entry);
+        fireChanged();
+    }
+
+    /**
+     * Forgets all entries.
+     */
+    public void discardAll() {
+        if (undoable.isEmpty() && redoable.isEmpty() && open == null) {
+            return;
+        }
+        for (Entry entry : undoable) {
+            entry.edit.die();
+        }
+        for (Entry entry : redoable) {
+            entry.edit.die();
+        }
+        undoable.clear();
+        redoable.clear();
+        if (open != null) {
+            open = new Entry();
+        }
+        size = 0;
+        fireChanged();
+    }
+
+    /**
+     * @return estimated number of bytes of all entries
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return maximum number of bytes of all entries
+     */
+    public long getBudget() {
+        return budget;
+    }
+
+    /**
+     * Sets maximum number of bytes of all entries, forgetting the oldest ones
+     * if there are too many of them now.
+     * @param budget maximum number of bytes
+     */
+    public void setBudget(long budget) {
+        this.budget = budget;
+        trim();
+        fireChanged();
+    }
+
+    /**
+     * Adds listener notified when entries are added, undone, redone or
+     * forgotten.
+     * @param l listener
+     */
+    public void addChangeListener(ChangeListener l) {
+        listeners.add(l);
+    }
+
+    /**
+     * Removes listener.
+     * @param l listener
+     */
+    public void removeChangeListener(ChangeListener l) {
+        listeners.remove(l);
+    }
+
+    /**
+     * Adds new entry, which makes the undone entries unreachable.
+     * @param entry new entry
+     */
+    private void push(Entry entry) {
+        for (Entry undone : redoable) {
+            undone.edit.die();
+            size -= undone.size;
+        }
+        redoable.clear();
+        undoable.push(entry);
+        size += entry.size;
+        trim();
+        fireChanged();
+    }
+
+    /**
+     * Forgets the oldest entries until the history fits into its budget.
+     */
+    private void trim() {
+        while (size > budget && !undoable.isEmpty()) {
+            Entry oldest = undoable.removeLast();
+            oldest.edit.die();
+            size -= oldest.size;
+        }
+    }
+
+    /**
+     * Starts remembering edits of given document, forgetting entries of the
+     * previous one.
+     * @param newDoc document of the component
+     */
+    private void follow(Document newDoc) {
+        if (doc == newDoc) {
+            return;
+        }
+        if (doc != null) {
+            doc.removeUndoableEditListener(this);
+        }
+        discardAll();
+        doc = newDoc;
+        if (doc != null) {
+            doc.addUndoableEditListener(this);
+        }
+    }
+
+    /**
+     * Notifies listeners about a change.
+     */
+    private void fireChanged() {
+        ChangeEvent e = new ChangeEvent(this);
+        for (ChangeListener l : new ArrayList<>(listeners)) {
+            l.stateChanged(e);
+        }
+    }
+
+    /**
+     * Edits which are undone and redone together.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Entry {
+
+        /**
+         * Edits of the entry.
+         */
+        final CompoundEdit edit = new CompoundEdit();
+
+        /**
+         * Number of edits.
+         */
+        int count;
+
+        /**
+         * Estimated number of bytes of the edits.
+         */
+        long size;
+    }
+}
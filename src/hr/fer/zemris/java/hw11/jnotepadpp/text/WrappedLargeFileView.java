@@ -0,0 +1,919 @@
+package hr.fer.zemris.java.hw11.jnotepadpp.text;
+
+import java.awt.Color;
+import java.awt.Container;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.Shape;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+import javax.swing.text.Element;
+import javax.swing.text.Highlighter;
+import javax.swing.text.JTextComponent;
+import javax.swing.text.LayeredHighlighter;
+import javax.swing.text.PlainDocument;
+import javax.swing.text.Position;
+import javax.swing.text.Segment;
+import javax.swing.text.TabExpander;
+import javax.swing.text.Utilities;
+import javax.swing.text.View;
+import javax.swing.text.ViewFactory;
+
+/**
+ * View which wraps lines of a {@link LineIndexedDocument} at the width of
+ * the text component, used instead of {@link LargeFileView} when the text
+ * area wraps lines. Lines are broken between characters, not between words.
+ * <p>
+ * Lines are broken into rows lazily. Only the lines of the visible rows and
+ * of {@link #PREFETCH} rows below them are broken, and a long line is broken
+ * only up to those rows, so a line of hundreds of megabytes is never broken
+ * as a whole just to paint its first rows. Number of rows of every other
+ * line is estimated from its length and the average character width, and
+ * the estimate is replaced as the line gets broken, so the preferred height
+ * is corrected while the document is scrolled. Characters are measured with
+ * cached {@link GlyphWidths}.
+ * <p>
+ * Rows are summed by blocks of about {@link #BLOCK} lines, so the line at a
+ * y coordinate is found by searching the blocks and walking the lines of
+ * one block. Edits recount only the blocks of the changed lines. Rows of the
+ * most recently used lines are remembered, and rows of a changed line are
+ * kept up to the change.
+ * @author Luka Kraljević
+ *
+ */
+public class WrappedLargeFileView extends View implements TabExpander {
+
+    /**
+     * Usual number of lines of a block.
+     */
+    private static final int BLOCK = 256;
+
+    /**
+     * Number of rows below the visible ones which are broken in advance.
+     */
+    private static final int PREFETCH = 100;
+
+    /**
+     * Number of lines whose rows are remembered.
+     */
+    private static final int CACHED_LINES = 4096;
+
+    /**
+     * Largest preferred height, so that coordinates of rows don't overflow.
+     */
+    private static final int MAX_HEIGHT = Integer.MAX_VALUE / 2;
+
+    /**
+     * Metrics of the font.
+     */
+    private FontMetrics metrics;
+
+    /**
+     * Widths of characters of the font.
+     */
+    private GlyphWidths widths;
+
+    /**
+     * Width of one tab stop.
+     */
+    private float tabStop;
+
+    /**
+     * X coordinate where rows start.
+     */
+    private int tabOrigin;
+
+    /**
+     * Width at which lines are broken, 0 until the view gets its size.
+     */
+    private int wrapWidth;
+
+    /**
+     * Number of lines of every block.
+     */
+    private int[] blockLines = new int[16];
+
+    /**
+     * Number of rows of every block, known or estimated.
+     */
+    private int[] blockRows = new int[16];
+
+    /**
+     * Number of blocks.
+     */
+    private int blockCount;
+
+    /**
+     * Index of the first line of every block, valid only if
+     * {@link #linesValid} is set.
+     */
+    private int[] firstLines = new int[0];
+
+    /**
+     * Index of the first row of every block, valid only if
+     * {@link #rowsValid} is set.
+     */
+    private int[] firstRows = new int[0];
+
+    /**
+     * Flag which indicates that {@link #firstLines} are valid.
+     */
+    private boolean linesValid;
+
+    /**
+     * Flag which indicates that {@link #firstRows} are valid.
+     */
+    private boolean rowsValid;
+
+    /**
+     * Number of rows of all lines, known or estimated.
+     */
+    private int totalRows;
+
+    /**
+     * Number of rows when the container was last told about the height.
+     */
+    private int reportedRows = -1;
+
+    /**
+     * Row of its line of the row found by {@link #locate(int)}.
+     */
+    private int locatedRow;
+
+    /**
+     * Buffer for reading text.
+     */
+    private final Segment chunk = new Segment();
+
+    /**
+     * Buffer for reading painted rows.
+     */
+    private final Segment text = new Segment();
+
+    /**
+     * Rows of the most recently used lines, by index of the line. When the
+     * rows of a line are forgotten, the line is counted by its estimate
+     * again.
+     */
+    private final Map<Integer, Rows> layouts = new LinkedHashMap<Integer, Rows>(16, 0.75f, true) {
+
+        /**
+         * Default serial version.
+         */
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, Rows> eldest) {
+            if (size() <= CACHED_LINES) {
+                return false;
+            }
+            int line = eldest.getKey();
+            int length = LargeFileView.lineLength(getLineDocument(), line);
+            adjust(line, estimate(length) - rows(eldest.getValue(), length));
+            return true;
+        }
+    };
+
+    /**
+     * Creates view for given element.
+     * @param elem root element of the document
+     */
+    public WrappedLargeFileView(Element elem) {
+        super(elem);
+        chunk.setPartialReturn(true);
+        rebuild();
+    }
+
+    /**
+     * @return document of the view
+     */
+    private LineIndexedDocument getLineDocument() {
+        return (LineIndexedDocument) getDocument();
+    }
+
+    /**
+     * Takes metrics of the component's font, breaking the lines again if the
+     * font changed.
+     */
+    private void updateMetrics() {
+        Container host = getContainer();
+        FontMetrics current = host.getFontMetrics(host.getFont());
+        if (current == metrics) {
+            return;
+        }
+        metrics = current;
+        widths = GlyphWidths.of(metrics);
+        Object size = getDocument().getProperty(PlainDocument.tabSizeAttribute);
+        tabStop = (size instanceof Integer ? (Integer) size : 8) * metrics.charWidth('m');
+        rebuild();
+    }
+
+    /**
+     * Forgets all rows and estimates rows of every line again.
+     */
+    private void rebuild() {
+        layouts.clear();
+        blockCount = 0;
+        totalRows = 0;
+        linesValid = false;
+        rowsValid = false;
+        replaceBlocks(0, -1, 0, getElement().getElementCount());
+    }
+
+    /**
+     * Replaces given blocks with new blocks of given lines, counting rows of
+     * the new blocks.
+     * @param from index of the first replaced block
+     * @param to index of the last replaced block, inclusive, less than from
+     * if no blocks are replaced
+     * @param firstLine index of the first line of the new blocks
+     * @param lines number of lines of the new blocks
+     */
+    private void replaceBlocks(int from, int to, int firstLine, int lines) {
+        int pieces = Math.max(1, lines / BLOCK);
+        int removed = to - from + 1;
+        int count = blockCount - removed + pieces;
+        if (count > blockLines.length) {
+            blockLines = Arrays.copyOf(blockLines, Math.max(count, 2 * blockLines.length));
+            blockRows = Arrays.copyOf(blockRows, blockLines.length);
+        }
+        for (int i = from; i <= to; i++) {
+            totalRows -= blockRows[i];
+        }
+        System.arraycopy(blockLines, to + 1, blockLines, from + pieces, blockCount - to - 1);
+        System.arraycopy(blockRows, to + 1, blockRows, from + pieces, blockCount - to - 1);
+        blockCount = count;
+
+        int line = firstLine;
+        for (int i = 0; i < pieces; i++) {
+            int n = lines / pieces + (i < lines % pieces ? 1 : 0);
+            int rows = 0;
+            for (int j = 0; j < n; j++) {
+                rows += rows(line + j);
+            }
+            blockLines[from + i] = n;
+            blockRows[from + i] = rows;
+            totalRows += rows;
+            line += n;
+        }
+        linesValid = false;
+        rowsValid = false;
+    }
+
+    /**
+     * Returns index of the block of given line.
+     * @param line index of the line
+     * @return index of the block
+     */
+    private int blockOf(int line) {
+        validateLines();
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstLines[middle] <= line) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Makes sure that {@link #firstLines} are valid.
+     */
+    private void validateLines() {
+        if (linesValid) {
+            return;
+        }
+        if (firstLines.length < blockCount) {
+            firstLines = new int[blockLines.length];
+        }
+        for (int i = 0, first = 0; i < blockCount; i++) {
+            firstLines[i] = first;
+            first += blockLines[i];
+        }
+        linesValid = true;
+    }
+
+    /**
+     * Makes sure that {@link #firstRows} are valid.
+     */
+    private void validateRows() {
+        if (rowsValid) {
+            return;
+        }
+        if (firstRows.length < blockCount) {
+            firstRows = new int[blockLines.length];
+        }
+        for (int i = 0, first = 0; i < blockCount; i++) {
+            firstRows[i] = first;
+            first += blockRows[i];
+        }
+        rowsValid = true;
+    }
+
+    /**
+     * Changes number of rows of the block of given line.
+     * @param line index of the line whose number of rows changed
+     * @param delta change of the number of rows
+     */
+    private void adjust(int line, int delta) {
+        if (delta != 0) {
+            blockRows[blockOf(line)] += delta;
+            totalRows += delta;
+            rowsValid = false;
+        }
+    }
+
+    /**
+     * Estimates number of rows of given number of characters.
+     * @param length number of characters
+     * @return estimated number of rows, at least 1
+     */
+    private int estimate(int length) {
+        if (wrapWidth <= 0 || widths == null) {
+            return 1;
+        }
+        return Math.max(1, (int) Math.ceil(length * (double) widths.getAverage() / wrapWidth));
+    }
+
+    /**
+     * Returns number of rows of a line, known or estimated.
+     * @param line index of the line
+     * @return number of rows
+     */
+    private int rows(int line) {
+        return rows(layouts.get(line), LargeFileView.lineLength(getLineDocument(), line));
+    }
+
+    /**
+     * Returns number of rows of a line, known or estimated.
+     * @param rows known rows of the line, or null
+     * @param length number of characters of the line
+     * @return number of rows
+     */
+    private int rows(Rows rows, int length) {
+        if (rows == null) {
+            return estimate(length);
+        }
+        if (rows.complete) {
+            return rows.count;
+        }
+        return rows.count - 1 + estimate(length - rows.starts[rows.count - 1]);
+    }
+
+    /**
+     * Returns index of the first row of a line.
+     * @param line index of the line
+     * @return index of the row
+     */
+    private int rowOfLine(int line) {
+        int block = blockOf(line);
+        validateRows();
+        int row = firstRows[block];
+        for (int i = firstLines[block]; i < line; i++) {
+            row += rows(i);
+        }
+        return row;
+    }
+
+    /**
+     * Finds the line of a row. Index of the row in its line is left in
+     * {@link #locatedRow}.
+     * @param row index of the row, rows past the end are in the last line
+     * @return index of the line
+     */
+    private int locate(int row) {
+        validateRows();
+        int low = 0;
+        int high = blockCount - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (firstRows[middle] <= row) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        validateLines();
+        int line = firstLines[low];
+        int last = getElement().getElementCount() - 1;
+        int first = firstRows[low];
+        while (line < last) {
+            int n = rows(line);
+            if (first + n > row) {
+                break;
+            }
+            first += n;
+            line++;
+        }
+        locatedRow = row - first;
+        return line;
+    }
+
+    /**
+     * Breaks a line into rows until given row and the row of given offset
+     * are known, remembering the rows.
+     * @param line index of the line
+     * @param row index of a row in the line, or -1
+     * @param offset offset in the line, or -1
+     * @return rows of the line
+     */
+    private Rows layout(int line, int row, int offset) {
+        Rows rows = layouts.get(line);
+        if (rows != null && rows.covers(row, offset)) {
+            return rows;
+        }
+        LineIndexedDocument doc = getLineDocument();
+        int length = LargeFileView.lineLength(doc, line);
+        int before = rows(rows, length);
+        if (rows == null) {
+            rows = new Rows();
+        }
+        breakRows(rows, doc.getLineIndex().getLineStart(line), length, row, offset);
+        layouts.put(line, rows);
+        adjust(line, rows(rows, length) - before);
+        return rows;
+    }
+
+    /**
+     * Continues breaking a line into rows.
+     * @param rows rows of the line found so far
+     * @param start offset of the line's start
+     * @param length number of characters of the line
+     * @param row index of a row which has to be known, or -1
+     * @param offset offset in the line whose row has to be known, or -1
+     */
+    private void breakRows(Rows rows, int start, int length, int row, int offset) {
+        if (wrapWidth <= 0) {
+            rows.complete = true;
+            return;
+        }
+        int pos = rows.scanned;
+        double x = rows.x;
+        Document doc = getDocument();
+        try {
+            while (pos < length) {
+                doc.getText(start + pos, length - pos, chunk);
+                for (int i = chunk.offset, end = i + chunk.count; i < end; i++, pos++) {
+                    char c = chunk.array[i];
+                    double next = widths.advance(x, c, tabStop);
+                    if (next > wrapWidth && x > 0) {
+                        rows.add(pos);
+                        if (rows.covers(row, offset)) {
+                            rows.scanned = pos;
+                            rows.x = 0;
+                            return;
+                        }
+                        next = widths.advance(0, c, tabStop);
+                    }
+                    x = next;
+                }
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        rows.scanned = length;
+        rows.x = x;
+        rows.complete = true;
+    }
+
+    /**
+     * Breaks the lines of given rows into rows, so that painting them
+     * doesn't change the height of rows above them.
+     * @param first index of the first row
+     * @param last index of the last row
+     */
+    private void prefetch(int first, int last) {
+        int line = locate(first);
+        int row = first - locatedRow;
+        int count = getElement().getElementCount();
+        while (row <= last && line < count) {
+            Rows rows = layout(line, last - row, -1);
+            if (!rows.complete) {
+                return;
+            }
+            row += rows.count;
+            line++;
+        }
+    }
+
+    /**
+     * Tells the container that the height changed if the number of rows
+     * changed since the height was last asked for.
+     */
+    private void checkHeight() {
+        if (reportedRows != totalRows) {
+            reportedRows = totalRows;
+            preferenceChanged(null, false, true);
+        }
+    }
+
+    @Override
+    public float getPreferredSpan(int axis) {
+        updateMetrics();
+        if (axis == X_AXIS) {
+            return wrapWidth;
+        }
+        return (float) Math.min(MAX_HEIGHT, (long) totalRows * metrics.getHeight());
+    }
+
+    @Override
+    public float getMinimumSpan(int axis) {
+        return axis == X_AXIS ? 0 : getPreferredSpan(axis);
+    }
+
+    @Override
+    public float getMaximumSpan(int axis) {
+        return axis == X_AXIS ? Integer.MAX_VALUE : getPreferredSpan(axis);
+    }
+
+    @Override
+    public void setSize(float width, float height) {
+        updateMetrics();
+        int w = Math.max(1, (int) width);
+        if (w != wrapWidth) {
+            wrapWidth = w;
+            rebuild();
+            checkHeight();
+        }
+    }
+
+    @Override
+    public float nextTabStop(float x, int tabOffset) {
+        if (tabStop == 0) {
+            return x;
+        }
+        int ntabs = (int) ((x - tabOrigin) / tabStop);
+        return tabOrigin + ((ntabs + 1) * tabStop);
+    }
+
+    @Override
+    public void paint(Graphics g, Shape a) {
+        Rectangle alloc = a.getBounds();
+        tabOrigin = alloc.x;
+        updateMetrics();
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = alloc;
+        }
+        int height = metrics.getHeight();
+        int first = Math.max(0, (clip.y - alloc.y) / height);
+        int last = Math.min(totalRows - 1, Math.max(0, clip.y + clip.height - alloc.y) / height);
+        prefetch(first, last + PREFETCH);
+
+        JTextComponent host = (JTextComponent) getContainer();
+        Highlighter h = host.getHighlighter();
+        LayeredHighlighter highlighter = h instanceof LayeredHighlighter ? (LayeredHighlighter) h : null;
+        Color unselected = host.isEnabled() ? host.getForeground() : host.getDisabledTextColor();
+        Color selected = host.getCaret().isSelectionVisible() && h != null
+                ? host.getSelectedTextColor() : unselected;
+        int sel0 = host.getSelectionStart();
+        int sel1 = host.getSelectionEnd();
+        Graphics2D g2d = (Graphics2D) g;
+        g.setFont(host.getFont());
+
+        LineIndexedDocument doc = getLineDocument();
+        int count = getElement().getElementCount();
+        int line = locate(first);
+        int row = locatedRow;
+        int y = alloc.y + first * height;
+        try {
+            for (int i = first; i <= last && line < count; i++) {
+                Rows rows = layout(line, row, -1);
+                if (row >= rows.count) {
+                    line++;
+                    row = 0;
+                    i--;
+                    continue;
+                }
+                int start = doc.getLineIndex().getLineStart(line);
+                int p0 = start + rows.starts[row];
+                int p1 = row + 1 < rows.count ? start + rows.starts[row + 1]
+                        : start + LargeFileView.lineLength(doc, line);
+                if (highlighter != null) {
+                    highlighter.paintLayeredHighlights(g, p0, p1, a, host, this);
+                }
+
+                int s0 = Math.max(p0, Math.min(p1, sel0));
+                int s1 = Math.max(p0, Math.min(p1, sel1));
+                float x = alloc.x;
+                float baseline = y + metrics.getAscent();
+                x = drawText(g2d, x, baseline, p0, s0, unselected);
+                x = drawText(g2d, x, baseline, s0, s1, selected);
+                drawText(g2d, x, baseline, s1, p1, unselected);
+
+                y += height;
+                if (row + 1 >= rows.count && rows.complete) {
+                    line++;
+                    row = 0;
+                } else {
+                    row++;
+                }
+            }
+        } catch (BadLocationException ex) {
+            // the rows are painted again after the change which moved them
+        }
+        checkHeight();
+    }
+
+    /**
+     * Draws given range of the document.
+     * @param g graphics used for drawing
+     * @param x x coordinate of the range's start
+     * @param y y coordinate of the baseline
+     * @param p0 offset of the range's start
+     * @param p1 offset of the range's end
+     * @param color color of the text
+     * @return x coordinate of the range's end
+     * @throws BadLocationException if the range isn't in the document
+     */
+    private float drawText(Graphics2D g, float x, float y, int p0, int p1, Color color)
+            throws BadLocationException {
+        if (p0 >= p1) {
+            return x;
+        }
+        getDocument().getText(p0, p1 - p0, text);
+        g.setColor(color);
+        return Utilities.drawTabbedText(text, x, y, g, this, p0);
+    }
+
+    /**
+     * Measures given range of a row.
+     * @param p0 offset of the row's start
+     * @param p1 offset of the range's end
+     * @return width of the range
+     */
+    private int measure(int p0, int p1) {
+        double x = 0;
+        Document doc = getDocument();
+        try {
+            while (p0 < p1) {
+                doc.getText(p0, p1 - p0, chunk);
+                for (int i = chunk.offset, end = i + chunk.count; i < end; i++) {
+                    x = widths.advance(x, chunk.array[i], tabStop);
+                }
+                p0 += chunk.count;
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        return (int) x;
+    }
+
+    /**
+     * Returns index in its line of the row which contains given offset.
+     * @param rows rows of the line, known at least up to the offset
+     * @param offset offset in the line
+     * @return index of the row
+     */
+    private static int rowOf(Rows rows, int offset) {
+        int low = 0;
+        int high = rows.count - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (rows.starts[middle] <= offset) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Places a position at the start of its row, or at the end of the
+     * previous row if it is a wrap point with backward bias.
+     */
+    @Override
+    public Shape modelToView(int pos, Shape a, Position.Bias b) throws BadLocationException {
+        LineIndexedDocument doc = getLineDocument();
+        if (pos < 0 || pos > doc.getLength()) {
+            throw new BadLocationException("Invalid position", pos);
+        }
+        Rectangle alloc = a.getBounds();
+        tabOrigin = alloc.x;
+        updateMetrics();
+        int line = getElement().getElementIndex(pos);
+        int start = doc.getLineIndex().getLineStart(line);
+        int offset = Math.min(pos - start, LargeFileView.lineLength(doc, line));
+        Rows rows = layout(line, -1, offset);
+        int row = rowOf(rows, offset);
+        if (row > 0 && rows.starts[row] == offset && b == Position.Bias.Backward) {
+            row--;
+        }
+        int x = measure(start + rows.starts[row], start + offset);
+        int height = metrics.getHeight();
+        int y = alloc.y + (rowOfLine(line) + row) * height;
+        checkHeight();
+        return new Rectangle(alloc.x + x, y, 1, height);
+    }
+
+    @Override
+    public int viewToModel(float fx, float fy, Shape a, Position.Bias[] bias) {
+        Rectangle alloc = a.getBounds();
+        tabOrigin = alloc.x;
+        updateMetrics();
+        bias[0] = Position.Bias.Forward;
+        LineIndexedDocument doc = getLineDocument();
+        if (fy < alloc.y) {
+            return 0;
+        }
+        long index = (long) (fy - alloc.y) / metrics.getHeight();
+        if (index >= totalRows) {
+            return doc.getLength();
+        }
+
+        int line = locate((int) index);
+        Rows rows = layout(line, locatedRow, -1);
+        int row = Math.min(locatedRow, rows.count - 1);
+        int start = doc.getLineIndex().getLineStart(line);
+        int p0 = rows.starts[row];
+        int p1 = row + 1 < rows.count ? rows.starts[row + 1] : LargeFileView.lineLength(doc, line);
+        double target = fx - alloc.x;
+        double x = 0;
+        int pos = p0;
+        try {
+            while (pos < p1) {
+                doc.getText(start + pos, p1 - pos, chunk);
+                for (int i = chunk.offset, end = i + chunk.count; i < end; i++, pos++) {
+                    double next = widths.advance(x, chunk.array[i], tabStop);
+                    if (next > target) {
+                        checkHeight();
+                        return start + (next - target < target - x ? pos + 1 : pos);
+                    }
+                    x = next;
+                }
+            }
+        } catch (BadLocationException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (row + 1 < rows.count) {
+            bias[0] = Position.Bias.Backward;
+        }
+        checkHeight();
+        return start + p1;
+    }
+
+    /**
+     * Moves up and down by rows, keeping the x coordinate of the caret,
+     * instead of measuring every position of the row as
+     * {@link View#getNextVisualPositionFrom} does.
+     */
+    @Override
+    public int getNextVisualPositionFrom(int pos, Position.Bias b, Shape a, int direction,
+            Position.Bias[] biasRet) throws BadLocationException {
+        if (pos == -1 || (direction != NORTH && direction != SOUTH)) {
+            return super.getNextVisualPositionFrom(pos, b, a, direction, biasRet);
+        }
+        return LargeFileView.nextRowPosition(this, pos, b, a, direction, biasRet);
+    }
+
+    /**
+     * Returns start of the row which contains given position.
+     * @param pos position in the document
+     * @return offset of the row's start
+     */
+    int getRowStart(int pos) {
+        LineIndexedDocument doc = getLineDocument();
+        int line = getElement().getElementIndex(pos);
+        int start = doc.getLineIndex().getLineStart(line);
+        int offset = Math.min(pos - start, LargeFileView.lineLength(doc, line));
+        Rows rows = layout(line, -1, offset);
+        checkHeight();
+        return start + rows.starts[rowOf(rows, offset)];
+    }
+
+    /**
+     * Returns end of the row which contains given position, the last
+     * position which is still shown in the row.
+     * @param pos position in the document
+     * @return offset of the row's end
+     */
+    int getRowEnd(int pos) {
+        LineIndexedDocument doc = getLineDocument();
+        int line = getElement().getElementIndex(pos);
+        int start = doc.getLineIndex().getLineStart(line);
+        int length = LargeFileView.lineLength(doc, line);
+        int offset = Math.min(pos - start, length);
+        Rows rows = layout(line, -1, offset);
+        int row = rowOf(rows, offset);
+        checkHeight();
+        return start + (row + 1 < rows.count ? rows.starts[row + 1] - 1 : length);
+    }
+
+    @Override
+    public void insertUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    @Override
+    public void removeUpdate(DocumentEvent e, Shape a, ViewFactory f) {
+        update(e, a);
+    }
+
+    /**
+     * Forgets rows of the changed lines, recounts their blocks and repaints
+     * the rows from the change on.
+     * @param e change of the document
+     * @param a allocation of the view
+     */
+    private void update(DocumentEvent e, Shape a) {
+        Element root = getElement();
+        DocumentEvent.ElementChange change = e.getChange(root);
+        int line = root.getElementIndex(e.getOffset());
+        int start = getLineDocument().getLineIndex().getLineStart(line);
+        LargeFileView.forget(layouts, line, e.getOffset() - start, change);
+
+        int removed = change == null ? 1 : change.getChildrenRemoved().length;
+        int added = change == null ? 1 : change.getChildrenAdded().length;
+        int from = blockOf(line);
+        int to = blockOf(line + removed - 1);
+        int firstLine = firstLines[from];
+        int lines = firstLines[to] + blockLines[to] - firstLine - removed + added;
+        replaceBlocks(from, to, firstLine, lines);
+        checkHeight();
+
+        Container host = getContainer();
+        if (a != null && host != null && metrics != null) {
+            Rectangle alloc = a.getBounds();
+            int y = alloc.y + rowOfLine(line) * metrics.getHeight();
+            host.repaint(alloc.x, y, alloc.width, Math.max(0, alloc.y + alloc.height - y));
+        }
+    }
+
+    /**
+     * Known rows of a line.
+     * @author Luka Kraljević
+     *
+     */
+    private static final class Rows implements LargeFileView.Truncatable {
+
+        /**
+         * Offsets in the line where rows start, the first row starts at 0.
+         */
+        private int[] starts = new int[4];
+
+        /**
+         * Number of known rows.
+         */
+        private int count = 1;
+
+        /**
+         * Number of characters of the line broken into rows so far.
+         */
+        private int scanned;
+
+        /**
+         * X coordinate after the broken characters, relative to the start of
+         * their row.
+         */
+        private double x;
+
+        /**
+         * Flag which indicates that the whole line is broken into rows.
+         */
+        private boolean complete;
+
+        /**
+         * Remembers start of the next row.
+         * @param start offset in the line where the row starts
+         */
+        void add(int start) {
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+            }
+            starts[count++] = start;
+        }
+
+        /**
+         * Checks if given row and the row of given offset are known.
+         * @param row index of a row in the line, or -1
+         * @param offset offset in the line, or -1
+         * @return true if both rows are known, with their ends
+         */
+        boolean covers(int row, int offset) {
+            return complete || count > row + 1 && starts[count - 1] > offset;
+        }
+
+        @Override
+        public boolean truncate(int offset) {
+            while (count > 1 && starts[count - 1] >= offset) {
+                count--;
+            }
+            scanned = starts[count - 1];
+            x = 0;
+            complete = false;
+            return true;
+        }
+    }
+}